@@ -0,0 +1,175 @@
+package com.tirana.smartparking.parking.pricing;
+
+import com.tirana.smartparking.common.dto.Money;
+import com.tirana.smartparking.common.util.VisitSlice;
+import com.tirana.smartparking.common.util.VisitSlicer;
+import com.tirana.smartparking.parking.entity.Enum.RateType;
+import com.tirana.smartparking.parking.entity.Enum.UserGroup;
+import com.tirana.smartparking.parking.entity.Enum.VehicleType;
+import com.tirana.smartparking.parking.entity.LotRateAssignment;
+import com.tirana.smartparking.parking.entity.RatePlan;
+import com.tirana.smartparking.parking.entity.RateRule;
+import com.tirana.smartparking.parking.repository.LotRateAssignmentRepository;
+import com.tirana.smartparking.parking.repository.RatePlanRepository;
+import com.tirana.smartparking.parking.repository.RateRuleRepository;
+import com.tirana.smartparking.parking.repository.SpaceRateOverrideRepository;
+import com.tirana.smartparking.parking.service.implementation.PricingServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * JMH benchmarks for pricing a visit: the legacy {@link VisitSlicer#sliceByDayAndTime} and
+ * {@link VisitSlice#matchedRule} path, and {@link PricingServiceImpl#quote} on the
+ * {@link PricingKernel}. Runs every {@link RateType} with a short visit and a week-long one,
+ * against plans with a few rules and with many. Repositories are in-memory stubs, so after the
+ * first call a quote is answered from the {@link RatePlanCache} as in production.
+ * <p>
+ * Lives outside src/test so the regular build does not need JMH. Run with
+ * <pre>
+ *   mvn -Pbenchmarks test-compile exec:exec [-Dbenchmark=PricingBenchmark.quote]
+ * </pre>
+ * The profile passes {@code -prof gc}, so next to ops/s the results carry
+ * {@code gc.alloc.rate.norm}, the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+
+    private static final long LOT_ID = 1L;
+    private static final long PLAN_ID = 10L;
+    private static final ZoneId ZONE = ZoneId.of("Europe/Tirane");
+    // A Monday morning away from DST changes
+    private static final ZonedDateTime START = ZonedDateTime.of(2025, 1, 13, 9, 10, 0, 0, ZONE);
+
+    @Param
+    public RateType type;
+
+    @Param({"SHORT", "WEEK"})
+    public String session;
+
+    @Param({"4", "64"})
+    public int rules;
+
+    private List<RateRule> planRules;
+    private ZonedDateTime end;
+    private List<VisitSlice> slices;
+    private PricingServiceImpl pricingService;
+
+    @Setup
+    public void setUp() {
+        RatePlan plan = new RatePlan(PLAN_ID, "benchmark", type, "ALL", ZONE.getId(), 10, 15, 2000,
+                true, Instant.now(), Instant.now());
+        planRules = rules(type, rules);
+        end = "WEEK".equals(session) ? START.plusDays(7) : START.plusMinutes(150);
+        slices = VisitSlicer.sliceByDayAndTime(START, end, planRules, ZONE);
+
+        LotRateAssignment assignment = new LotRateAssignment();
+        assignment.setRatePlan(plan);
+
+        RatePlanRepository ratePlanRepository = mock(RatePlanRepository.class);
+        RateRuleRepository rateRuleRepository = mock(RateRuleRepository.class);
+        LotRateAssignmentRepository lotRateAssignmentRepository = mock(LotRateAssignmentRepository.class);
+        when(ratePlanRepository.findById(PLAN_ID)).thenReturn(Optional.of(plan));
+        when(rateRuleRepository.findByRatePlanId(PLAN_ID)).thenReturn(planRules);
+        when(lotRateAssignmentRepository.findAssignmentsForLot(LOT_ID)).thenReturn(List.of(assignment));
+
+        RatePlanCache ratePlanCache = new RatePlanCache(ratePlanRepository, rateRuleRepository,
+                lotRateAssignmentRepository, mock(SpaceRateOverrideRepository.class),
+                new JdbcTemplate(), new SimpleMeterRegistry());
+        pricingService = new PricingServiceImpl(ratePlanCache);
+    }
+
+    @Benchmark
+    public List<VisitSlice> sliceByDayAndTime() {
+        return VisitSlicer.sliceByDayAndTime(START, end, planRules, ZONE);
+    }
+
+    @Benchmark
+    public void matchedRule(Blackhole blackhole) {
+        for (VisitSlice slice : slices) {
+            blackhole.consume(slice.matchedRule(VehicleType.CAR, UserGroup.PUBLIC));
+        }
+    }
+
+    @Benchmark
+    public Money quote() {
+        return pricingService.quote(LOT_ID, null, VehicleType.CAR, UserGroup.PUBLIC, START, end);
+    }
+
+    /**
+     * Half the rules are for other vehicle types, so matching a car has to skip over them. The
+     * rest split the day into equal bands, per weekday for DAY_OF_WEEK and by minutes since
+     * arrival for TIERED.
+     */
+    private static List<RateRule> rules(RateType type, int count) {
+        VehicleType[] others = {VehicleType.MOTORCYCLE, VehicleType.VAN, VehicleType.EV};
+        int specific = count / 2;
+        int bands = count - specific;
+
+        List<RateRule> rules = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            boolean catchAll = i >= specific;
+            int band = catchAll ? i - specific : i % bands;
+            int from = band * 1440 / bands;
+            int to = (band + 1) * 1440 / bands;
+
+            RateRule rule = new RateRule();
+            rule.setId((long) i);
+            if (!catchAll) {
+                rule.setVehicleType(others[i % others.length]);
+                rule.setUserGroup(UserGroup.values()[i % UserGroup.values().length]);
+            }
+            switch (type) {
+                case FLAT_PER_ENTRY -> rule.setPriceFlat(300 + 10 * band);
+                case TIERED -> {
+                    rule.setStartMinute(band * 60);
+                    rule.setEndMinute((band + 1) * 60);
+                    if (band == 0) {
+                        rule.setPriceFlat(100);
+                    } else {
+                        rule.setPricePerHour(100 + 10 * band);
+                    }
+                }
+                default -> {
+                    rule.setStartTime(LocalTime.MIN.plusMinutes(from));
+                    rule.setEndTime(LocalTime.MIN.plusMinutes(to % 1440));
+                    rule.setPricePerHour(100 + 10 * band);
+                    if (type == RateType.DAY_OF_WEEK) {
+                        rule.setDayOfWeek(DayOfWeek.of(1 + band % 7));
+                    }
+                }
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+}
@@ -35,7 +35,7 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers(HttpMethod.POST, "/api/v1/auth/**").permitAll()// Allow login and create user
                         .requestMatchers("/swagger-ui/**", "/v3/swagger-config/**", "/v3/api-docs/**").permitAll()// Allow Swagger UI
-                        .requestMatchers("/api/v1/sensors/event").permitAll()// Allow sensor event ingestion
+                        .requestMatchers("/api/v1/sensors/event", "/api/v1/sensors/event/batch").permitAll()// Allow sensor event ingestion
                         .anyRequest().authenticated() // Everything else needs auth
                 )
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS)) // Set session management to stateless for JWTs
@@ -15,6 +15,11 @@ public class ResponseHelper {
         return ResponseEntity.status(201).contentType(MediaType.APPLICATION_JSON).body(response);
     }
 
+    public static <T> ResponseEntity<ApiResponse<T>> accepted(String message, T data) {
+        ApiResponse<T> response = new ApiResponse<>(true, message, data);
+        return ResponseEntity.accepted().contentType(MediaType.APPLICATION_JSON).body(response);
+    }
+
     public static <T> ResponseEntity<ApiResponse<T>> badRequest(String message, T data) {
         ApiResponse<T> response = new ApiResponse<>(false, message, data);
         return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(response);
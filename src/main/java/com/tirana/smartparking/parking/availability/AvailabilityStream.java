@@ -1,31 +1,1015 @@
 package com.tirana.smartparking.parking.availability;
 
+import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.common.exception.TooManyRequestsException;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityStreamStatsDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySubscriptionDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityUpdateDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
-import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
+/**
+ * Availability updates per lot, for every push transport. Subscribers live in a sharded
+ * concurrent registry keyed by lot. {@link #publish(Long, long)} never writes to a socket: it
+ * only puts the update on each subscriber's bounded queue, and a small dispatcher pool hands the
+ * queued updates to the subscriber's {@link Sink}. A subscriber whose queue is full is too slow
+ * to keep up and is disconnected, so one stalled client can neither hold up the publishing
+ * (ingestion) thread nor grow memory.
+ * <p>
+ * Updates are conflated per lot: the first change after a quiet period goes out at once, later
+ * ones within the coalescing window only replace the pending value, and the newest value is sent
+ * when the window closes. Clients only need the current free count, so a flapping lot costs at
+ * most one frame per window per subscriber, and the final value is always delivered. Every
+ * update that goes out carries an event id (its sequence), shared by all lots and seeded from the
+ * clock so it keeps growing across restarts. Clients can discard anything older than what they
+ * already have, whichever transport it came from.
+ * <p>
+ * Each lot keeps its last few updates in a small ring buffer. An SSE client that reconnects with
+ * {@code Last-Event-ID} gets only the updates it missed, and a snapshot of the lots whose gap no
+ * longer fits in the buffer, instead of re-reading every lot. Sequences are only comparable
+ * within one node and run, so SSE ids are prefixed with a random epoch of this stream; ids from
+ * any other epoch always get a snapshot. A lot nobody followed for the replay retention is
+ * forgotten again by {@link #releaseLots()}.
+ * <p>
+ * SSE subscribers either follow one lot and receive the bare free count (the original per-lot
+ * stream), or follow a set of lots and receive updates tagged with the lot id. Other transports
+ * open a {@link Channel} with their own sink. The lots of a subscriber can be replaced while the
+ * connection stays open, so a map client needs one connection per screen rather than one per
+ * visible lot.
+ * <p>
+ * Connections do not live forever. A periodic sweep sends a heartbeat to connections that were
+ * quiet since the last sweep, so dead ones fail a write and are dropped instead of waiting for a
+ * lot to change. It also closes connections that reached their maximum lifetime or were idle
+ * (no update and no viewport change) for too long; clients reconnect and resume. Each client
+ * (user, or address when anonymous) may hold a limited number of connections.
+ */
 @Component
-public class AvailabilityStream {
-  private final Map<Long, List<SseEmitter>> byLot = new HashMap<>();
+public class AvailabilityStream implements SmartLifecycle {
+  private static final Logger logger = LoggerFactory.getLogger(AvailabilityStream.class);
 
-  public SseEmitter subscribe(Long lotId) {
+  private final Shard[] shards;
+  private final int dispatchThreads;
+  private final int queueCapacity;
+  private final long coalesceWindowNanos;
+  private final int replayBufferSize;
+  private final long replayRetentionNanos;
+  private final long heartbeatNanos;
+  private final long maxLifetimeNanos;
+  private final long idleTimeoutNanos;
+  private final int maxConnectionsPerClient;
+  private final boolean lotGauges;
+  private final MeterRegistry meterRegistry;
+  /** {@link #resumePoint} of an id this node and run did not issue. */
+  public static final long FOREIGN_EVENT_ID = -1;
+
+  // Seeded from the clock so ids keep increasing across restarts
+  private final AtomicLong eventIds = new AtomicLong(System.currentTimeMillis() * 1000);
+  // Tells this node and run apart from every other in SSE ids
+  private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+  private final ThreadPoolExecutor dispatcher;
+  private final ScheduledThreadPoolExecutor coalesceTimer;
+  private final Map<Long, LotState> lots = new ConcurrentHashMap<>();
+  private final Set<Subscriber> connections = ConcurrentHashMap.newKeySet();
+  private final Map<String, Subscriber> subscriptions = new ConcurrentHashMap<>();
+  private final Map<String, Integer> connectionsPerClient = new ConcurrentHashMap<>();
+  private volatile boolean running;
+
+  private final LongAdder published = new LongAdder();
+  private final Counter coalesced;
+  private final Counter delivered;
+  private final Counter evictedSlow;
+  private final Counter evictedFailed;
+  private final Counter evictedExpired;
+  private final Counter evictedIdle;
+  private final Counter rejected;
+  private final Counter heartbeats;
+  private final Counter resumeReplayed;
+  private final Counter resumeSnapshot;
+  private final Timer dispatchLag;
+
+  public AvailabilityStream(MeterRegistry meterRegistry,
+                            @Value("${availability.stream.shards:16}") int shardCount,
+                            @Value("${availability.stream.dispatchThreads:8}") int dispatchThreads,
+                            @Value("${availability.stream.subscriberQueueCapacity:32}") int queueCapacity,
+                            @Value("${availability.stream.coalesceWindowMs:250}") long coalesceWindowMs,
+                            @Value("${availability.stream.replayBufferSize:16}") int replayBufferSize,
+                            @Value("${availability.stream.replayRetentionMs:300000}") long replayRetentionMs,
+                            @Value("${availability.stream.heartbeatMs:15000}") long heartbeatMs,
+                            @Value("${availability.stream.maxLifetimeMs:3600000}") long maxLifetimeMs,
+                            @Value("${availability.stream.idleTimeoutMs:600000}") long idleTimeoutMs,
+                            @Value("${availability.stream.maxConnectionsPerClient:8}") int maxConnectionsPerClient,
+                            @Value("${availability.stream.lotGauges:true}") boolean lotGauges) {
+    if (shardCount < 1 || dispatchThreads < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("Availability stream shards, dispatch threads and queue capacity must be positive");
+    }
+    if (coalesceWindowMs < 0) {
+      throw new IllegalArgumentException("Availability coalescing window must not be negative");
+    }
+    if (replayBufferSize < 0 || replayRetentionMs < 0) {
+      throw new IllegalArgumentException("Availability replay buffer size and retention must not be negative");
+    }
+    if (heartbeatMs < 1 || maxLifetimeMs < 0 || idleTimeoutMs < 0 || maxConnectionsPerClient < 0) {
+      throw new IllegalArgumentException("Availability heartbeat must be positive, lifetime, idle timeout and connection cap not negative");
+    }
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard();
+    }
+    this.dispatchThreads = dispatchThreads;
+    this.queueCapacity = queueCapacity;
+    this.coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalesceWindowMs);
+    this.replayBufferSize = replayBufferSize;
+    this.replayRetentionNanos = TimeUnit.MILLISECONDS.toNanos(replayRetentionMs);
+    this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+    this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(maxLifetimeMs);
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    this.maxConnectionsPerClient = maxConnectionsPerClient;
+    this.lotGauges = lotGauges;
+    this.meterRegistry = meterRegistry;
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.dispatcher = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+          Thread thread = new Thread(r, "availability-dispatch-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.coalesceTimer = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "availability-coalesce");
+      thread.setDaemon(true);
+      return thread;
+    });
+    coalesceTimer.setRemoveOnCancelPolicy(true);
+
+    Gauge.builder("availability.stream.subscribers", this, AvailabilityStream::subscriberCount)
+        .description("Open availability connections on this node")
+        .register(meterRegistry);
+    Gauge.builder("availability.stream.clients", connectionsPerClient, Map::size)
+        .description("Distinct clients with at least one open availability connection on this node")
+        .register(meterRegistry);
+    Gauge.builder("availability.stream.dispatch.pending", dispatcher, executor -> executor.getQueue().size())
+        .description("Subscribers waiting for a dispatcher thread")
+        .register(meterRegistry);
+    this.coalesced = Counter.builder("availability.stream.coalesced")
+        .description("Updates replaced by a newer value of the same lot before they were sent")
+        .register(meterRegistry);
+    this.delivered = Counter.builder("availability.stream.delivered").register(meterRegistry);
+    this.evictedSlow = Counter.builder("availability.stream.evicted").tag("reason", "slow").register(meterRegistry);
+    this.evictedFailed = Counter.builder("availability.stream.evicted").tag("reason", "failed").register(meterRegistry);
+    this.evictedExpired = Counter.builder("availability.stream.evicted").tag("reason", "expired").register(meterRegistry);
+    this.evictedIdle = Counter.builder("availability.stream.evicted").tag("reason", "idle").register(meterRegistry);
+    this.rejected = Counter.builder("availability.stream.rejected")
+        .description("Connections refused because the client already had too many open")
+        .register(meterRegistry);
+    this.heartbeats = Counter.builder("availability.stream.heartbeats").register(meterRegistry);
+    this.resumeReplayed = Counter.builder("availability.stream.resume").tag("result", "replayed")
+        .description("Lots brought up to date from the replay buffer on reconnect")
+        .register(meterRegistry);
+    this.resumeSnapshot = Counter.builder("availability.stream.resume").tag("result", "snapshot")
+        .description("Lots whose gap on reconnect was too large to replay and got a snapshot instead")
+        .register(meterRegistry);
+    this.dispatchLag = Timer.builder("availability.stream.dispatch.lag")
+        .description("Time from publish to the update being written to a subscriber")
+        .register(meterRegistry);
+  }
+
+  /**
+   * The sequence to resume from for a {@code Last-Event-ID} header, or {@link #FOREIGN_EVENT_ID}
+   * when the id was issued by another node, an earlier run, or is not an id of ours at all.
+   */
+  public long resumePoint(String lastEventId) {
+    String prefix = epoch + "-";
+    if (!lastEventId.startsWith(prefix)) {
+      return FOREIGN_EVENT_ID;
+    }
+    try {
+      long sequence = Long.parseLong(lastEventId.substring(prefix.length()));
+      return sequence >= 0 && sequence <= eventIds.get() ? sequence : FOREIGN_EVENT_ID;
+    } catch (NumberFormatException e) {
+      return FOREIGN_EVENT_ID;
+    }
+  }
+
+  String sseId(long sequence) {
+    return epoch + "-" + sequence;
+  }
+
+  /**
+   * Opens the single-lot SSE stream. With a {@code lastEventId} from an earlier connection, the
+   * updates missed since then are sent first, see {@link #resume}.
+   */
+  public SseEmitter subscribe(String client, Long lotId, Long lastEventId, ToLongFunction<Long> freeCount) {
+    // Lifetime is enforced by the sweep, which closes the stream cleanly instead of timing out
     var emitter = new SseEmitter(0L);
-    byLot.computeIfAbsent(lotId, k -> new CopyOnWriteArrayList<>()).add(emitter);
-    emitter.onCompletion(() -> byLot.getOrDefault(lotId, List.of()).remove(emitter));
-    emitter.onTimeout(() -> byLot.getOrDefault(lotId, List.of()).remove(emitter));
+    Channel channel = register(client, lotId, emitter);
+    if (lastEventId != null) {
+      ((Subscriber) channel).resume(Set.of(lotId), lastEventId, freeCount);
+    }
     return emitter;
   }
 
+  /**
+   * Adds an emitter to the lot's subscribers. Split from {@link #subscribe(String, Long, Long, ToLongFunction)}
+   * so the fan-out benchmark can plug in emitters that do not need a servlet response.
+   */
+  Channel register(String client, Long lotId, SseEmitter emitter) {
+    Subscriber subscriber = connect(null, client, new SseSink(emitter, false));
+    watch(subscriber, emitter);
+    subscriber.changeLots(Set.of(lotId));
+    return subscriber;
+  }
+
+  /**
+   * Opens a tagged SSE subscription to several lots. The first event, {@code subscription},
+   * carries the id used to change the lots later with {@link #changeLots(String, String, Set)}.
+   */
+  public Subscription subscribe(String client, Set<Long> lotIds) {
+    var emitter = new SseEmitter(0L);
+    String id = UUID.randomUUID().toString();
+    Subscriber subscriber = connect(id, client, new SseSink(emitter, true));
+    try {
+      // Sent before the subscriber joins any lot, so it is always the first event
+      emitter.send(SseEmitter.event().name("subscription").data(new AvailabilitySubscriptionDTO(id, List.copyOf(lotIds))));
+    } catch (IOException e) {
+      subscriber.detach();
+      throw new IllegalStateException("Could not open availability stream", e);
+    }
+    subscriptions.put(id, subscriber);
+    watch(subscriber, emitter);
+    subscriber.changeLots(lotIds);
+    return new Subscription(id, emitter);
+  }
+
+  /**
+   * Replaces the lots of a tagged SSE subscription on its open connection. Only the client that
+   * opened the subscription may change it.
+   *
+   * @return the lots that were not followed before, which the caller may want to snapshot
+   * @throws ResourceNotFoundException if the subscription is unknown, already closed or belongs
+   *         to another client
+   */
+  public Set<Long> changeLots(String subscriptionId, String client, Set<Long> lotIds) {
+    Subscriber subscriber = subscriptions.get(subscriptionId);
+    // Someone else's subscription looks the same as a missing one
+    Set<Long> added = subscriber != null && Objects.equals(subscriber.client, client) ? subscriber.changeLots(lotIds) : null;
+    if (added == null) {
+      throw new ResourceNotFoundException("Availability subscription not found: " + subscriptionId);
+    }
+    return added;
+  }
+
+  /**
+   * Queues a {@code snapshot} of some lots for a tagged SSE subscription, see {@link Channel#snapshot}.
+   */
+  public void snapshot(String subscriptionId, Collection<Long> lotIds, ToLongFunction<Long> freeCount) {
+    Subscriber subscriber = subscriptions.get(subscriptionId);
+    if (subscriber != null) {
+      subscriber.snapshot(lotIds, freeCount);
+    }
+  }
+
+  /**
+   * Brings a tagged SSE subscription up to date after a reconnect: the updates of these lots
+   * after {@code lastEventId} are replayed from the lots' buffers in one go, and lots whose
+   * missed updates are no longer all buffered (or {@link #FOREIGN_EVENT_ID}) get a
+   * {@code snapshot} instead.
+   */
+  public void resume(String subscriptionId, Collection<Long> lotIds, long lastEventId, ToLongFunction<Long> freeCount) {
+    Subscriber subscriber = subscriptions.get(subscriptionId);
+    if (subscriber != null) {
+      subscriber.resume(lotIds, lastEventId, freeCount);
+    }
+  }
+
+  /**
+   * Opens a subscriber for another transport. It follows no lots until
+   * {@link Channel#changeLots(Set)} is called and must be closed by the caller.
+   *
+   * @throws TooManyRequestsException if the client already has the maximum number of connections
+   */
+  public Channel open(String client, Sink sink) {
+    return connect(null, client, sink);
+  }
+
+  private Subscriber connect(String id, String client, Sink sink) {
+    if (client != null && maxConnectionsPerClient > 0) {
+      connectionsPerClient.compute(client, (key, open) -> {
+        int count = open == null ? 0 : open;
+        if (count >= maxConnectionsPerClient) {
+          rejected.increment();
+          throw new TooManyRequestsException("At most " + maxConnectionsPerClient
+              + " availability streams can be open per client", TimeUnit.NANOSECONDS.toSeconds(heartbeatNanos));
+        }
+        return count + 1;
+      });
+    }
+    Subscriber subscriber = new Subscriber(id, client, sink);
+    connections.add(subscriber);
+    return subscriber;
+  }
+
+  private void watch(Subscriber subscriber, SseEmitter emitter) {
+    emitter.onCompletion(subscriber::close);
+    emitter.onTimeout(subscriber::close);
+    emitter.onError(e -> subscriber.close());
+  }
+
+  /**
+   * Hands the lot's new free count to its subscribers, subject to coalescing, and returns
+   * immediately.
+   */
   public void publish(Long lotId, long free) {
-    var list = byLot.computeIfAbsent(lotId, k -> new CopyOnWriteArrayList<>());
-    var dead = new ArrayList<SseEmitter>();
-    for (var e : list) {
-      try { e.send(SseEmitter.event().name("availability").data(free)); }
-      catch (IOException ex) { dead.add(e); }
+    // Lots nobody ever followed on this node have nothing to deliver or replay
+    LotState lot = lots.get(lotId);
+    if (lot == null) {
+      return;
+    }
+    published.increment();
+    if (coalesceWindowNanos == 0) {
+      fanOut(lot, free, System.nanoTime());
+      return;
+    }
+    lot.offer(free);
+  }
+
+  /**
+   * Stamps the update with the next event id, buffers it for replay and queues it for the lot's
+   * current subscribers. Runs under the lot's monitor, so a lot's updates reach every queue, and
+   * the buffer, in id order.
+   */
+  private void fanOut(LotState lot, long free, long publishedAt) {
+    synchronized (lot) {
+      AvailabilityUpdateDTO update = new AvailabilityUpdateDTO(lot.lotId, free, eventIds.incrementAndGet());
+      lot.remember(update);
+      Set<Subscriber> subscribers = shard(lot.lotId).byLot.get(lot.lotId);
+      if (subscribers == null) {
+        return;
+      }
+      Queued queued = new Queued(new Frame(false, List.of(update)), publishedAt);
+      for (Subscriber subscriber : subscribers) {
+        subscriber.enqueue(queued);
+      }
+    }
+  }
+
+  public long subscriberCount() {
+    return connections.size();
+  }
+
+  /**
+   * Heartbeats quiet connections and closes expired and idle ones. The heartbeat goes through the
+   * subscriber's dispatcher like any update, so it never interleaves with another write.
+   */
+  @Scheduled(fixedDelayString = "${availability.stream.heartbeatMs:15000}")
+  public void sweep() {
+    long now = System.nanoTime();
+    for (Subscriber subscriber : connections) {
+      if (maxLifetimeNanos > 0 && now - subscriber.expiresAt >= 0) {
+        evict(subscriber, CloseReason.EXPIRED, null);
+      } else if (idleTimeoutNanos > 0 && now - subscriber.lastActivityAt >= idleTimeoutNanos) {
+        evict(subscriber, CloseReason.IDLE, null);
+      } else if (now - subscriber.lastWriteAt >= heartbeatNanos) {
+        subscriber.heartbeat();
+      }
+    }
+  }
+
+  /**
+   * Forgets lots that had no subscriber on this node for the replay retention: their replay
+   * buffer, coalescing state and subscriber gauge. A client resuming one of them later gets a
+   * snapshot. Lots count as unfollowed from the first call that finds them so, so the retention
+   * is only as precise as the interval between calls.
+   *
+   * @return the lots that were forgotten
+   */
+  public Set<Long> releaseLots() {
+    long now = System.nanoTime();
+    Set<Long> released = new HashSet<>();
+    for (Long lotId : lots.keySet()) {
+      // Atomic with follow(), so a lot is never dropped under a subscriber that just joined it
+      lots.computeIfPresent(lotId, (id, lot) -> {
+        if (shard(id).byLot.containsKey(id)) {
+          lot.unfollowedSince = 0;
+          return lot;
+        }
+        if (lot.unfollowedSince == 0) {
+          lot.unfollowedSince = now;
+        }
+        if (now - lot.unfollowedSince < replayRetentionNanos) {
+          return lot;
+        }
+        if (lot.gauge != null) {
+          meterRegistry.remove(lot.gauge);
+        }
+        released.add(id);
+        return null;
+      });
+    }
+    return released;
+  }
+
+  public AvailabilityStreamStatsDTO stats() {
+    int followed = 0;
+    for (Shard shard : shards) {
+      followed += shard.byLot.size();
+    }
+    return new AvailabilityStreamStatsDTO(
+        shards.length,
+        dispatchThreads,
+        queueCapacity,
+        TimeUnit.NANOSECONDS.toMillis(coalesceWindowNanos),
+        TimeUnit.NANOSECONDS.toMillis(heartbeatNanos),
+        TimeUnit.NANOSECONDS.toMillis(maxLifetimeNanos),
+        TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos),
+        maxConnectionsPerClient,
+        subscriberCount(),
+        followed,
+        published.sum(),
+        (long) coalesced.count(),
+        (long) delivered.count(),
+        (long) evictedSlow.count(),
+        (long) evictedFailed.count(),
+        (long) evictedExpired.count(),
+        (long) evictedIdle.count(),
+        (long) rejected.count(),
+        (long) heartbeats.count(),
+        connectionsPerClient.size(),
+        replayBufferSize,
+        (long) resumeReplayed.count(),
+        (long) resumeSnapshot.count(),
+        dispatchLag.mean(TimeUnit.MILLISECONDS),
+        dispatchLag.max(TimeUnit.MILLISECONDS)
+    );
+  }
+
+  @Override
+  public void start() {
+    running = true;
+  }
+
+  /**
+   * Closes every open stream so clients reconnect to another node, then stops the dispatchers.
+   */
+  @Override
+  public void stop() {
+    running = false;
+    for (Subscriber subscriber : connections) {
+      if (subscriber.detach()) {
+        subscriber.sink.close(CloseReason.NORMAL, null);
+      }
+    }
+    coalesceTimer.shutdownNow();
+    dispatcher.shutdown();
+    try {
+      dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  private Shard shard(Long lotId) {
+    return shards[Math.floorMod(lotId.hashCode(), shards.length)];
+  }
+
+  private LotState lot(Long lotId) {
+    LotState lot = lots.get(lotId);
+    return lot != null ? lot : lots.computeIfAbsent(lotId, this::newLot);
+  }
+
+  /**
+   * Adds a subscriber to a lot, creating the lot's state if needed. Runs under the lot's entry
+   * in {@code lots}, like {@link #releaseLots()}.
+   */
+  private void follow(Long lotId, Subscriber subscriber) {
+    lots.compute(lotId, (id, lot) -> {
+      LotState state = lot != null ? lot : newLot(id);
+      shard(id).add(id, subscriber);
+      return state;
+    });
+  }
+
+  private LotState newLot(Long lotId) {
+    LotState lot = new LotState(lotId);
+    if (lotGauges) {
+      lot.gauge = Gauge.builder("availability.stream.lot.subscribers", lot, LotState::subscriberCount)
+          .description("Open availability connections following the lot on this node")
+          .tag("lot", lotId.toString())
+          .register(meterRegistry);
+    }
+    return lot;
+  }
+
+  private void evict(Subscriber subscriber, CloseReason reason, Throwable error) {
+    if (!subscriber.detach()) {
+      return;
+    }
+    switch (reason) {
+      case SLOW -> evictedSlow.increment();
+      case FAILED -> evictedFailed.increment();
+      case EXPIRED -> evictedExpired.increment();
+      case IDLE -> evictedIdle.increment();
+      case NORMAL -> {
+      }
+    }
+    try {
+      subscriber.sink.close(reason, error);
+    } catch (RuntimeException e) {
+      // Already closed by the container
+    }
+  }
+
+  public enum CloseReason {
+    /** Closed by the server, e.g. on shutdown. */
+    NORMAL,
+    /** The subscriber's queue overflowed. */
+    SLOW,
+    /** Writing to the subscriber failed. */
+    FAILED,
+    /** The connection reached its maximum lifetime; the client should reconnect. */
+    EXPIRED,
+    /** Nothing was sent and the client changed nothing for the idle timeout. */
+    IDLE
+  }
+
+  /**
+   * Writes updates to one client connection. Called by at most one dispatcher thread at a time.
+   */
+  public interface Sink {
+
+    /**
+     * Writes everything queued for the subscriber since the last call, oldest first.
+     */
+    void send(List<Frame> frames) throws IOException;
+
+    /**
+     * Writes something the client ignores, so a dead connection fails and a proxy does not time
+     * it out.
+     */
+    void heartbeat() throws IOException;
+
+    void close(CloseReason reason, Throwable error);
+  }
+
+  /**
+   * A subscriber as seen by a transport: the lots it follows can be replaced at any time, which
+   * also counts as client activity for idle reaping.
+   */
+  public interface Channel {
+
+    /**
+     * Replaces the followed lots.
+     *
+     * @return the lots that were not followed before, or null if the channel is closed
+     */
+    Set<Long> changeLots(Set<Long> lotIds);
+
+    Set<Long> lots();
+
+    /**
+     * Queues the current free counts of some lots as one snapshot frame. It is queued behind any
+     * update already waiting for the subscriber, and every entry carries the last event id issued
+     * before the counts were read, so it never overwrites a newer value on the client.
+     */
+    void snapshot(Collection<Long> lotIds, ToLongFunction<Long> freeCount);
+
+    /**
+     * Brings the channel up to date after a reconnect, see
+     * {@link AvailabilityStream#resume(String, Collection, long, ToLongFunction)}. The lots must
+     * already be followed.
+     */
+    void resume(Collection<Long> lotIds, long lastEventId, ToLongFunction<Long> freeCount);
+
+    /**
+     * Leaves every lot. The transport closes its own connection.
+     */
+    void close();
+  }
+
+  /**
+   * Updates handed to a sink: live updates (one, or several replayed after a reconnect) in event
+   * id order, or the snapshot of several lots.
+   */
+  public record Frame(boolean snapshot, List<AvailabilityUpdateDTO> updates) {
+  }
+
+  public record Subscription(String id, SseEmitter emitter) {
+  }
+
+  private record Queued(Frame frame, long publishedAt) {
+  }
+
+  /**
+   * SSE encoding: the single-lot stream gets the bare free count, tagged subscriptions get
+   * {@code availability} and {@code snapshot} events with lot ids and sequences. Every event
+   * carries the stream's epoch and its sequence as the SSE id, which the browser sends back as
+   * {@code Last-Event-ID}.
+   */
+  private final class SseSink implements Sink {
+    private final SseEmitter emitter;
+    private final boolean tagged;
+    // The bare stream cannot tell the client which value is newer, so older ones are dropped here
+    private long lastSent;
+
+    SseSink(SseEmitter emitter, boolean tagged) {
+      this.emitter = emitter;
+      this.tagged = tagged;
+    }
+
+    @Override
+    public void send(List<Frame> frames) throws IOException {
+      for (Frame frame : frames) {
+        if (tagged && frame.snapshot()) {
+          long asOf = frame.updates().get(0).sequence();
+          emitter.send(SseEmitter.event().id(sseId(asOf)).name("snapshot").data(frame.updates()));
+          continue;
+        }
+        for (AvailabilityUpdateDTO update : frame.updates()) {
+          if (tagged) {
+            emitter.send(SseEmitter.event().id(sseId(update.sequence())).name("availability").data(update));
+          } else if (update.sequence() > lastSent) {
+            lastSent = update.sequence();
+            emitter.send(SseEmitter.event().id(sseId(update.sequence())).name("availability").data(update.availableSpaces()));
+          }
+        }
+      }
+    }
+
+    @Override
+    public void heartbeat() throws IOException {
+      emitter.send(SseEmitter.event().comment("heartbeat"));
+    }
+
+    @Override
+    public void close(CloseReason reason, Throwable error) {
+      if (error != null) {
+        emitter.completeWithError(error);
+      } else {
+        emitter.complete();
+      }
+    }
+  }
+
+  /**
+   * Per-lot publishing state: the coalescing window and the replay buffer. Leading edge: a change
+   * after a quiet window is sent at once. Trailing edge: changes inside the window arm a timer that
+   * sends whatever is newest when the window closes.
+   */
+  private final class LotState implements Runnable {
+    private final Long lotId;
+    private final AvailabilityUpdateDTO[] recent = new AvailabilityUpdateDTO[replayBufferSize];
+    private int recentHead;
+    private int recentSize;
+    // Updates up to this id may have been missed by the buffer: overwritten, or sent before it existed
+    private long forgottenUpTo = eventIds.get();
+    private long latest;
+    private long latestAt;
+    private long lastSent;
+    private long lastSentAt;
+    private boolean armed;
+    private Gauge gauge;
+    // When releaseLots() first found the lot without subscribers, 0 while it has some
+    private long unfollowedSince;
+
+    LotState(Long lotId) {
+      this.lotId = lotId;
+      this.lastSentAt = System.nanoTime() - coalesceWindowNanos;
+    }
+
+    synchronized void offer(long free) {
+      long now = System.nanoTime();
+      if (armed) {
+        coalesced.increment();
+        latest = free;
+        latestAt = now;
+        return;
+      }
+      long wait = lastSentAt + coalesceWindowNanos - now;
+      if (wait <= 0) {
+        send(free, now, now);
+        return;
+      }
+      latest = free;
+      latestAt = now;
+      armed = true;
+      try {
+        coalesceTimer.schedule(this, wait, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        // Shutting down
+        armed = false;
+      }
+    }
+
+    @Override
+    public synchronized void run() {
+      armed = false;
+      // Flapped back to what subscribers already have; nothing to say
+      if (latest == lastSent) {
+        return;
+      }
+      send(latest, latestAt, System.nanoTime());
+    }
+
+    private void send(long free, long publishedAt, long now) {
+      lastSent = free;
+      lastSentAt = now;
+      fanOut(this, free, publishedAt);
+    }
+
+    int subscriberCount() {
+      Set<Subscriber> subscribers = shard(lotId).byLot.get(lotId);
+      return subscribers == null ? 0 : subscribers.size();
+    }
+
+    synchronized void remember(AvailabilityUpdateDTO update) {
+      if (recent.length == 0) {
+        forgottenUpTo = update.sequence();
+        return;
+      }
+      if (recentSize == recent.length) {
+        forgottenUpTo = recent[recentHead].sequence();
+      } else {
+        recentSize++;
+      }
+      recent[recentHead] = update;
+      recentHead = (recentHead + 1) % recent.length;
+    }
+
+    /**
+     * Buffered updates after {@code lastEventId}, oldest first, or null if some of them are no
+     * longer buffered.
+     */
+    synchronized List<AvailabilityUpdateDTO> since(long lastEventId) {
+      if (lastEventId < forgottenUpTo) {
+        return null;
+      }
+      List<AvailabilityUpdateDTO> missed = new ArrayList<>();
+      for (int i = recentSize; i > 0; i--) {
+        AvailabilityUpdateDTO update = recent[Math.floorMod(recentHead - i, recent.length)];
+        if (update.sequence() > lastEventId) {
+          missed.add(update);
+        }
+      }
+      return missed;
+    }
+  }
+
+  /**
+   * One slice of the registry. Sets are created and dropped atomically with the last
+   * subscriber of a lot, so publishing never sees a half-removed lot.
+   */
+  private static final class Shard {
+    final Map<Long, Set<Subscriber>> byLot = new ConcurrentHashMap<>();
+
+    void add(Long lotId, Subscriber subscriber) {
+      byLot.compute(lotId, (id, set) -> {
+        Set<Subscriber> target = set != null ? set : ConcurrentHashMap.newKeySet();
+        target.add(subscriber);
+        return target;
+      });
+    }
+
+    void remove(Long lotId, Subscriber subscriber) {
+      byLot.computeIfPresent(lotId, (id, set) -> {
+        set.remove(subscriber);
+        return set.isEmpty() ? null : set;
+      });
+    }
+  }
+
+  /**
+   * A client connection with its own outbound queue. At most one dispatcher thread drains it at
+   * a time, so writes to one connection never overlap and stay in publish order.
+   */
+  private final class Subscriber implements Channel, Runnable {
+    /** Subscription id of a tagged SSE subscriber, null otherwise. */
+    final String id;
+    /** Who opened the connection; the per-client cap is counted under it. */
+    final String client;
+    final Sink sink;
+    final long expiresAt;
+    volatile long lastActivityAt;
+    volatile long lastWriteAt;
+    private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+    private final Set<Long> followed = new HashSet<>();
+    private final BlockingQueue<Queued> queue = new ArrayBlockingQueue<>(queueCapacity);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Subscriber(String id, String client, Sink sink) {
+      this.id = id;
+      this.client = client;
+      this.sink = sink;
+      long now = System.nanoTime();
+      // Up to 10% earlier, so connections opened together do not all reconnect together
+      this.expiresAt = now + maxLifetimeNanos - (long) (ThreadLocalRandom.current().nextDouble() * maxLifetimeNanos / 10);
+      this.lastActivityAt = now;
+      this.lastWriteAt = now;
+    }
+
+    @Override
+    public synchronized Set<Long> changeLots(Set<Long> lotIds) {
+      if (closed.get()) {
+        return null;
+      }
+      lastActivityAt = System.nanoTime();
+      Set<Long> added = new HashSet<>(lotIds);
+      added.removeAll(followed);
+      for (Long lotId : followed) {
+        if (!lotIds.contains(lotId)) {
+          shard(lotId).remove(lotId, this);
+        }
+      }
+      for (Long lotId : added) {
+        // From now on the lot's updates are buffered for replay until the lot is released
+        follow(lotId, this);
+      }
+      followed.clear();
+      followed.addAll(lotIds);
+      return added;
+    }
+
+    @Override
+    public synchronized Set<Long> lots() {
+      return Set.copyOf(followed);
+    }
+
+    @Override
+    public void snapshot(Collection<Long> lotIds, ToLongFunction<Long> freeCount) {
+      if (lotIds.isEmpty()) {
+        return;
+      }
+      long asOf = eventIds.get();
+      List<AvailabilityUpdateDTO> updates = new ArrayList<>(lotIds.size());
+      for (Long lotId : lotIds) {
+        updates.add(new AvailabilityUpdateDTO(lotId, freeCount.applyAsLong(lotId), asOf));
+      }
+      enqueue(new Queued(new Frame(true, updates), System.nanoTime()));
+    }
+
+    /**
+     * Queues what the client missed since {@code lastEventId}: one frame with the buffered
+     * updates in id order, then one snapshot of the lots that could not be replayed. Called once
+     * the subscriber follows the lots, so nothing published meanwhile is lost; an update that is
+     * both replayed and delivered live arrives twice with the same id.
+     */
+    @Override
+    public void resume(Collection<Long> lotIds, long lastEventId, ToLongFunction<Long> freeCount) {
+      boolean foreign = lastEventId == FOREIGN_EVENT_ID;
+      List<AvailabilityUpdateDTO> missed = new ArrayList<>();
+      List<Long> gaps = new ArrayList<>();
+      for (Long lotId : lotIds) {
+        List<AvailabilityUpdateDTO> buffered = foreign ? null : lot(lotId).since(lastEventId);
+        if (buffered == null) {
+          gaps.add(lotId);
+        } else {
+          missed.addAll(buffered);
+        }
+      }
+      resumeReplayed.increment(lotIds.size() - gaps.size());
+      resumeSnapshot.increment(gaps.size());
+      if (!missed.isEmpty()) {
+        missed.sort(Comparator.comparingLong(AvailabilityUpdateDTO::sequence));
+        enqueue(new Queued(new Frame(false, missed), System.nanoTime()));
+      }
+      snapshot(gaps, freeCount);
+    }
+
+    @Override
+    public void close() {
+      detach();
+    }
+
+    /**
+     * Leaves every lot and the connection set.
+     *
+     * @return true for the caller that actually closed the subscriber
+     */
+    boolean detach() {
+      if (!closed.compareAndSet(false, true)) {
+        return false;
+      }
+      synchronized (this) {
+        for (Long lotId : followed) {
+          shard(lotId).remove(lotId, this);
+        }
+        followed.clear();
+      }
+      connections.remove(this);
+      if (id != null) {
+        subscriptions.remove(id);
+      }
+      if (client != null && maxConnectionsPerClient > 0) {
+        connectionsPerClient.computeIfPresent(client, (key, open) -> open > 1 ? open - 1 : null);
+      }
+      return true;
+    }
+
+    void heartbeat() {
+      heartbeatDue.set(true);
+      schedule();
+    }
+
+    void enqueue(Queued queued) {
+      if (closed.get()) {
+        return;
+      }
+      if (!queue.offer(queued)) {
+        evict(this, CloseReason.SLOW, null);
+        return;
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          dispatcher.execute(this);
+        } catch (RejectedExecutionException e) {
+          // Shutting down
+          scheduled.set(false);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      List<Queued> batch = new ArrayList<>();
+      try {
+        boolean heartbeat = heartbeatDue.getAndSet(false);
+        if (queue.drainTo(batch) == 0) {
+          // Updates count as heartbeats, so one is only written when nothing else is
+          if (heartbeat && !closed.get()) {
+            sink.heartbeat();
+            heartbeats.increment();
+            lastWriteAt = System.nanoTime();
+          }
+          return;
+        }
+        if (closed.get()) {
+          return;
+        }
+        List<Frame> frames = new ArrayList<>(batch.size());
+        for (Queued queued : batch) {
+          frames.add(queued.frame());
+        }
+        sink.send(frames);
+        long now = System.nanoTime();
+        for (Queued queued : batch) {
+          dispatchLag.record(now - queued.publishedAt(), TimeUnit.NANOSECONDS);
+        }
+        delivered.increment(batch.size());
+        lastWriteAt = now;
+        lastActivityAt = now;
+      } catch (IOException | RuntimeException e) {
+        logger.debug("Dropping availability subscriber {}: {}", id != null ? id : "(untagged)", e.getMessage());
+        evict(this, CloseReason.FAILED, e);
+      } finally {
+        scheduled.set(false);
+        if (closed.get()) {
+          queue.clear();
+        } else if (!queue.isEmpty() || heartbeatDue.get()) {
+          // An update arrived after the drain but before the flag was cleared
+          schedule();
+        }
+      }
     }
-    list.removeAll(dead);
   }
 }
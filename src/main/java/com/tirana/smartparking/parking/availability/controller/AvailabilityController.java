@@ -1,20 +1,104 @@
 package com.tirana.smartparking.parking.availability.controller;
 
+import com.tirana.smartparking.common.dto.ApiResponse;
+import com.tirana.smartparking.common.response.ResponseHelper;
 import com.tirana.smartparking.parking.availability.AvailabilityStream;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityForecastDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityRollupDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityStreamStatsDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySubscriptionDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityViewportDTO;
+import com.tirana.smartparking.parking.availability.rollup.AvailabilityRollup;
+import com.tirana.smartparking.parking.availability.service.AvailabilityForecastService;
+import com.tirana.smartparking.parking.availability.service.AvailabilityRollupService;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySubscriptionService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/v1/parking/lots")
 class AvailabilityController {
   private final AvailabilityStream stream;
-  public AvailabilityController(AvailabilityStream s) { this.stream = s; }
+  private final AvailabilitySubscriptionService subscriptions;
+  private final AvailabilityRollupService rollups;
+  private final AvailabilityForecastService forecasts;
+  public AvailabilityController(AvailabilityStream s, AvailabilitySubscriptionService subscriptions,
+                                AvailabilityRollupService rollups, AvailabilityForecastService forecasts) {
+    this.stream = s;
+    this.subscriptions = subscriptions;
+    this.rollups = rollups;
+    this.forecasts = forecasts;
+  }
 
   @GetMapping("/{lotId}/availability/stream")
-  public SseEmitter stream(@PathVariable Long lotId) {
-    return stream.subscribe(lotId);
+  public SseEmitter stream(@PathVariable Long lotId,
+                           @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                           Principal principal, HttpServletRequest request) {
+    return subscriptions.subscribe(client(principal, request), lotId, lastEventId);
+  }
+
+  /**
+   * One stream for many lots: {@code ?lotIds=1,2,3} or {@code ?minLat=&minLng=&maxLat=&maxLng=}.
+   */
+  @GetMapping("/availability/stream")
+  public SseEmitter streamMany(AvailabilityViewportDTO viewport,
+                               @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                               Principal principal, HttpServletRequest request) {
+    return subscriptions.subscribe(client(principal, request), viewport, lastEventId);
+  }
+
+  @PutMapping("/availability/stream/{subscriptionId}")
+  public ResponseEntity<ApiResponse<AvailabilitySubscriptionDTO>> changeViewport(@PathVariable String subscriptionId,
+                                                                                @RequestBody AvailabilityViewportDTO viewport,
+                                                                                Principal principal, HttpServletRequest request) {
+    return ResponseHelper.ok("Availability subscription updated successfully",
+        subscriptions.changeViewport(client(principal, request), subscriptionId, viewport));
+  }
+
+  @PreAuthorize("hasAuthority('PARKING_READ')")
+  @GetMapping("/availability/stream/stats")
+  public ResponseEntity<ApiResponse<AvailabilityStreamStatsDTO>> streamStats() {
+    return ResponseHelper.ok("Availability stream statistics fetched successfully", stream.stats());
+  }
+
+  /**
+   * Minute or hour buckets of min/avg/max free spaces and event counts, read from the rollups.
+   */
+  @PreAuthorize("hasAuthority('PARKING_READ')")
+  @GetMapping("/{lotId}/availability/history")
+  public ResponseEntity<ApiResponse<List<AvailabilityRollupDTO>>> history(@PathVariable Long lotId,
+                                                                          @RequestParam ZonedDateTime from,
+                                                                          @RequestParam ZonedDateTime to,
+                                                                          @RequestParam(defaultValue = "HOUR") AvailabilityRollup.Granularity granularity) {
+    return ResponseHelper.ok("Availability history fetched successfully",
+        rollups.getHistory(lotId, granularity, from.toInstant(), to.toInstant()));
+  }
+
+  /**
+   * Expected free spaces at arrival time, from the lot's weekly pattern and its live count.
+   */
+  @PreAuthorize("hasAuthority('PARKING_READ')")
+  @GetMapping("/{lotId}/availability/forecast")
+  public ResponseEntity<ApiResponse<AvailabilityForecastDTO>> forecast(@PathVariable Long lotId,
+                                                                       @RequestParam ZonedDateTime at) {
+    return ResponseHelper.ok("Availability forecast fetched successfully", forecasts.forecast(lotId, at.toInstant()));
+  }
+
+  private static String client(Principal principal, HttpServletRequest request) {
+    return principal != null ? "user:" + principal.getName() : "addr:" + request.getRemoteAddr();
   }
 }
@@ -0,0 +1,20 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+import java.time.Instant;
+
+/**
+ * Expected free spaces of a lot at a given time. {@code baselineFree} is the lot's usual free
+ * count for that weekday and time of day, null while there is no history for it;
+ * {@code probabilityOfSpace} is the estimated chance that at least one space is free.
+ */
+public record AvailabilityForecastDTO(
+        Long lotId,
+        Instant at,
+        long expectedFree,
+        double probabilityOfSpace,
+        Double baselineFree,
+        long liveFree,
+        long capacity,
+        int samples
+) {
+}
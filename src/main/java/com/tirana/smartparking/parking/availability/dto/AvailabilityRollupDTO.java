@@ -0,0 +1,12 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+import java.time.Instant;
+
+public record AvailabilityRollupDTO(
+        Instant bucketStart,
+        int minFree,
+        double avgFree,
+        int maxFree,
+        long eventCount
+) {
+}
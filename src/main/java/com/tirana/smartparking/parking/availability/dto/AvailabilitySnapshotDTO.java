@@ -0,0 +1,16 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Availability of every active lot. Each entry of {@code lots} is
+ * {@code [lotId, availableSpaces, capacity, updatedAtEpochMillis]}, to keep the payload small
+ * for clients that poll it.
+ */
+public record AvailabilitySnapshotDTO(
+        long version,
+        Instant generatedAt,
+        List<long[]> lots
+) {
+}
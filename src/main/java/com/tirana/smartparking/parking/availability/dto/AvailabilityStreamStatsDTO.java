@@ -0,0 +1,30 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+public record AvailabilityStreamStatsDTO(
+        int shards,
+        int dispatchThreads,
+        int subscriberQueueCapacity,
+        long coalesceWindowMs,
+        long heartbeatMs,
+        long maxLifetimeMs,
+        long idleTimeoutMs,
+        int maxConnectionsPerClient,
+        long subscribers,
+        int lots,
+        long published,
+        long coalesced,
+        long delivered,
+        long evictedSlow,
+        long evictedFailed,
+        long evictedExpired,
+        long evictedIdle,
+        long rejected,
+        long heartbeats,
+        int clients,
+        int replayBufferSize,
+        long resumeReplayedLots,
+        long resumeSnapshotLots,
+        double meanDispatchLagMs,
+        double maxDispatchLagMs
+) {
+}
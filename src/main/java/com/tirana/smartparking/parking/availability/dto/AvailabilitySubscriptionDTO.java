@@ -0,0 +1,9 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+import java.util.List;
+
+public record AvailabilitySubscriptionDTO(
+        String subscriptionId,
+        List<Long> lotIds
+) {
+}
@@ -0,0 +1,8 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+public record AvailabilityUpdateDTO(
+        Long lotId,
+        long availableSpaces,
+        long sequence
+) {
+}
@@ -0,0 +1,16 @@
+package com.tirana.smartparking.parking.availability.dto;
+
+import java.util.List;
+
+/**
+ * Lots a multi-lot availability subscription follows: either explicit lot ids or a bounding box
+ * in WGS84 degrees.
+ */
+public record AvailabilityViewportDTO(
+        List<Long> lotIds,
+        Double minLat,
+        Double minLng,
+        Double maxLat,
+        Double maxLng
+) {
+}
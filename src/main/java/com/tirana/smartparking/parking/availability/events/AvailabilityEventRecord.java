@@ -0,0 +1,17 @@
+package com.tirana.smartparking.parking.availability.events;
+
+import java.time.Instant;
+
+/**
+ * Row of {@code availability_events} referencing the lot and space by id, so it can be buffered
+ * and inserted without loading or proxying either entity.
+ */
+public record AvailabilityEventRecord(
+        Long lotId,
+        Long spaceId,
+        Integer availableSpaces,
+        String event,
+        Instant createdAt,
+        String source
+) {
+}
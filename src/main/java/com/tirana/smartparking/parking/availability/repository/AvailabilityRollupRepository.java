@@ -0,0 +1,21 @@
+package com.tirana.smartparking.parking.availability.repository;
+
+import com.tirana.smartparking.parking.availability.rollup.AvailabilityRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface AvailabilityRollupRepository extends JpaRepository<AvailabilityRollup, Long> {
+
+    @Query("SELECT r FROM AvailabilityRollup r WHERE r.lotId = :lotId AND r.granularity = :granularity " +
+            "AND r.bucketStart >= :from AND r.bucketStart < :to ORDER BY r.bucketStart")
+    List<AvailabilityRollup> findBuckets(@Param("lotId") Long lotId,
+                                         @Param("granularity") AvailabilityRollup.Granularity granularity,
+                                         @Param("from") Instant from,
+                                         @Param("to") Instant to);
+}
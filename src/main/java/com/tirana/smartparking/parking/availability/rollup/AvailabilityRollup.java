@@ -0,0 +1,57 @@
+package com.tirana.smartparking.parking.availability.rollup;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Free-space statistics of one lot over one minute or hour, folded from {@code availability_events}
+ * by the rollup job. The unique key doubles as the index for history range reads.
+ */
+@Entity
+@Table(name = "availability_rollups",
+        uniqueConstraints = @UniqueConstraint(name = "uk_av_rollup_bucket", columnNames = {"lot_id", "granularity", "bucket_start"}))
+@Getter
+@Setter
+public class AvailabilityRollup {
+
+    public enum Granularity {
+        MINUTE,
+        HOUR
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "lot_id", nullable = false)
+    private Long lotId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Granularity granularity;
+
+    @Column(name = "bucket_start", nullable = false)
+    private Instant bucketStart;
+
+    @Column(nullable = false)
+    private Integer minFree;
+
+    @Column(nullable = false)
+    private Integer maxFree;
+
+    // Sum and count rather than the average, so later events can be folded in
+    @Column(nullable = false)
+    private Long sumFree;
+
+    @Column(nullable = false)
+    private Long eventCount;
+
+    // Free count after the latest event of the bucket, and when that was. Null in buckets folded
+    // before these columns existed
+    private Integer lastFree;
+
+    private Instant lastAt;
+}
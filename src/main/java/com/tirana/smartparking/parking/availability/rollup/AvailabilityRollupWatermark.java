@@ -0,0 +1,30 @@
+package com.tirana.smartparking.parking.availability.rollup;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Highest {@code availability_events.id} already folded into the rollups.
+ */
+@Entity
+@Table(name = "availability_rollup_watermarks")
+@Getter
+@Setter
+public class AvailabilityRollupWatermark {
+
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(nullable = false)
+    private Long lastEventId;
+
+    @Column(nullable = false)
+    private Instant updatedAt;
+}
@@ -0,0 +1,17 @@
+package com.tirana.smartparking.parking.availability.service;
+
+/**
+ * Carries lot availability updates to the subscribers connected to every application node.
+ * Producers publish here rather than on {@link com.tirana.smartparking.parking.availability.AvailabilityStream}
+ * directly; each node re-publishes what it receives to its own subscribers. The implementation is
+ * picked with {@code availability.bus.type}: {@code memory} for a single node, {@code postgres}
+ * for a cluster sharing one database.
+ */
+public interface AvailabilityBus {
+
+    /**
+     * Publishes the lot's new free count to this node's subscribers right away and to the other
+     * nodes shortly after. Never blocks on the network.
+     */
+    void publish(Long lotId, long availableSpaces);
+}
@@ -0,0 +1,19 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.entity.ParkingSpace;
+
+/**
+ * Result of applying a space status to the availability counters. {@code previous} is null
+ * when the space was not known to the counter yet (e.g. it was just created).
+ */
+public record AvailabilityChange(
+        Long lotId,
+        Long spaceId,
+        ParkingSpace.SpaceStatus previous,
+        ParkingSpace.SpaceStatus current,
+        long availableSpaces
+) {
+    public boolean changed() {
+        return previous != current;
+    }
+}
@@ -0,0 +1,78 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.entity.ParkingSpace;
+
+import java.time.Instant;
+
+/**
+ * Per-lot free counts. Every code path that changes a {@link ParkingSpace.SpaceStatus} reports
+ * it here; reads are O(1).
+ * <p>
+ * On a single node ({@code availability.bus.type=memory}) the in-memory counters are the source
+ * of truth and are written back to {@code ParkingLot.availableSpaces} on a schedule. In a cluster
+ * ({@code postgres}) every change is applied to {@code parking_lots.available_spaces} in the
+ * caller's transaction and the counters only cache the newest value, so all nodes count against
+ * the same row.
+ */
+public interface AvailabilityCounterService {
+
+    long getAvailableSpaces(Long lotId);
+
+    /**
+     * Free count together with the version of {@code parking_lots} it was read from or written
+     * to. Versions only grow in a cluster; on a single node they are not maintained.
+     */
+    LotAvailability getAvailability(Long lotId);
+
+    /**
+     * Last status the counter saw for a space, or null if the space is not part of the lot.
+     */
+    ParkingSpace.SpaceStatus getSpaceStatus(Long lotId, Long spaceId);
+
+    /**
+     * Applies a status the caller already wrote to the space. {@code previous} is the status the
+     * row held before that write (null for a new space); in a cluster it decides the change to
+     * the lot's count, because this node's view of the space may be outdated.
+     */
+    AvailabilityChange applyStatus(Long lotId, Long spaceId, ParkingSpace.SpaceStatus previous,
+                                   ParkingSpace.SpaceStatus status);
+
+    /**
+     * Writes a space's status and applies it to the lot's count, taking the previous status from
+     * the row under its lock. Returns null if the space does not exist.
+     */
+    AvailabilityChange updateSpaceStatus(Long lotId, Long spaceId, ParkingSpace.SpaceStatus status, Instant changedAt);
+
+    /**
+     * Shifts a lot's free count without any space involved (gate counters), clamped to
+     * [0, capacity]. Returns the new free count.
+     */
+    long adjust(Long lotId, int delta);
+
+    /**
+     * Replaces a lot's free count with an absolute value reported by a gate controller.
+     * Returns the stored free count after clamping to [0, capacity].
+     */
+    long correct(Long lotId, long availableSpaces);
+
+    /**
+     * Recounts a lot from its spaces and returns the result. Gate-counted lots keep their count.
+     */
+    long recount(Long lotId);
+
+    /**
+     * Takes a free count another node wrote. Returns false when this node already knows a newer
+     * one, in which case the value must not be published.
+     */
+    boolean observe(Long lotId, long availableSpaces, long version);
+
+    void evict(Long lotId);
+
+    /**
+     * Drops a lot's counter to free memory if its count did not change since {@code unchangedSince}
+     * and nothing is waiting to be flushed. The next access seeds it again.
+     */
+    void release(Long lotId, Instant unchangedSince);
+
+    void flush();
+}
@@ -0,0 +1,21 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.availability.events.AvailabilityEventRecord;
+
+import java.util.Collection;
+
+/**
+ * Write-behind sink for availability events. Appended events are buffered and inserted in
+ * batches; events appended inside a transaction are only buffered once it commits.
+ */
+public interface AvailabilityEventAppender {
+
+    void append(AvailabilityEventRecord event);
+
+    void appendAll(Collection<AvailabilityEventRecord> events);
+
+    /**
+     * Inserts everything buffered so far.
+     */
+    void flush();
+}
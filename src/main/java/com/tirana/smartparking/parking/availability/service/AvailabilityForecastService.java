@@ -0,0 +1,24 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilityForecastDTO;
+
+import java.time.Instant;
+
+/**
+ * Arrival-time availability: a seasonal baseline per lot, weekday and time of day learned from the
+ * availability rollups, blended with the lot's live free count. Answers from memory.
+ */
+public interface AvailabilityForecastService {
+
+    /**
+     * @throws com.tirana.smartparking.common.exception.ResourceNotFoundException if the lot is
+     *         not an active lot
+     * @throws IllegalArgumentException if {@code at} is in the past or too far ahead
+     */
+    AvailabilityForecastDTO forecast(Long lotId, Instant at);
+
+    /**
+     * Folds rollup buckets that settled since the last refresh into the baselines.
+     */
+    void refresh();
+}
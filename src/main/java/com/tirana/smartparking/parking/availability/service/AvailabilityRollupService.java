@@ -0,0 +1,36 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilityRollupDTO;
+import com.tirana.smartparking.parking.availability.rollup.AvailabilityRollup;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Per-lot occupancy history from the minute and hour rollups of {@code availability_events}.
+ * Reads cost one row per bucket however many events the range holds.
+ */
+public interface AvailabilityRollupService {
+
+    /**
+     * Folds events added since the last run into the rollups.
+     *
+     * @return number of events folded in
+     */
+    long rollUp();
+
+    /**
+     * Every stored event created before this instant has been folded in, so a minute bucket that
+     * ends by then only changes if an event is stored late. Empty until the first run.
+     */
+    Optional<Instant> settledUntil();
+
+    /**
+     * Buckets of {@code [from, to)} that had events, oldest first. Events from the last minute or
+     * two may not be rolled up yet.
+     *
+     * @throws IllegalArgumentException if the range is empty or spans too many buckets
+     */
+    List<AvailabilityRollupDTO> getHistory(Long lotId, AvailabilityRollup.Granularity granularity, Instant from, Instant to);
+}
@@ -0,0 +1,31 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySnapshotDTO;
+
+/**
+ * City-wide availability served from memory. Every change bumps a global version, so pollers can
+ * send it back as an ETag and get {@code 304 Not Modified} until something changes.
+ */
+public interface AvailabilitySnapshotService {
+
+    /**
+     * Current version; cheap enough to check on every request before building anything.
+     */
+    long getVersion();
+
+    /**
+     * Random id of this node and run. Versions are counted per node and restart, so the same
+     * version can stand for different content elsewhere; ETags carry the epoch as well.
+     */
+    String getEpoch();
+
+    /**
+     * The snapshot for the current version, built once per version.
+     */
+    AvailabilitySnapshotDTO getSnapshot();
+
+    /**
+     * Records a lot's new free count as it is published.
+     */
+    void update(Long lotId, long availableSpaces);
+}
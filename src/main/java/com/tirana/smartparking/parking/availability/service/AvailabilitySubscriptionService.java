@@ -0,0 +1,39 @@
+package com.tirana.smartparking.parking.availability.service;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySubscriptionDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityViewportDTO;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Set;
+
+/**
+ * Availability streams. Map clients use one connection for every lot in a list or bounding box
+ * and move the viewport without reconnecting. A client reconnecting with the {@code Last-Event-ID}
+ * of its previous stream only receives what it missed.
+ */
+public interface AvailabilitySubscriptionService {
+
+    /**
+     * @param client user name, or remote address when anonymous; counts towards the per-client
+     *               connection cap
+     * @throws com.tirana.smartparking.common.exception.TooManyRequestsException if the client
+     *         already has the maximum number of streams open
+     */
+    SseEmitter subscribe(String client, Long lotId, String lastEventId);
+
+    SseEmitter subscribe(String client, AvailabilityViewportDTO viewport, String lastEventId);
+
+    /**
+     * @param client must be the client that opened the subscription
+     * @throws com.tirana.smartparking.common.exception.ResourceNotFoundException if the
+     *         subscription is unknown, closed or was opened by another client
+     */
+    AvailabilitySubscriptionDTO changeViewport(String client, String subscriptionId, AvailabilityViewportDTO viewport);
+
+    /**
+     * Ids of the existing lots in an explicit list or of the active lots inside a bounding box.
+     *
+     * @throws IllegalArgumentException if the viewport is invalid or matches too many lots
+     */
+    Set<Long> resolveLots(AvailabilityViewportDTO viewport);
+}
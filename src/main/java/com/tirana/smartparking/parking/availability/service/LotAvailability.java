@@ -0,0 +1,7 @@
+package com.tirana.smartparking.parking.availability.service;
+
+/**
+ * A lot's free count and the {@code parking_lots.availability_version} it belongs to.
+ */
+public record LotAvailability(long availableSpaces, long version) {
+}
@@ -0,0 +1,512 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.service.AvailabilityChange;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.LotAvailability;
+import com.tirana.smartparking.parking.entity.ParkingSpace;
+import com.tirana.smartparking.parking.repository.ParkingLotRepository;
+import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
+import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
+import com.tirana.smartparking.parking.sensor.repository.SensorDeviceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class AvailabilityCounterServiceImpl implements AvailabilityCounterService, SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvailabilityCounterServiceImpl.class);
+
+    // Locks the space row and hands back the status it held before this write. NO KEY UPDATE, like
+    // the UPDATE itself, so foreign key checks of concurrent event inserts do not deadlock with it
+    private static final String UPDATE_SPACE_SQL =
+            "UPDATE parking_spaces s SET space_status = ?, last_status_changed_at = ?, updated_at = ?, version = s.version + 1 " +
+            "FROM (SELECT id, space_status FROM parking_spaces WHERE id = ? FOR NO KEY UPDATE) prior " +
+            "WHERE s.id = prior.id RETURNING prior.space_status";
+
+    // Shared counts: every node applies its changes to the same row, clamped to [0, capacity]
+    private static final String CLAMP = "CASE WHEN capacity > 0 THEN capacity ELSE 2147483647 END";
+    private static final String ADJUST_SQL =
+            "UPDATE parking_lots SET available_spaces = LEAST(GREATEST(COALESCE(available_spaces, 0) + CAST(? AS integer), 0), " + CLAMP + "), " +
+            "availability_updated_at = ?, availability_version = COALESCE(availability_version, 0) + 1 " +
+            "WHERE id = ? RETURNING available_spaces, availability_version";
+    private static final String CORRECT_SQL =
+            "UPDATE parking_lots SET available_spaces = LEAST(GREATEST(CAST(? AS integer), 0), " + CLAMP + "), " +
+            "availability_updated_at = ?, availability_version = COALESCE(availability_version, 0) + 1 " +
+            "WHERE id = ? RETURNING available_spaces, availability_version";
+    private static final String LOCK_LOT_SQL = "SELECT id FROM parking_lots WHERE id = ? FOR NO KEY UPDATE";
+    // Runs under the lock above, so it counts every change committed before it and none is applied twice
+    private static final String RECOUNT_SQL =
+            "UPDATE parking_lots l SET available_spaces = " +
+            "(SELECT count(*) FROM parking_spaces s WHERE s.lot_id = l.id AND s.space_status = 'AVAILABLE'), " +
+            "availability_updated_at = ?, availability_version = COALESCE(l.availability_version, 0) + 1 " +
+            "WHERE l.id = ? RETURNING l.available_spaces, l.availability_version";
+
+    private final ParkingSpaceRepository parkingSpaceRepository;
+    private final ParkingLotRepository parkingLotRepository;
+    private final SensorDeviceRepository sensorDeviceRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean shared;
+
+    private final Map<Long, LotCounter> counters = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    public AvailabilityCounterServiceImpl(ParkingSpaceRepository parkingSpaceRepository,
+                                          ParkingLotRepository parkingLotRepository,
+                                          SensorDeviceRepository sensorDeviceRepository,
+                                          JdbcTemplate jdbcTemplate,
+                                          PlatformTransactionManager transactionManager,
+                                          @Value("${availability.bus.type:memory}") String busType) {
+        this.parkingSpaceRepository = parkingSpaceRepository;
+        this.parkingLotRepository = parkingLotRepository;
+        this.sensorDeviceRepository = sensorDeviceRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Several nodes write the same lots; only the database can keep one count
+        this.shared = "postgres".equalsIgnoreCase(busType);
+    }
+
+    @Override
+    public long getAvailableSpaces(Long lotId) {
+        return counter(lotId).available();
+    }
+
+    @Override
+    public LotAvailability getAvailability(Long lotId) {
+        return counter(lotId).availability();
+    }
+
+    @Override
+    public ParkingSpace.SpaceStatus getSpaceStatus(Long lotId, Long spaceId) {
+        return counter(lotId).status(spaceId);
+    }
+
+    @Override
+    public AvailabilityChange applyStatus(Long lotId, Long spaceId, ParkingSpace.SpaceStatus previous,
+                                          ParkingSpace.SpaceStatus status) {
+        return apply(counter(lotId), lotId, spaceId, previous, status);
+    }
+
+    @Override
+    public AvailabilityChange updateSpaceStatus(Long lotId, Long spaceId, ParkingSpace.SpaceStatus status, Instant changedAt) {
+        // Seed before the write so a fresh counter does not already include it
+        LotCounter counter = counter(lotId);
+        Timestamp timestamp = Timestamp.from(changedAt);
+        List<ParkingSpace.SpaceStatus> previous = jdbcTemplate.query(UPDATE_SPACE_SQL,
+                (rs, rowNum) -> ParkingSpace.SpaceStatus.valueOf(rs.getString(1)),
+                status.name(), timestamp, timestamp, spaceId);
+        if (previous.isEmpty()) {
+            return null;
+        }
+        return apply(counter, lotId, spaceId, previous.get(0), status);
+    }
+
+    @Override
+    public long adjust(Long lotId, int delta) {
+        LotCounter counter = counter(lotId);
+        if (shared) {
+            return write(lotId, counter, ADJUST_SQL, delta, Timestamp.from(Instant.now()), lotId);
+        }
+        Shift shift = counter.adjust(delta);
+        onRollback(() -> counter.adjust(-shift.moved()));
+        return shift.available();
+    }
+
+    @Override
+    public long correct(Long lotId, long availableSpaces) {
+        LotCounter counter = counter(lotId);
+        if (shared) {
+            return write(lotId, counter, CORRECT_SQL, availableSpaces, Timestamp.from(Instant.now()), lotId);
+        }
+        Shift shift = counter.correct(availableSpaces);
+        onRollback(() -> counter.adjust(-shift.moved()));
+        return shift.available();
+    }
+
+    @Override
+    public long recount(Long lotId) {
+        LotCounter previous = counters.remove(lotId);
+        if (!shared && previous != null) {
+            // Gate-counted lots are seeded from the column again, so it must hold their latest count
+            writeBack(lotId, previous);
+        }
+        LotCounter counter = counter(lotId);
+        if (!shared) {
+            // The entity no longer writes the column; the next flush does
+            return counter.touch();
+        }
+        if (sensorDeviceRepository.existsByParkingLotIdAndSensorType(lotId, SensorDevice.SensorType.GATE_COUNTER)) {
+            return counter.available();
+        }
+        jdbcTemplate.query(LOCK_LOT_SQL, rs -> null, lotId);
+        return write(lotId, counter, RECOUNT_SQL, Timestamp.from(Instant.now()), lotId);
+    }
+
+    @Override
+    public boolean observe(Long lotId, long availableSpaces, long version) {
+        return counter(lotId).observe(availableSpaces, version);
+    }
+
+    @Override
+    public void evict(Long lotId) {
+        counters.remove(lotId);
+    }
+
+    @Override
+    public void release(Long lotId, Instant unchangedSince) {
+        counters.computeIfPresent(lotId, (id, counter) -> counter.unchangedSince(unchangedSince) ? null : counter);
+    }
+
+    /**
+     * Writes single-node counts back to {@code parking_lots}. Shared counters are written as they
+     * change and are never dirty.
+     */
+    @Override
+    @Scheduled(fixedDelayString = "${availability.counters.flushDelayMs:5000}")
+    public void flush() {
+        int flushed = transactionTemplate.execute(status -> {
+            int written = 0;
+            for (Map.Entry<Long, LotCounter> entry : counters.entrySet()) {
+                if (writeBack(entry.getKey(), entry.getValue())) {
+                    written++;
+                }
+            }
+            return written;
+        });
+        if (flushed > 0) {
+            logger.debug("Flushed availability counters for {} parking lots", flushed);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Writes the counts changed since the last scheduled flush; gate-counted lots would otherwise
+     * lose them, as they are seeded from the column on the next start.
+     */
+    @Override
+    public void stop() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Could not write availability counters on shutdown: {}", e.getMessage(), e);
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops after the web server (DEFAULT_PHASE - 2048) and the sensor listeners, so no count
+     * changes after the final flush.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private boolean writeBack(Long lotId, LotCounter counter) {
+        Long available = counter.takeDirty();
+        if (available == null) {
+            return false;
+        }
+        parkingLotRepository.updateAvailability(lotId, available.intValue(), counter.updatedAt());
+        return true;
+    }
+
+    /**
+     * On a single node the counter's own view of the space decides the change, as it sees every
+     * write. Shared counts take {@code previous} from the row and apply the change in SQL.
+     */
+    private AvailabilityChange apply(LotCounter counter, Long lotId, Long spaceId,
+                                     ParkingSpace.SpaceStatus previous, ParkingSpace.SpaceStatus status) {
+        if (!shared) {
+            AvailabilityChange change = counter.apply(lotId, spaceId, status);
+            if (change.changed()) {
+                onRollback(() -> counter.revert(spaceId, change.previous(), status));
+            }
+            return change;
+        }
+        ParkingSpace.SpaceStatus tracked = counter.track(spaceId, status);
+        if (tracked != status) {
+            onRollback(() -> counter.revert(spaceId, tracked, status));
+        }
+        int delta = (status == ParkingSpace.SpaceStatus.AVAILABLE ? 1 : 0)
+                - (previous == ParkingSpace.SpaceStatus.AVAILABLE ? 1 : 0);
+        long available = delta != 0
+                ? write(lotId, counter, ADJUST_SQL, delta, Timestamp.from(Instant.now()), lotId)
+                : counter.available();
+        return new AvailabilityChange(lotId, spaceId, previous, status, available);
+    }
+
+    /**
+     * Runs one of the shared-count statements in the caller's transaction. The row stays locked
+     * until that commits, so the returned value is the lot's count and no other node can write
+     * an older one after it.
+     */
+    private long write(Long lotId, LotCounter counter, String sql, Object... args) {
+        List<LotAvailability> written = jdbcTemplate.query(sql,
+                (rs, rowNum) -> new LotAvailability(rs.getLong(1), rs.getLong(2)), args);
+        if (written.isEmpty()) {
+            // The lot is gone
+            return counter.available();
+        }
+        LotAvailability availability = written.get(0);
+        counter.observe(availability.availableSpaces(), availability.version());
+        // The row goes back to what it held; read it again instead of guessing
+        onRollback(() -> counter.discard(availability.version()));
+        return availability.availableSpaces();
+    }
+
+    /**
+     * Undoes this transaction's change to a counter if the transaction rolls back, leaving the
+     * changes of other transactions in place.
+     */
+    private void onRollback(Runnable undo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int completionStatus) {
+                if (completionStatus == STATUS_ROLLED_BACK) {
+                    undo.run();
+                }
+            }
+        });
+    }
+
+    private LotCounter counter(Long lotId) {
+        LotCounter existing = counters.get(lotId);
+        if (existing != null) {
+            if (existing.discarded()) {
+                refresh(lotId, existing);
+            }
+            return existing;
+        }
+        // Seed outside the map lock; if another thread won the race keep its instance
+        Map<Long, ParkingSpace.SpaceStatus> statuses = new HashMap<>();
+        for (Object[] row : parkingSpaceRepository.findSpaceStatusesByLotId(lotId)) {
+            statuses.put((Long) row[0], (ParkingSpace.SpaceStatus) row[1]);
+        }
+        Integer capacity = null;
+        Integer persistedAvailable = null;
+        Long persistedVersion = null;
+        List<Object[]> lot = parkingLotRepository.findCapacityAndAvailabilityById(lotId);
+        if (!lot.isEmpty()) {
+            capacity = (Integer) lot.get(0)[0];
+            persistedAvailable = (Integer) lot.get(0)[1];
+            persistedVersion = (Long) lot.get(0)[2];
+        }
+        LotCounter seeded = new LotCounter(statuses, capacity);
+        if (shared) {
+            // The row is the count every node writes to
+            seeded.observe(persistedAvailable != null ? persistedAvailable : 0, persistedVersion != null ? persistedVersion : 0);
+        } else if (persistedAvailable != null
+                && sensorDeviceRepository.existsByParkingLotIdAndSensorType(lotId, SensorDevice.SensorType.GATE_COUNTER)) {
+            // Gate-counted lots are not reflected in their space rows; the last flushed count is the truth
+            seeded.seed(persistedAvailable);
+        }
+        LotCounter raced = counters.putIfAbsent(lotId, seeded);
+        return raced != null ? raced : seeded;
+    }
+
+    /**
+     * Re-reads a shared count whose last write was rolled back.
+     */
+    private void refresh(Long lotId, LotCounter counter) {
+        List<Object[]> lot = parkingLotRepository.findCapacityAndAvailabilityById(lotId);
+        if (lot.isEmpty()) {
+            counters.remove(lotId, counter);
+            return;
+        }
+        Integer available = (Integer) lot.get(0)[1];
+        Long version = (Long) lot.get(0)[2];
+        counter.reload(available != null ? available : 0, version != null ? version : 0);
+    }
+
+    /**
+     * A change to a lot's free count and the count it left behind.
+     */
+    private record Shift(long moved, long available) {
+    }
+
+    /**
+     * Per-lot state: the last known status of every space and the number of them that are
+     * AVAILABLE. Guarded by its own monitor so lots never contend with each other.
+     */
+    private static final class LotCounter {
+        private final Map<Long, ParkingSpace.SpaceStatus> statuses;
+        private final Integer capacity;
+        private long available;
+        private long version = -1;
+        // Set when the last shared write was rolled back; the count must be read again
+        private boolean discarded;
+        private boolean dirty;
+        private Instant updatedAt = Instant.now();
+
+        LotCounter(Map<Long, ParkingSpace.SpaceStatus> statuses, Integer capacity) {
+            this.statuses = statuses;
+            this.capacity = capacity;
+            this.available = statuses.values().stream()
+                    .filter(status -> status == ParkingSpace.SpaceStatus.AVAILABLE)
+                    .count();
+        }
+
+        synchronized long available() {
+            return available;
+        }
+
+        synchronized LotAvailability availability() {
+            return new LotAvailability(available, version);
+        }
+
+        synchronized ParkingSpace.SpaceStatus status(Long spaceId) {
+            return statuses.get(spaceId);
+        }
+
+        synchronized Instant updatedAt() {
+            return updatedAt;
+        }
+
+        synchronized boolean unchangedSince(Instant since) {
+            return !dirty && !discarded && updatedAt.isBefore(since);
+        }
+
+        synchronized AvailabilityChange apply(Long lotId, Long spaceId, ParkingSpace.SpaceStatus status) {
+            ParkingSpace.SpaceStatus previous = statuses.put(spaceId, status);
+            if (previous != status) {
+                if (status == ParkingSpace.SpaceStatus.AVAILABLE) {
+                    available++;
+                } else if (previous == ParkingSpace.SpaceStatus.AVAILABLE) {
+                    available--;
+                }
+                dirty = true;
+                updatedAt = Instant.now();
+            }
+            return new AvailabilityChange(lotId, spaceId, previous, status, available);
+        }
+
+        synchronized ParkingSpace.SpaceStatus track(Long spaceId, ParkingSpace.SpaceStatus status) {
+            return statuses.put(spaceId, status);
+        }
+
+        /**
+         * Puts a space back to {@code previous} unless a later change has replaced {@code status}.
+         * Writers lock the space row, so none can have done so before the rollback.
+         */
+        synchronized void revert(Long spaceId, ParkingSpace.SpaceStatus previous, ParkingSpace.SpaceStatus status) {
+            if (statuses.get(spaceId) != status) {
+                return;
+            }
+            if (previous == null) {
+                statuses.remove(spaceId);
+            } else {
+                statuses.put(spaceId, previous);
+            }
+            if (version >= 0) {
+                // Shared counts come from the row, see discard()
+                return;
+            }
+            if (status == ParkingSpace.SpaceStatus.AVAILABLE) {
+                available--;
+            } else if (previous == ParkingSpace.SpaceStatus.AVAILABLE) {
+                available++;
+            }
+            dirty = true;
+            updatedAt = Instant.now();
+        }
+
+        synchronized void discard(long writtenVersion) {
+            if (version == writtenVersion) {
+                discarded = true;
+            }
+        }
+
+        synchronized boolean discarded() {
+            return discarded;
+        }
+
+        synchronized void reload(long value, long version) {
+            available = value;
+            this.version = version;
+            discarded = false;
+            updatedAt = Instant.now();
+        }
+
+        /**
+         * Takes a shared count unless a newer version is already known. An equal version is the
+         * same write seen twice and is accepted again.
+         */
+        synchronized boolean observe(long value, long version) {
+            if (version < this.version) {
+                return false;
+            }
+            available = value;
+            this.version = version;
+            discarded = false;
+            updatedAt = Instant.now();
+            return true;
+        }
+
+        synchronized void seed(long value) {
+            available = clamp(value);
+        }
+
+        synchronized long touch() {
+            dirty = true;
+            updatedAt = Instant.now();
+            return available;
+        }
+
+        synchronized Shift adjust(long delta) {
+            return correct(available + delta);
+        }
+
+        synchronized Shift correct(long value) {
+            long before = available;
+            long clamped = clamp(value);
+            if (clamped != available) {
+                available = clamped;
+                dirty = true;
+                updatedAt = Instant.now();
+            }
+            return new Shift(available - before, available);
+        }
+
+        private long clamp(long value) {
+            long upper = capacity != null && capacity > 0 ? capacity : Long.MAX_VALUE;
+            return Math.max(0, Math.min(upper, value));
+        }
+
+        synchronized Long takeDirty() {
+            if (!dirty) {
+                return null;
+            }
+            dirty = false;
+            return available;
+        }
+    }
+}
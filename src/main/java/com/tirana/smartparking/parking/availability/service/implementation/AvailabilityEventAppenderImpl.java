@@ -0,0 +1,336 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.events.AvailabilityEventRecord;
+import com.tirana.smartparking.parking.availability.service.AvailabilityEventAppender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Service
+public class AvailabilityEventAppenderImpl implements AvailabilityEventAppender, SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvailabilityEventAppenderImpl.class);
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO availability_events (lot_id, space_id, available_spaces, event, created_at, updated_at, source) VALUES ";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 7;
+    // Bind parameters PostgreSQL accepts in one statement
+    private static final int MAX_BIND_PARAMETERS = 32767;
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(1);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final String fullBatchSql;
+    private final int maxRetries;
+    private final Duration retryDelay;
+
+    private final BlockingQueue<AvailabilityEventRecord> buffer;
+    // Batches whose insert failed, oldest first; guarded by flushLock
+    private final Deque<FailedBatch> retries = new ArrayDeque<>();
+    private final int maxRetryBatches;
+    private final AtomicInteger retryingEvents = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> new Thread(r, "availability-event-flusher"));
+    private volatile boolean running;
+
+    private final Counter written;
+    private final Counter failed;
+    private final Counter retried;
+    private final Timer flushTimer;
+
+    public AvailabilityEventAppenderImpl(JdbcTemplate jdbcTemplate,
+                                         MeterRegistry meterRegistry,
+                                         @Value("${availability.events.batchSize:500}") int batchSize,
+                                         @Value("${availability.events.bufferCapacity:50000}") int bufferCapacity,
+                                         @Value("${availability.events.maxRetries:5}") int maxRetries,
+                                         @Value("${availability.events.retryDelayMs:1000}") long retryDelayMs) {
+        if (batchSize < 1 || bufferCapacity < batchSize) {
+            throw new IllegalArgumentException("Availability event buffer must hold at least one batch");
+        }
+        if (batchSize * COLUMNS > MAX_BIND_PARAMETERS) {
+            throw new IllegalArgumentException("Availability event batch size cannot exceed "
+                    + MAX_BIND_PARAMETERS / COLUMNS + " rows (PostgreSQL bind parameter limit)");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.fullBatchSql = insertSql(batchSize);
+        this.buffer = new LinkedBlockingQueue<>(bufferCapacity);
+        this.maxRetries = maxRetries;
+        this.retryDelay = Duration.ofMillis(retryDelayMs);
+        // Failed batches may hold as many events as the buffer
+        this.maxRetryBatches = Math.max(1, bufferCapacity / batchSize);
+
+        Gauge.builder("availability.events.buffered", buffer, BlockingQueue::size)
+                .register(meterRegistry);
+        Gauge.builder("availability.events.retrying", retryingEvents, AtomicInteger::get)
+                .description("Events of failed batches waiting for another insert attempt")
+                .register(meterRegistry);
+        this.written = Counter.builder("availability.events.written").register(meterRegistry);
+        this.failed = Counter.builder("availability.events.failed")
+                .description("Events dropped after their batch failed every insert attempt, or rejected by a constraint")
+                .register(meterRegistry);
+        this.retried = Counter.builder("availability.events.retried").register(meterRegistry);
+        this.flushTimer = Timer.builder("availability.events.flush")
+                .description("Time spent inserting one batch of availability events")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void append(AvailabilityEventRecord event) {
+        appendAll(List.of(event));
+    }
+
+    @Override
+    public void appendAll(Collection<AvailabilityEventRecord> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Never persist events of a transaction that is rolled back
+            List<AvailabilityEventRecord> pending = List.copyOf(events);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(pending);
+                }
+            });
+        } else {
+            enqueue(events);
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${availability.events.flushDelayMs:1000}")
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Retries failed batches that are due, then drains the buffer. The first failed insert ends
+     * the drain and parks its batch for a retry, so a database outage costs one attempt per
+     * flush and a caller flushing inline on a full buffer still frees a batch worth of space.
+     */
+    private void flush(boolean ignoreBackoff) {
+        flushLock.lock();
+        try {
+            retryFailed(ignoreBackoff);
+            while (true) {
+                List<AvailabilityEventRecord> batch = new ArrayList<>(batchSize);
+                if (buffer.drainTo(batch, batchSize) == 0) {
+                    break;
+                }
+                List<AvailabilityEventRecord> unwritten = insert(batch);
+                if (!unwritten.isEmpty()) {
+                    park(new FailedBatch(unwritten, 0));
+                    break;
+                }
+            }
+        } finally {
+            retryingEvents.set(retries.stream().mapToInt(failedBatch -> failedBatch.events.size()).sum());
+            flushLock.unlock();
+        }
+    }
+
+    private void retryFailed(boolean ignoreBackoff) {
+        Instant now = Instant.now();
+        int due = retries.size();
+        for (int i = 0; i < due; i++) {
+            FailedBatch failedBatch = retries.pollFirst();
+            if (!ignoreBackoff && failedBatch.nextAttemptAt.isAfter(now)) {
+                retries.addLast(failedBatch);
+                continue;
+            }
+            retried.increment(failedBatch.events.size());
+            List<AvailabilityEventRecord> unwritten = insert(failedBatch.events);
+            if (!unwritten.isEmpty()) {
+                // Still failing; leave the rest for a later flush
+                park(new FailedBatch(unwritten, failedBatch.attempts));
+                return;
+            }
+        }
+    }
+
+    private void park(FailedBatch failedBatch) {
+        failedBatch.attempts++;
+        if (failedBatch.attempts > maxRetries) {
+            drop(failedBatch, "after " + failedBatch.attempts + " attempts");
+            return;
+        }
+        long delayMs = Math.min(retryDelay.toMillis() << Math.min(failedBatch.attempts - 1, 20), MAX_RETRY_DELAY.toMillis());
+        failedBatch.nextAttemptAt = Instant.now().plusMillis(delayMs);
+        retries.addLast(failedBatch);
+        while (retries.size() > maxRetryBatches) {
+            drop(retries.pollFirst(), "because too many batches are waiting for a retry");
+        }
+    }
+
+    private void drop(FailedBatch failedBatch, String reason) {
+        failed.increment(failedBatch.events.size());
+        logger.error("Dropping {} availability events {}", failedBatch.events.size(), reason);
+    }
+
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Writes out whatever is still buffered. Runs after the sensor ingestion queue has drained.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(true);
+        int left = retryingEvents.get();
+        if (left > 0) {
+            logger.error("Shutting down with {} availability events that could not be written", left);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 1;
+    }
+
+    private void enqueue(Collection<AvailabilityEventRecord> events) {
+        for (AvailabilityEventRecord event : events) {
+            while (!buffer.offer(event)) {
+                // Buffer is full: the caller pays for the insert instead of growing memory
+                flush();
+            }
+        }
+        if (buffer.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushRequested.set(false);
+                    flush();
+                });
+            } catch (RuntimeException e) {
+                // Flusher already shut down; the final flush on stop picks these up
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Inserts a batch. A batch the database rejects for its content (e.g. an event of a deleted
+     * lot) fails the same way on every retry, so it is inserted again in halves down to single
+     * rows, and only the rows that are rejected on their own are dropped.
+     *
+     * @return the events that could not be written for another reason and should be retried
+     */
+    private List<AvailabilityEventRecord> insert(List<AvailabilityEventRecord> batch) {
+        String sql = batch.size() == batchSize ? fullBatchSql : insertSql(batch.size());
+        Timestamp now = Timestamp.from(Instant.now());
+        try {
+            flushTimer.record(() -> {
+                jdbcTemplate.update(sql, (PreparedStatement ps) -> bind(ps, batch, now));
+            });
+            written.increment(batch.size());
+            return List.of();
+        } catch (DataIntegrityViolationException e) {
+            if (batch.size() == 1) {
+                failed.increment();
+                logger.error("Dropping availability event {} rejected by the database: {}", batch.get(0), e.getMessage());
+                return List.of();
+            }
+            int half = batch.size() / 2;
+            List<AvailabilityEventRecord> unwritten = new ArrayList<>(insert(batch.subList(0, half)));
+            unwritten.addAll(insert(batch.subList(half, batch.size())));
+            return unwritten;
+        } catch (RuntimeException e) {
+            logger.warn("Failed to insert {} availability events, will retry: {}", batch.size(), e.getMessage());
+            return batch;
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<AvailabilityEventRecord> batch, Timestamp now) throws SQLException {
+        int i = 1;
+        for (AvailabilityEventRecord event : batch) {
+            ps.setLong(i++, event.lotId());
+            if (event.spaceId() != null) {
+                ps.setLong(i++, event.spaceId());
+            } else {
+                ps.setNull(i++, Types.BIGINT);
+            }
+            if (event.availableSpaces() != null) {
+                ps.setInt(i++, event.availableSpaces());
+            } else {
+                ps.setNull(i++, Types.INTEGER);
+            }
+            ps.setString(i++, event.event());
+            ps.setTimestamp(i++, event.createdAt() != null ? Timestamp.from(event.createdAt()) : now);
+            ps.setTimestamp(i++, now);
+            ps.setString(i++, event.source());
+        }
+    }
+
+    private static final class FailedBatch {
+        private final List<AvailabilityEventRecord> events;
+        private int attempts;
+        private Instant nextAttemptAt;
+
+        FailedBatch(List<AvailabilityEventRecord> events, int attempts) {
+            // Halves of a split batch are views of the drained list
+            this.events = List.copyOf(events);
+            this.attempts = attempts;
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (ROW_PLACEHOLDERS.length() + 2));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(ROW_PLACEHOLDERS);
+        }
+        return sql.toString();
+    }
+}
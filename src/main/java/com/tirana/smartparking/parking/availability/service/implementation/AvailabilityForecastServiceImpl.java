@@ -0,0 +1,345 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityForecastDTO;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.AvailabilityForecastService;
+import com.tirana.smartparking.parking.availability.service.AvailabilityRollupService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Forecast model kept per active lot: for each weekday and 15-minute slot of local time, an
+ * exponentially weighted mean and variance of the lot's free count.
+ * <p>
+ * The first refresh seeds every slot from the last {@code historyWeeks} of minute rollups. Later
+ * refreshes only read the minute buckets that settled since the previous one and fold each into
+ * its slot, so newer weeks gradually outweigh older ones. Slots are weighted by time, not by
+ * events: a minute without a bucket had no events, so the lot's last known free count held
+ * throughout it and is counted for that minute. A bucket has settled once the rollup job has folded every stored event of that
+ * minute ({@link AvailabilityRollupService#settledUntil()}) and it is at least {@code settleMs}
+ * old, for events the appender still holds. Each bucket is folded exactly once, however far the
+ * rollups fall behind.
+ * <p>
+ * A forecast for {@code at} starts from the baseline of that slot and adds the lot's current
+ * deviation from its own baseline, decaying with the time left until {@code at}. A lot that is
+ * unusually full now is expected to stay fuller than usual for a while, then to drift back to
+ * normal.
+ */
+@Service
+public class AvailabilityForecastServiceImpl implements AvailabilityForecastService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvailabilityForecastServiceImpl.class);
+
+    static final int SLOT_MINUTES = 15;
+    static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+    static final int SLOTS = 7 * SLOTS_PER_DAY;
+
+    private static final String LOTS_SQL = "SELECT id, capacity FROM parking_lots WHERE status = 'ACTIVE'";
+
+    // Buckets folded before last_free existed carry their mean forward instead
+    private static final String MINUTES_SQL =
+            "SELECT lot_id, bucket_start, sum_free::float8 / event_count, coalesce(last_free, sum_free::float8 / event_count) " +
+            "FROM availability_rollups WHERE granularity = 'MINUTE' AND bucket_start >= ? AND bucket_start < ? " +
+            "ORDER BY lot_id, bucket_start";
+
+    // Each lot's free count when the history window opens, from its last bucket before it
+    private static final String CARRY_IN_SQL =
+            "SELECT l.id, r.last_free FROM parking_lots l CROSS JOIN LATERAL (" +
+            "SELECT coalesce(last_free, sum_free::float8 / event_count) AS last_free FROM availability_rollups " +
+            "WHERE lot_id = l.id AND granularity = 'MINUTE' AND bucket_start < ? ORDER BY bucket_start DESC LIMIT 1) r " +
+            "WHERE l.status = 'ACTIVE'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AvailabilityCounterService availabilityCounterService;
+    private final AvailabilityRollupService availabilityRollupService;
+    private final ZoneId zone;
+    private final int historyWeeks;
+    private final double alpha;
+    private final double decayMinutes;
+    private final Duration settle;
+    private final Duration maxHorizon;
+
+    private final Map<Long, LotModel> models = new ConcurrentHashMap<>();
+    // Minute buckets before this are in the models
+    private volatile Instant foldedUntil;
+
+    public AvailabilityForecastServiceImpl(JdbcTemplate jdbcTemplate,
+                                           AvailabilityCounterService availabilityCounterService,
+                                           AvailabilityRollupService availabilityRollupService,
+                                           @Value("${availability.forecast.zone:Europe/Tirane}") String zone,
+                                           @Value("${availability.forecast.historyWeeks:8}") int historyWeeks,
+                                           @Value("${availability.forecast.alpha:0.05}") double alpha,
+                                           @Value("${availability.forecast.decayMinutes:45}") double decayMinutes,
+                                           @Value("${availability.forecast.settleMs:60000}") long settleMs,
+                                           @Value("${availability.forecast.maxHorizonDays:14}") int maxHorizonDays) {
+        if (historyWeeks < 1 || alpha <= 0 || alpha > 1 || decayMinutes <= 0) {
+            throw new IllegalArgumentException("Forecast history must be at least one week, alpha in (0, 1] and decay positive");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.availabilityCounterService = availabilityCounterService;
+        this.availabilityRollupService = availabilityRollupService;
+        this.zone = ZoneId.of(zone);
+        this.historyWeeks = historyWeeks;
+        this.alpha = alpha;
+        this.decayMinutes = decayMinutes;
+        this.settle = Duration.ofMillis(settleMs);
+        this.maxHorizon = Duration.ofDays(maxHorizonDays);
+    }
+
+    @Override
+    public AvailabilityForecastDTO forecast(Long lotId, Instant at) {
+        Instant now = Instant.now();
+        // A request built a moment ago may arrive with a time that has just passed
+        if (at.isBefore(now.minus(Duration.ofMinutes(1)))) {
+            throw new IllegalArgumentException("Forecast time must not be in the past");
+        }
+        if (at.isAfter(now.plus(maxHorizon))) {
+            throw new IllegalArgumentException("Forecasts are available up to " + maxHorizon.toDays() + " days ahead");
+        }
+        if (foldedUntil == null) {
+            refresh();
+        }
+        LotModel model = models.get(lotId);
+        if (model == null) {
+            throw new ResourceNotFoundException("Parking lot not found with id: " + lotId);
+        }
+
+        long live = availabilityCounterService.getAvailableSpaces(lotId);
+        int slotAt = slot(at);
+        int slotNow = slot(now);
+        double minutesAhead = Math.max(0, Duration.between(now, at).toSeconds() / 60.0);
+        double weight = Math.exp(-minutesAhead / decayMinutes);
+
+        double expected;
+        double variance;
+        Double baseline = null;
+        int samples = model.samples[slotAt];
+        if (samples == 0 || model.samples[slotNow] == 0) {
+            // No history for one of the two times: the live count is the best guess
+            expected = live;
+            variance = samples == 0 ? 0 : model.variance[slotAt] * (1 - weight * weight);
+        } else {
+            baseline = (double) model.mean[slotAt];
+            expected = model.mean[slotAt] + weight * (live - model.mean[slotNow]);
+            variance = model.variance[slotAt] * (1 - weight * weight);
+        }
+        expected = Math.max(0, model.capacity > 0 ? Math.min(model.capacity, expected) : expected);
+
+        return new AvailabilityForecastDTO(
+                lotId,
+                at,
+                Math.round(expected),
+                probabilityOfSpace(expected, variance),
+                baseline,
+                live,
+                model.capacity,
+                samples
+        );
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${availability.forecast.refreshMs:300000}")
+    public synchronized void refresh() {
+        Optional<Instant> settled = availabilityRollupService.settledUntil();
+        Set<Long> active = new HashSet<>();
+        jdbcTemplate.query(LOTS_SQL, rs -> {
+            long lotId = rs.getLong(1);
+            long capacity = rs.getLong(2);
+            active.add(lotId);
+            models.computeIfAbsent(lotId, id -> new LotModel()).capacity = capacity;
+        });
+        models.keySet().retainAll(active);
+        if (settled.isEmpty()) {
+            // The rollup job has not run yet; forecasts fall back to live counts meanwhile
+            return;
+        }
+
+        // Only whole minutes that the rollups will not change any more
+        Instant until = settled.get();
+        Instant buffered = Instant.now().minus(settle);
+        if (buffered.isBefore(until)) {
+            until = buffered;
+        }
+        until = until.truncatedTo(ChronoUnit.MINUTES);
+        Duration history = Duration.ofDays(7L * historyWeeks);
+        boolean seeding = foldedUntil == null;
+        if (!seeding && !until.isAfter(foldedUntil)) {
+            // Nothing settled since the last refresh, e.g. while the rollups catch up
+            return;
+        }
+        // After a long rollup backlog, buckets older than the history window are not worth folding
+        Instant from = seeding || foldedUntil.isBefore(until.minus(history)) ? until.minus(history) : foldedUntil;
+        if (seeding) {
+            jdbcTemplate.query(CARRY_IN_SQL, rs -> {
+                LotModel model = models.get(rs.getLong(1));
+                if (model != null) {
+                    model.lastFree = rs.getDouble(2);
+                }
+            }, Timestamp.from(from));
+        }
+        Map<Long, Fold> folds = new HashMap<>();
+        models.forEach((lotId, model) -> folds.put(lotId, new Fold(model, from, seeding)));
+        jdbcTemplate.query(MINUTES_SQL, rs -> {
+            Fold fold = folds.get(rs.getLong(1));
+            if (fold != null) {
+                fold.bucket(rs.getTimestamp(2).toInstant(), rs.getDouble(3), rs.getDouble(4));
+            }
+        }, Timestamp.from(from), Timestamp.from(until));
+        for (Fold fold : folds.values()) {
+            fold.finish(until);
+        }
+        if (seeding) {
+            logger.info("Seeded availability forecasts for {} lots from {} weeks of history", models.size(), historyWeeks);
+        }
+        foldedUntil = until;
+    }
+
+    private int slot(Instant instant) {
+        return slot(instant.atZone(zone));
+    }
+
+    private static int slot(ZonedDateTime local) {
+        return (local.getDayOfWeek().getValue() - 1) * SLOTS_PER_DAY
+                + (local.getHour() * 60 + local.getMinute()) / SLOT_MINUTES;
+    }
+
+    /**
+     * P(free >= 1) under a normal approximation, with the usual half-space continuity correction.
+     */
+    static double probabilityOfSpace(double expected, double variance) {
+        if (variance <= 1e-9) {
+            return expected >= 0.5 ? 1.0 : 0.0;
+        }
+        return normalCdf((expected - 0.5) / Math.sqrt(variance));
+    }
+
+    // Abramowitz and Stegun 7.1.26, accurate to about 1e-7
+    static double normalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - (((((1.061405429 * t - 1.453152027) * t) + 1.421413741) * t - 0.284496736) * t + 0.254829592) * t * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+
+    /**
+     * One lot's minutes from {@code from} on, in order, during a refresh. The minutes before each
+     * bucket, and after the last one, had no events and are counted at the lot's last known free
+     * count. While seeding the minutes of each slot are averaged (Welford), afterwards each is
+     * folded into the exponentially weighted slot.
+     */
+    private final class Fold {
+        private final LotModel model;
+        private final long[] count;
+        private final double[] mean;
+        private final double[] squares;
+        private Instant next;
+
+        Fold(LotModel model, Instant from, boolean seeding) {
+            this.model = model;
+            this.count = seeding ? new long[SLOTS] : null;
+            this.mean = seeding ? new double[SLOTS] : null;
+            this.squares = seeding ? new double[SLOTS] : null;
+            this.next = from;
+        }
+
+        void bucket(Instant minute, double free, double lastFree) {
+            carry(minute);
+            add(slot(minute), free, 1);
+            model.lastFree = lastFree;
+            next = minute.plus(1, ChronoUnit.MINUTES);
+        }
+
+        void finish(Instant until) {
+            carry(until);
+            if (count == null) {
+                return;
+            }
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (count[slot] > 0) {
+                    double variance = count[slot] > 1 ? squares[slot] / (count[slot] - 1) : 0;
+                    model.seed(slot, mean[slot], variance, (int) Math.min(Integer.MAX_VALUE, count[slot]));
+                }
+            }
+        }
+
+        private void carry(Instant to) {
+            // Nothing known yet about a lot that has never had an event
+            if (Double.isNaN(model.lastFree)) {
+                return;
+            }
+            long left = Duration.between(next, to).toMinutes();
+            while (left > 0) {
+                ZonedDateTime local = next.atZone(zone);
+                // The minutes up to the next quarter hour share a slot
+                int run = (int) Math.min(left, SLOT_MINUTES - local.getMinute() % SLOT_MINUTES);
+                add(slot(local), model.lastFree, run);
+                next = next.plus(run, ChronoUnit.MINUTES);
+                left -= run;
+            }
+        }
+
+        private void add(int slot, double free, int minutes) {
+            for (int i = 0; i < minutes; i++) {
+                if (count == null) {
+                    model.observe(slot, free, alpha);
+                    continue;
+                }
+                count[slot]++;
+                double delta = free - mean[slot];
+                mean[slot] += delta / count[slot];
+                squares[slot] += delta * (free - mean[slot]);
+            }
+        }
+    }
+
+    /**
+     * Baseline of one lot. Only the refresh writes; forecasts read without locking, and a slot
+     * read while it is being updated is at worst one observation behind.
+     */
+    private static final class LotModel {
+        final float[] mean = new float[SLOTS];
+        final float[] variance = new float[SLOTS];
+        final int[] samples = new int[SLOTS];
+        volatile long capacity;
+        // Free count after the last event folded in, NaN until there is one; refresh only
+        double lastFree = Double.NaN;
+
+        void seed(int slot, double slotMean, double slotVariance, int count) {
+            mean[slot] = (float) slotMean;
+            variance[slot] = (float) slotVariance;
+            samples[slot] = count;
+        }
+
+        void observe(int slot, double free, double alpha) {
+            if (samples[slot] == 0) {
+                mean[slot] = (float) free;
+                variance[slot] = 0;
+            } else {
+                // Exponentially weighted mean and variance (West, 1979)
+                double delta = free - mean[slot];
+                double updated = mean[slot] + alpha * delta;
+                variance[slot] = (float) ((1 - alpha) * (variance[slot] + alpha * delta * delta));
+                mean[slot] = (float) updated;
+            }
+            samples[slot]++;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilityRollupDTO;
+import com.tirana.smartparking.parking.availability.repository.AvailabilityRollupRepository;
+import com.tirana.smartparking.parking.availability.rollup.AvailabilityRollup;
+import com.tirana.smartparking.parking.availability.service.AvailabilityRollupService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Maintains the minute and hour rollups incrementally. Each run folds the events with ids between
+ * the stored watermark and a target into the buckets with one {@code INSERT ... SELECT ... ON
+ * CONFLICT} per granularity, and moves the watermark in the same transaction.
+ * <p>
+ * Event ids are handed out before the inserting transaction commits, so an id can become visible
+ * after a higher one. The target is therefore the highest id seen on the previous run, which
+ * gives every in-flight insert a whole interval to commit. The watermark row is locked while a
+ * range is folded, so several nodes running the job never count an event twice.
+ */
+@Service
+public class AvailabilityRollupServiceImpl implements AvailabilityRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvailabilityRollupServiceImpl.class);
+
+    static final String WATERMARK = "availability_rollups";
+
+    // Buckets are cut in UTC so hours do not depend on the session time zone. The granularity is
+    // filled in from the enum, because GROUP BY cannot refer to a bind parameter of the select list
+    private static final String FOLD_SQL =
+            "INSERT INTO availability_rollups (lot_id, granularity, bucket_start, min_free, max_free, sum_free, event_count, last_free, last_at) " +
+            "SELECT lot_id, '%1$s', date_trunc('%2$s', created_at AT TIME ZONE 'UTC') AT TIME ZONE 'UTC', " +
+            "min(available_spaces), max(available_spaces), sum(available_spaces), count(*), " +
+            "(array_agg(available_spaces ORDER BY created_at DESC, id DESC))[1], max(created_at) " +
+            "FROM availability_events WHERE id > ? AND id <= ? AND available_spaces IS NOT NULL " +
+            "GROUP BY 1, 3 " +
+            "ON CONFLICT (lot_id, granularity, bucket_start) DO UPDATE SET " +
+            "min_free = LEAST(availability_rollups.min_free, EXCLUDED.min_free), " +
+            "max_free = GREATEST(availability_rollups.max_free, EXCLUDED.max_free), " +
+            "sum_free = availability_rollups.sum_free + EXCLUDED.sum_free, " +
+            "event_count = availability_rollups.event_count + EXCLUDED.event_count, " +
+            // A late event folded in a later range only replaces the last value if it is newer
+            "last_free = CASE WHEN availability_rollups.last_at IS NULL OR EXCLUDED.last_at >= availability_rollups.last_at " +
+            "THEN EXCLUDED.last_free ELSE availability_rollups.last_free END, " +
+            "last_at = GREATEST(availability_rollups.last_at, EXCLUDED.last_at)";
+
+    // The oldest event above the watermark bounds what is final; with none left, everything stored is
+    private static final String SETTLED_SQL =
+            "SELECT COALESCE((SELECT min(e.created_at) FROM availability_events e WHERE e.id > w.last_event_id), now()) " +
+            "FROM availability_rollup_watermarks w WHERE w.name = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AvailabilityRollupRepository availabilityRollupRepository;
+    private final long batchSize;
+    private final int maxBuckets;
+
+    // Highest event id seen by the previous run; -1 until the first run
+    private long target = -1;
+
+    private final Counter folded;
+    private final Timer runTimer;
+
+    public AvailabilityRollupServiceImpl(JdbcTemplate jdbcTemplate,
+                                         PlatformTransactionManager transactionManager,
+                                         AvailabilityRollupRepository availabilityRollupRepository,
+                                         MeterRegistry meterRegistry,
+                                         @Value("${availability.rollup.batchSize:100000}") long batchSize,
+                                         @Value("${availability.rollup.maxBuckets:2000}") int maxBuckets) {
+        if (batchSize < 1 || maxBuckets < 1) {
+            throw new IllegalArgumentException("Availability rollup batch size and bucket limit must be positive");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.availabilityRollupRepository = availabilityRollupRepository;
+        this.batchSize = batchSize;
+        this.maxBuckets = maxBuckets;
+
+        this.folded = Counter.builder("availability.rollup.events")
+                .description("Availability events folded into the rollups")
+                .register(meterRegistry);
+        this.runTimer = Timer.builder("availability.rollup.run").register(meterRegistry);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${availability.rollup.intervalMs:60000}")
+    public synchronized long rollUp() {
+        return runTimer.record(() -> {
+            jdbcTemplate.update("INSERT INTO availability_rollup_watermarks (name, last_event_id, updated_at) " +
+                    "VALUES (?, 0, now()) ON CONFLICT (name) DO NOTHING", WATERMARK);
+            Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM availability_events", Long.class);
+            long upTo = target < 0 ? 0 : Math.min(target, maxId);
+            target = maxId;
+
+            long total = 0;
+            while (true) {
+                Long count = transactionTemplate.execute(status -> foldNextRange(upTo));
+                if (count == null || count < 0) {
+                    break;
+                }
+                total += count;
+            }
+            if (total > 0) {
+                folded.increment(total);
+                logger.debug("Folded {} availability events into rollups", total);
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Folds the next range of at most {@code batchSize} ids up to {@code upTo}.
+     *
+     * @return events folded, or -1 when there is nothing left to fold
+     */
+    private long foldNextRange(long upTo) {
+        Long watermark = jdbcTemplate.queryForObject(
+                "SELECT last_event_id FROM availability_rollup_watermarks WHERE name = ? FOR UPDATE", Long.class, WATERMARK);
+        if (watermark == null || watermark >= upTo) {
+            return -1;
+        }
+        long to = Math.min(upTo, watermark + batchSize);
+        for (AvailabilityRollup.Granularity granularity : AvailabilityRollup.Granularity.values()) {
+            jdbcTemplate.update(String.format(FOLD_SQL, granularity.name(), granularity.name().toLowerCase()), watermark, to);
+        }
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM availability_events WHERE id > ? AND id <= ? AND available_spaces IS NOT NULL",
+                Long.class, watermark, to);
+        jdbcTemplate.update("UPDATE availability_rollup_watermarks SET last_event_id = ?, updated_at = now() WHERE name = ?",
+                to, WATERMARK);
+        return count != null ? count : 0;
+    }
+
+    @Override
+    public Optional<Instant> settledUntil() {
+        return jdbcTemplate.query(SETTLED_SQL, (rs, rowNum) -> rs.getTimestamp(1).toInstant(), WATERMARK)
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public List<AvailabilityRollupDTO> getHistory(Long lotId, AvailabilityRollup.Granularity granularity, Instant from, Instant to) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        Duration bucket = granularity == AvailabilityRollup.Granularity.MINUTE ? Duration.ofMinutes(1) : Duration.ofHours(1);
+        if (Duration.between(from, to).dividedBy(bucket) > maxBuckets) {
+            throw new IllegalArgumentException("At most " + maxBuckets + " " + granularity.name().toLowerCase()
+                    + " buckets can be read at once, narrow the range or use a coarser granularity");
+        }
+        return availabilityRollupRepository.findBuckets(lotId, granularity, from, to).stream()
+                .map(r -> new AvailabilityRollupDTO(
+                        r.getBucketStart(),
+                        r.getMinFree(),
+                        (double) r.getSumFree() / r.getEventCount(),
+                        r.getMaxFree(),
+                        r.getEventCount()))
+                .toList();
+    }
+}
@@ -0,0 +1,136 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySnapshotDTO;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySnapshotService;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one entry per active lot. Free counts follow the published updates (see
+ * {@link com.tirana.smartparking.parking.availability.service.AvailabilityBus}); lots, capacities
+ * and changes that are not published, such as admin edits, come from a periodic reload of
+ * {@code parking_lots}. The reload never replaces a value that is newer in memory.
+ */
+@Service
+public class AvailabilitySnapshotServiceImpl implements AvailabilitySnapshotService {
+
+    private static final String LOAD_SQL =
+            "SELECT id, capacity, available_spaces, availability_updated_at FROM parking_lots WHERE status = 'ACTIVE'";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Long, LotEntry> lots = new ConcurrentHashMap<>();
+    // Seeded from the clock so versions, and so ETags, keep increasing across restarts
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis() * 1000);
+    // Two nodes, or a restart within the same millisecond, can still reach the same version
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+    private volatile boolean loaded;
+    private volatile AvailabilitySnapshotDTO cached;
+
+    public AvailabilitySnapshotServiceImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    private record LotEntry(long availableSpaces, long capacity, Instant updatedAt) {
+    }
+
+    @Override
+    public long getVersion() {
+        if (!loaded) {
+            refresh();
+        }
+        return version.get();
+    }
+
+    @Override
+    public String getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public AvailabilitySnapshotDTO getSnapshot() {
+        long current = getVersion();
+        AvailabilitySnapshotDTO snapshot = cached;
+        if (snapshot != null && snapshot.version() == current) {
+            return snapshot;
+        }
+        synchronized (this) {
+            snapshot = cached;
+            current = version.get();
+            if (snapshot != null && snapshot.version() == current) {
+                return snapshot;
+            }
+            // Read the version first: a change while copying is at worst served under the older one
+            List<long[]> entries = new ArrayList<>(lots.size());
+            lots.forEach((lotId, entry) -> entries.add(new long[]{
+                    lotId, entry.availableSpaces(), entry.capacity(), entry.updatedAt() != null ? entry.updatedAt().toEpochMilli() : 0}));
+            entries.sort((a, b) -> Long.compare(a[0], b[0]));
+            snapshot = new AvailabilitySnapshotDTO(current, Instant.now(), List.copyOf(entries));
+            cached = snapshot;
+            return snapshot;
+        }
+    }
+
+    @Override
+    public void update(Long lotId, long availableSpaces) {
+        boolean[] changed = new boolean[1];
+        // Lots the last reload did not know about get their capacity with the next one
+        lots.computeIfPresent(lotId, (id, entry) -> {
+            if (entry.availableSpaces() == availableSpaces) {
+                return entry;
+            }
+            changed[0] = true;
+            return new LotEntry(availableSpaces, entry.capacity(), Instant.now());
+        });
+        if (changed[0]) {
+            version.incrementAndGet();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${availability.snapshot.refreshMs:60000}")
+    public synchronized void refresh() {
+        Set<Long> seen = new HashSet<>();
+        boolean[] changed = new boolean[1];
+        jdbcTemplate.query(LOAD_SQL, rs -> {
+            long lotId = rs.getLong(1);
+            long capacity = rs.getLong(2);
+            long available = rs.getLong(3);
+            Timestamp updatedAt = rs.getTimestamp(4);
+            Instant stored = updatedAt != null ? updatedAt.toInstant() : null;
+            seen.add(lotId);
+            lots.compute(lotId, (id, entry) -> {
+                LotEntry merged = entry;
+                if (entry == null) {
+                    merged = new LotEntry(available, capacity, stored);
+                } else if (stored != null && (entry.updatedAt() == null || stored.isAfter(entry.updatedAt()))) {
+                    merged = new LotEntry(available, capacity, stored);
+                } else if (entry.capacity() != capacity) {
+                    merged = new LotEntry(entry.availableSpaces(), capacity, entry.updatedAt());
+                }
+                if (!merged.equals(entry)) {
+                    changed[0] = true;
+                }
+                return merged;
+            });
+        });
+        if (lots.keySet().retainAll(seen)) {
+            changed[0] = true;
+        }
+        if (changed[0]) {
+            version.incrementAndGet();
+        }
+        loaded = true;
+    }
+}
@@ -0,0 +1,130 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.parking.availability.AvailabilityStream;
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySubscriptionDTO;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityViewportDTO;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySubscriptionService;
+import com.tirana.smartparking.parking.repository.ParkingLotRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+@Service
+public class AvailabilitySubscriptionServiceImpl implements AvailabilitySubscriptionService {
+
+    private final AvailabilityStream availabilityStream;
+    private final AvailabilityCounterService availabilityCounterService;
+    private final ParkingLotRepository parkingLotRepository;
+    private final int maxLots;
+    private final Duration replayRetention;
+
+    public AvailabilitySubscriptionServiceImpl(AvailabilityStream availabilityStream,
+                                               AvailabilityCounterService availabilityCounterService,
+                                               ParkingLotRepository parkingLotRepository,
+                                               @Value("${availability.stream.maxLotsPerSubscription:500}") int maxLots,
+                                               @Value("${availability.stream.replayRetentionMs:300000}") long replayRetentionMs) {
+        this.availabilityStream = availabilityStream;
+        this.availabilityCounterService = availabilityCounterService;
+        this.parkingLotRepository = parkingLotRepository;
+        this.maxLots = maxLots;
+        this.replayRetention = Duration.ofMillis(replayRetentionMs);
+    }
+
+    @Override
+    public SseEmitter subscribe(String client, Long lotId, String lastEventId) {
+        if (!parkingLotRepository.existsById(lotId)) {
+            throw new ResourceNotFoundException("Parking lot not found with id: " + lotId);
+        }
+        return availabilityStream.subscribe(client, lotId, resumePoint(lastEventId), availabilityCounterService::getAvailableSpaces);
+    }
+
+    @Override
+    public SseEmitter subscribe(String client, AvailabilityViewportDTO viewport, String lastEventId) {
+        Set<Long> lotIds = resolveLots(viewport);
+        AvailabilityStream.Subscription subscription = availabilityStream.subscribe(client, lotIds);
+        // Read after registering, so any change from here on also reaches the client as an update
+        Long resumeFrom = resumePoint(lastEventId);
+        if (resumeFrom != null) {
+            availabilityStream.resume(subscription.id(), lotIds, resumeFrom, availabilityCounterService::getAvailableSpaces);
+        } else {
+            availabilityStream.snapshot(subscription.id(), lotIds, availabilityCounterService::getAvailableSpaces);
+        }
+        return subscription.emitter();
+    }
+
+    @Override
+    public AvailabilitySubscriptionDTO changeViewport(String client, String subscriptionId, AvailabilityViewportDTO viewport) {
+        Set<Long> lotIds = resolveLots(viewport);
+        Set<Long> added = availabilityStream.changeLots(subscriptionId, client, lotIds);
+        availabilityStream.snapshot(subscriptionId, added, availabilityCounterService::getAvailableSpaces);
+        return new AvailabilitySubscriptionDTO(subscriptionId, List.copyOf(lotIds));
+    }
+
+    @Override
+    public Set<Long> resolveLots(AvailabilityViewportDTO viewport) {
+        if (viewport == null) {
+            throw new IllegalArgumentException("Either lotIds or a bounding box is required");
+        }
+        boolean hasLots = viewport.lotIds() != null && !viewport.lotIds().isEmpty();
+        boolean hasBox = viewport.minLat() != null || viewport.minLng() != null
+                || viewport.maxLat() != null || viewport.maxLng() != null;
+        if (hasLots == hasBox) {
+            throw new IllegalArgumentException("Either lotIds or a bounding box is required, not both");
+        }
+
+        if (hasLots) {
+            Set<Long> requested = new LinkedHashSet<>(viewport.lotIds());
+            if (requested.size() > maxLots) {
+                throw new IllegalArgumentException("At most " + maxLots + " lots can be followed by one subscription");
+            }
+            // Unknown ids would only seed empty counters
+            return new LinkedHashSet<>(parkingLotRepository.findExistingIds(requested));
+        }
+
+        if (viewport.minLat() == null || viewport.minLng() == null || viewport.maxLat() == null || viewport.maxLng() == null) {
+            throw new IllegalArgumentException("A bounding box needs minLat, minLng, maxLat and maxLng");
+        }
+        if (viewport.minLat() < -90 || viewport.maxLat() > 90 || viewport.minLat() > viewport.maxLat()
+                || viewport.minLng() < -180 || viewport.maxLng() > 180 || viewport.minLng() > viewport.maxLng()) {
+            throw new IllegalArgumentException("Invalid bounding box");
+        }
+        List<Long> ids = parkingLotRepository.findIdsWithinBounds(
+                viewport.minLng(), viewport.minLat(), viewport.maxLng(), viewport.maxLat(), maxLots + 1);
+        if (ids.size() > maxLots) {
+            throw new IllegalArgumentException("The bounding box contains more than " + maxLots + " lots, zoom in");
+        }
+        return new LinkedHashSet<>(ids);
+    }
+
+    /**
+     * Forgets the stream state of lots nobody follows any more, and their counters unless the
+     * lots are still counting (e.g. sensors keep reporting).
+     */
+    @Scheduled(fixedDelayString = "${availability.stream.releaseMs:60000}")
+    public void releaseLots() {
+        Instant unchangedSince = Instant.now().minus(replayRetention);
+        for (Long lotId : availabilityStream.releaseLots()) {
+            availabilityCounterService.release(lotId, unchangedSince);
+        }
+    }
+
+    /**
+     * Null without a {@code Last-Event-ID}. Ids from another node or run resume as
+     * {@link AvailabilityStream#FOREIGN_EVENT_ID}, so the client gets a full snapshot.
+     */
+    private Long resumePoint(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return null;
+        }
+        return availabilityStream.resumePoint(lastEventId.trim());
+    }
+}
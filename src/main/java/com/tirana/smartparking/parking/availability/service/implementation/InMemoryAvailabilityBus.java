@@ -0,0 +1,30 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.AvailabilityStream;
+import com.tirana.smartparking.parking.availability.service.AvailabilityBus;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySnapshotService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Single-node bus: updates only go to this node's subscribers. Also used by tests.
+ */
+@Service
+@ConditionalOnProperty(name = "availability.bus.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryAvailabilityBus implements AvailabilityBus {
+
+    private final AvailabilityStream availabilityStream;
+    private final AvailabilitySnapshotService availabilitySnapshotService;
+
+    public InMemoryAvailabilityBus(AvailabilityStream availabilityStream,
+                                   AvailabilitySnapshotService availabilitySnapshotService) {
+        this.availabilityStream = availabilityStream;
+        this.availabilitySnapshotService = availabilitySnapshotService;
+    }
+
+    @Override
+    public void publish(Long lotId, long availableSpaces) {
+        availabilityStream.publish(lotId, availableSpaces);
+        availabilitySnapshotService.update(lotId, availableSpaces);
+    }
+}
@@ -0,0 +1,273 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.AvailabilityStream;
+import com.tirana.smartparking.parking.availability.service.AvailabilityBus;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySnapshotService;
+import com.tirana.smartparking.parking.availability.service.LotAvailability;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cluster bus over Postgres {@code LISTEN/NOTIFY}. An update goes to this node's subscribers at
+ * once and the lot is parked once the producing transaction commits; every {@code flushMs} the
+ * parked lots are sent as {@code NOTIFY} payloads of the form
+ * {@code node|lot:free:version,lot:free:version,...}. A lot that changes several times between
+ * flushes is sent once with its newest value, so traffic grows with the number of busy lots rather
+ * than with the sensor event rate. Every node listens on one dedicated connection and re-publishes
+ * other nodes' updates to its own subscribers and snapshot.
+ * <p>
+ * Counts and versions come from {@link AvailabilityCounterService}, which in this mode writes
+ * every change to {@code parking_lots} and bumps the row's version. A node drops a value older than
+ * one it already knows, so late or reordered notifications never move a count backwards.
+ * <p>
+ * Delivery is best effort: updates sent while a node's listener is reconnecting are not seen by
+ * that node, and its subscribers and cached counts catch up with the lot's next change.
+ */
+@Service
+@ConditionalOnProperty(name = "availability.bus.type", havingValue = "postgres")
+public class PostgresAvailabilityBus implements AvailabilityBus, SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostgresAvailabilityBus.class);
+
+    static final String CHANNEL = "availability_updates";
+    // NOTIFY payloads must be shorter than 8000 bytes
+    static final int MAX_PAYLOAD = 7900;
+
+    private final AvailabilityStream availabilityStream;
+    private final AvailabilitySnapshotService availabilitySnapshotService;
+    private final AvailabilityCounterService availabilityCounterService;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final int pollMs;
+    private final long reconnectDelayMs;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+    private volatile boolean listening;
+    private Thread listener;
+
+    private final Counter sent;
+    private final Counter notifications;
+    private final Counter received;
+    private final Counter failed;
+    private final Counter outdated;
+
+    public PostgresAvailabilityBus(AvailabilityStream availabilityStream,
+                                   AvailabilitySnapshotService availabilitySnapshotService,
+                                   AvailabilityCounterService availabilityCounterService,
+                                   DataSource dataSource,
+                                   JdbcTemplate jdbcTemplate,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${availability.bus.pollMs:500}") int pollMs,
+                                   @Value("${availability.bus.reconnectDelayMs:5000}") long reconnectDelayMs) {
+        this.availabilityStream = availabilityStream;
+        this.availabilitySnapshotService = availabilitySnapshotService;
+        this.availabilityCounterService = availabilityCounterService;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.pollMs = pollMs;
+        this.reconnectDelayMs = reconnectDelayMs;
+
+        Gauge.builder("availability.bus.pending", pending, Set::size)
+                .description("Lots waiting for the next NOTIFY")
+                .register(meterRegistry);
+        Gauge.builder("availability.bus.listening", this, bus -> bus.listening ? 1 : 0)
+                .register(meterRegistry);
+        this.sent = Counter.builder("availability.bus.sent").description("Lot updates sent to other nodes").register(meterRegistry);
+        this.notifications = Counter.builder("availability.bus.notifications").register(meterRegistry);
+        this.received = Counter.builder("availability.bus.received").description("Lot updates received from other nodes").register(meterRegistry);
+        this.failed = Counter.builder("availability.bus.failed").register(meterRegistry);
+        this.outdated = Counter.builder("availability.bus.outdated").description("Received updates older than the count this node holds").register(meterRegistry);
+    }
+
+    /**
+     * The value passed in may already be outdated by another node's write; the counter's newest
+     * one is delivered instead. Other nodes only hear about the lot once the producing transaction
+     * has committed, so a rolled-back count never leaves this node.
+     */
+    @Override
+    public void publish(Long lotId, long availableSpaces) {
+        deliver(lotId, availabilityCounterService.getAvailableSpaces(lotId));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            pending.add(lotId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                pending.add(lotId);
+            }
+        });
+    }
+
+    /**
+     * Sends the parked lots with their current count and version, split into as few payloads as
+     * fit. Lots that could not be sent are parked again.
+     */
+    @Scheduled(fixedDelayString = "${availability.bus.flushMs:50}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> payloads = new ArrayList<>();
+        List<Long> taken = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(nodeId).append('|');
+        int header = payload.length();
+        for (Long lotId : pending) {
+            if (!pending.remove(lotId)) {
+                continue;
+            }
+            taken.add(lotId);
+            LotAvailability availability = availabilityCounterService.getAvailability(lotId);
+            String entry = lotId + ":" + availability.availableSpaces() + ":" + availability.version();
+            if (payload.length() > header && payload.length() + 1 + entry.length() > MAX_PAYLOAD) {
+                payloads.add(payload.toString());
+                payload.setLength(header);
+            }
+            if (payload.length() > header) {
+                payload.append(',');
+            }
+            payload.append(entry);
+        }
+        if (payload.length() > header) {
+            payloads.add(payload.toString());
+        }
+
+        try {
+            for (String message : payloads) {
+                jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, CHANNEL, message);
+                notifications.increment();
+            }
+            sent.increment(taken.size());
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.warn("Could not send {} availability updates to other nodes: {}", taken.size(), e.getMessage());
+            pending.addAll(taken);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listener = new Thread(this::listen, "availability-bus-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        flush();
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                listening = true;
+                logger.info("Listening for availability updates from other nodes as {}", nodeId);
+                try {
+                    while (running) {
+                        PGNotification[] batch = pgConnection.getNotifications(pollMs);
+                        if (batch != null) {
+                            for (PGNotification notification : batch) {
+                                receive(notification.getParameter());
+                            }
+                        }
+                    }
+                } finally {
+                    listening = false;
+                    // The connection goes back to the pool
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("UNLISTEN *");
+                    }
+                }
+            } catch (SQLException e) {
+                listening = false;
+                if (!running) {
+                    return;
+                }
+                logger.warn("Availability bus listener failed, reconnecting in {} ms: {}", reconnectDelayMs, e.getMessage());
+                try {
+                    Thread.sleep(reconnectDelayMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void deliver(Long lotId, long availableSpaces) {
+        availabilityStream.publish(lotId, availableSpaces);
+        availabilitySnapshotService.update(lotId, availableSpaces);
+    }
+
+    void receive(String payload) {
+        int separator = payload.indexOf('|');
+        // Our own updates were published locally already
+        if (separator < 0 || separator == nodeId.length() && payload.startsWith(nodeId)) {
+            return;
+        }
+        int start = separator + 1;
+        while (start < payload.length()) {
+            int end = payload.indexOf(',', start);
+            if (end < 0) {
+                end = payload.length();
+            }
+            int colon = payload.indexOf(':', start);
+            int versionColon = payload.indexOf(':', colon + 1);
+            try {
+                long lotId = Long.parseLong(payload, start, colon, 10);
+                long free = Long.parseLong(payload, colon + 1, versionColon, 10);
+                long version = Long.parseLong(payload, versionColon + 1, end, 10);
+                received.increment();
+                // Reordered or late: this node already holds a newer count
+                if (availabilityCounterService.observe(lotId, free, version)) {
+                    deliver(lotId, free);
+                } else {
+                    outdated.increment();
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Ignoring malformed availability update '{}'", payload.substring(start, end));
+            }
+            start = end + 1;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.tirana.smartparking.parking.availability.websocket;
+
+import com.tirana.smartparking.parking.availability.AvailabilityStream;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityUpdateDTO;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary availability frames sent over the WebSocket channel (big-endian):
+ * <pre>
+ *   u8  version (1)
+ *   u16 record count
+ *   per record: i64 lot id, i32 free spaces, i64 sequence
+ * </pre>
+ * Live updates and snapshots use the same record, so a client only has to keep the highest
+ * sequence (event id) per lot and ignore anything older.
+ */
+public final class AvailabilityFrameCodec {
+
+    public static final byte VERSION = 1;
+    public static final int HEADER_LENGTH = 3;
+    public static final int RECORD_LENGTH = 20;
+    static final int MAX_RECORDS = 4096;
+
+    private AvailabilityFrameCodec() {
+    }
+
+    /**
+     * Packs the updates of all frames into as few messages as possible.
+     */
+    public static List<ByteBuffer> encode(List<AvailabilityStream.Frame> frames) {
+        List<AvailabilityUpdateDTO> updates = new ArrayList<>();
+        for (AvailabilityStream.Frame frame : frames) {
+            updates.addAll(frame.updates());
+        }
+        List<ByteBuffer> messages = new ArrayList<>(1 + updates.size() / MAX_RECORDS);
+        for (int from = 0; from < updates.size(); from += MAX_RECORDS) {
+            int to = Math.min(updates.size(), from + MAX_RECORDS);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + (to - from) * RECORD_LENGTH);
+            buffer.put(VERSION);
+            buffer.putShort((short) (to - from));
+            for (AvailabilityUpdateDTO update : updates.subList(from, to)) {
+                buffer.putLong(update.lotId());
+                buffer.putInt((int) Math.min(Integer.MAX_VALUE, update.availableSpaces()));
+                buffer.putLong(update.sequence());
+            }
+            messages.add(buffer.flip());
+        }
+        return messages;
+    }
+
+    public static List<AvailabilityUpdateDTO> decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH || buffer.get() != VERSION) {
+            throw new IllegalArgumentException("Not an availability frame");
+        }
+        int count = Short.toUnsignedInt(buffer.getShort());
+        if (buffer.remaining() != count * RECORD_LENGTH) {
+            throw new IllegalArgumentException("Availability frame length does not match its record count");
+        }
+        List<AvailabilityUpdateDTO> updates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            updates.add(new AvailabilityUpdateDTO(buffer.getLong(), buffer.getInt(), buffer.getLong()));
+        }
+        return updates;
+    }
+}
@@ -0,0 +1,18 @@
+package com.tirana.smartparking.parking.availability.websocket;
+
+import java.util.List;
+
+/**
+ * Text message a WebSocket client sends to change what it follows. {@code action} is
+ * {@code subscribe} or {@code unsubscribe} with {@code lotIds}, or {@code viewport} with either
+ * {@code lotIds} or a bounding box, which replaces everything followed so far.
+ */
+public record AvailabilitySocketCommandDTO(
+        String action,
+        List<Long> lotIds,
+        Double minLat,
+        Double minLng,
+        Double maxLat,
+        Double maxLng
+) {
+}
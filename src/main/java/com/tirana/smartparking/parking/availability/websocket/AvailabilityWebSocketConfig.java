@@ -0,0 +1,27 @@
+package com.tirana.smartparking.parking.availability.websocket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class AvailabilityWebSocketConfig implements WebSocketConfigurer {
+
+    private final AvailabilityWebSocketHandler availabilityWebSocketHandler;
+    private final String[] allowedOrigins;
+
+    public AvailabilityWebSocketConfig(AvailabilityWebSocketHandler availabilityWebSocketHandler,
+                                       @Value("${availability.websocket.allowedOrigins:*}") String[] allowedOrigins) {
+        this.availabilityWebSocketHandler = availabilityWebSocketHandler;
+        this.allowedOrigins = allowedOrigins;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(availabilityWebSocketHandler, "/ws/v1/availability")
+                .setAllowedOriginPatterns(allowedOrigins);
+    }
+}
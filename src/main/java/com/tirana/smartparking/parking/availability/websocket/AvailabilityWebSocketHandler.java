@@ -0,0 +1,193 @@
+package com.tirana.smartparking.parking.availability.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tirana.smartparking.common.exception.TooManyRequestsException;
+import com.tirana.smartparking.parking.availability.AvailabilityStream;
+import com.tirana.smartparking.parking.availability.dto.AvailabilityViewportDTO;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySubscriptionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WebSocket transport for availability. Clients send JSON commands
+ * ({@link AvailabilitySocketCommandDTO}) as text and receive binary frames
+ * ({@link AvailabilityFrameCodec}) for every lot they follow, through the same
+ * {@link AvailabilityStream} publish path as the SSE endpoints. One socket can follow many lots.
+ */
+@Component
+public class AvailabilityWebSocketHandler extends TextWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvailabilityWebSocketHandler.class);
+
+    private final AvailabilityStream availabilityStream;
+    private final AvailabilitySubscriptionService subscriptionService;
+    private final AvailabilityCounterService availabilityCounterService;
+    private final ObjectMapper objectMapper;
+    private final int maxLots;
+    private final int sendTimeLimitMs;
+    private final int bufferSizeLimit;
+
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    public AvailabilityWebSocketHandler(AvailabilityStream availabilityStream,
+                                        AvailabilitySubscriptionService subscriptionService,
+                                        AvailabilityCounterService availabilityCounterService,
+                                        ObjectMapper objectMapper,
+                                        @Value("${availability.stream.maxLotsPerSubscription:500}") int maxLots,
+                                        @Value("${availability.websocket.sendTimeLimitMs:5000}") int sendTimeLimitMs,
+                                        @Value("${availability.websocket.bufferSizeLimit:65536}") int bufferSizeLimit) {
+        this.availabilityStream = availabilityStream;
+        this.subscriptionService = subscriptionService;
+        this.availabilityCounterService = availabilityCounterService;
+        this.objectMapper = objectMapper;
+        this.maxLots = maxLots;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.bufferSizeLimit = bufferSizeLimit;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        // Dispatcher threads and command replies may write at the same time
+        WebSocketSession concurrent = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, bufferSizeLimit);
+        AvailabilityStream.Channel channel;
+        try {
+            channel = availabilityStream.open(client(session), new SocketSink(concurrent));
+        } catch (TooManyRequestsException e) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Too many availability connections"));
+            return;
+        }
+        connections.put(session.getId(), new Connection(concurrent, channel));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        try {
+            AvailabilitySocketCommandDTO command = objectMapper.readValue(message.getPayload(), AvailabilitySocketCommandDTO.class);
+            Set<Long> followed = apply(connection.channel(), command);
+            reply(connection, Map.of("action", command.action(), "lotIds", followed));
+        } catch (IOException | IllegalArgumentException e) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", e instanceof IOException ? "Malformed command" : e.getMessage());
+            reply(connection, error);
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = connections.remove(session.getId());
+        if (connection != null) {
+            connection.channel().close();
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        logger.debug("Availability socket {} failed: {}", session.getId(), exception.getMessage());
+    }
+
+    private Set<Long> apply(AvailabilityStream.Channel channel, AvailabilitySocketCommandDTO command) {
+        if (command.action() == null) {
+            throw new IllegalArgumentException("action is required");
+        }
+        Set<Long> lots = new HashSet<>(channel.lots());
+        switch (command.action()) {
+            case "subscribe" -> lots.addAll(subscriptionService.resolveLots(lotsOnly(command)));
+            case "unsubscribe" -> {
+                if (command.lotIds() == null) {
+                    throw new IllegalArgumentException("lotIds is required");
+                }
+                command.lotIds().forEach(lots::remove);
+            }
+            case "viewport" -> lots = subscriptionService.resolveLots(new AvailabilityViewportDTO(
+                    command.lotIds(), command.minLat(), command.minLng(), command.maxLat(), command.maxLng()));
+            default -> throw new IllegalArgumentException("Unknown action: " + command.action());
+        }
+        if (lots.size() > maxLots) {
+            throw new IllegalArgumentException("At most " + maxLots + " lots can be followed by one socket");
+        }
+        Set<Long> added = channel.changeLots(lots);
+        if (added == null) {
+            throw new IllegalArgumentException("Socket is closed");
+        }
+        channel.snapshot(added, availabilityCounterService::getAvailableSpaces);
+        return lots;
+    }
+
+    private static String client(WebSocketSession session) {
+        if (session.getPrincipal() != null) {
+            return "user:" + session.getPrincipal().getName();
+        }
+        return session.getRemoteAddress() != null ? "addr:" + session.getRemoteAddress().getAddress().getHostAddress() : null;
+    }
+
+    private static AvailabilityViewportDTO lotsOnly(AvailabilitySocketCommandDTO command) {
+        if (command.lotIds() == null || command.lotIds().isEmpty()) {
+            throw new IllegalArgumentException("lotIds is required");
+        }
+        return new AvailabilityViewportDTO(command.lotIds(), null, null, null, null);
+    }
+
+    private void reply(Connection connection, Object body) throws IOException {
+        connection.session().sendMessage(new TextMessage(objectMapper.writeValueAsString(body)));
+    }
+
+    private record Connection(WebSocketSession session, AvailabilityStream.Channel channel) {
+    }
+
+    private static final class SocketSink implements AvailabilityStream.Sink {
+        private final WebSocketSession session;
+
+        SocketSink(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void send(List<AvailabilityStream.Frame> frames) throws IOException {
+            for (ByteBuffer message : AvailabilityFrameCodec.encode(frames)) {
+                session.sendMessage(new BinaryMessage(message));
+            }
+        }
+
+        @Override
+        public void heartbeat() throws IOException {
+            session.sendMessage(new PingMessage());
+        }
+
+        @Override
+        public void close(AvailabilityStream.CloseReason reason, Throwable error) {
+            CloseStatus status = switch (reason) {
+                case NORMAL, EXPIRED, IDLE -> CloseStatus.GOING_AWAY;
+                case SLOW -> CloseStatus.SESSION_NOT_RELIABLE;
+                case FAILED -> CloseStatus.SERVER_ERROR;
+            };
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                // Connection is gone already
+            }
+        }
+    }
+}
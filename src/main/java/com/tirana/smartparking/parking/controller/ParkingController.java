@@ -4,6 +4,8 @@ import com.tirana.smartparking.common.dto.ApiResponse;
 import com.tirana.smartparking.common.dto.PaginatedResponse;
 import com.tirana.smartparking.common.response.ResponseHelper;
 import com.tirana.smartparking.common.util.PaginationUtil;
+import com.tirana.smartparking.parking.availability.dto.AvailabilitySnapshotDTO;
+import com.tirana.smartparking.parking.availability.service.AvailabilitySnapshotService;
 import com.tirana.smartparking.parking.dto.*;
 import com.tirana.smartparking.parking.entity.ParkingSpace;
 import com.tirana.smartparking.parking.service.ParkingLotService;
@@ -16,10 +18,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -30,10 +35,13 @@ public class ParkingController {
 
     private final ParkingLotService parkingLotService;
     private final ParkingSpaceService parkingSpaceService;
+    private final AvailabilitySnapshotService availabilitySnapshotService;
 
-    public ParkingController(ParkingLotService parkingLotService, ParkingSpaceService parkingSpaceService) {
+    public ParkingController(ParkingLotService parkingLotService, ParkingSpaceService parkingSpaceService,
+                             AvailabilitySnapshotService availabilitySnapshotService) {
         this.parkingLotService = parkingLotService;
         this.parkingSpaceService = parkingSpaceService;
+        this.availabilitySnapshotService = availabilitySnapshotService;
     }
 
     // ==================== PARKING LOTS ====================
@@ -233,6 +241,27 @@ public class ParkingController {
         return ResponseHelper.ok("Availability information retrieved successfully", availabilityInfo);
     }
 
+    /**
+     * Free spaces of every active lot in one compact response, served from memory. The ETag is
+     * the node's epoch and the snapshot version, so a poll with a matching {@code If-None-Match}
+     * gets 304 and a poll answered by another node or run gets the full snapshot.
+     */
+    @PreAuthorize("hasAuthority('PARKING_READ')")
+    @GetMapping("/availability/snapshot")
+    public ResponseEntity<ApiResponse<AvailabilitySnapshotDTO>> getAvailabilitySnapshot(WebRequest request) {
+        String etag = snapshotETag(availabilitySnapshotService.getVersion());
+        if (request.checkNotModified(etag)) {
+            // 304 and the ETag are already on the response
+            return null;
+        }
+        AvailabilitySnapshotDTO snapshot = availabilitySnapshotService.getSnapshot();
+        return ResponseEntity.ok()
+                .eTag(snapshotETag(snapshot.version()))
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ApiResponse<>(true, "Availability snapshot retrieved successfully", snapshot));
+    }
+
     @PreAuthorize("hasAuthority('PARKING_READ')")
     @GetMapping("/availability/lot/{lotId}/by-type/{spaceType}")
     public ResponseEntity<ApiResponse<Integer>> getAvailableSpacesCountByType(
@@ -285,5 +314,8 @@ public class ParkingController {
         List<ParkingSpaceImageDTO> images = parkingLotService.getParkingLotImages(lotId);
         return ResponseHelper.ok("Parking lot images retrieved successfully", images);
     }
-}
 
+    private String snapshotETag(long version) {
+        return "\"" + availabilitySnapshotService.getEpoch() + "-" + version + "\"";
+    }
+}
@@ -3,6 +3,7 @@ package com.tirana.smartparking.parking.controller;
 import com.tirana.smartparking.common.dto.ApiResponse;
 import com.tirana.smartparking.common.dto.Money;
 import com.tirana.smartparking.common.response.ResponseHelper;
+import com.tirana.smartparking.parking.dto.PricingBatchQuoteResultDTO;
 import com.tirana.smartparking.parking.dto.PricingQuoteDTO;
 import com.tirana.smartparking.parking.entity.Enum.UserGroup;
 import com.tirana.smartparking.parking.entity.Enum.VehicleType;
@@ -13,6 +14,7 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/v1/pricing")
@@ -31,6 +33,13 @@ public class PricingController {
         return ResponseHelper.ok("Pricing quote calculated successfully", quote);
     }
     
+    @PreAuthorize("hasAuthority('PRICING_QUOTE')")
+    @PostMapping("/quote/batch")
+    public ResponseEntity<ApiResponse<PricingBatchQuoteResultDTO>> getPricingQuotes(@RequestBody List<PricingQuoteDTO> quoteDTOs) {
+        PricingBatchQuoteResultDTO result = rateManagementService.getPricingQuotes(quoteDTOs);
+        return ResponseHelper.ok("Pricing quote batch calculated successfully", result);
+    }
+    
     @PreAuthorize("hasAuthority('PRICING_QUOTE')")
     @GetMapping("/spaces/{spaceId}/quote")
     public ResponseEntity<ApiResponse<Money>> getStandaloneSpaceQuote(
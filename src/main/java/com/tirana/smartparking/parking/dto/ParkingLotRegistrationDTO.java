@@ -20,7 +20,7 @@ public record ParkingLotRegistrationDTO(
         boolean hasCctv,
 
         int capacity,
-        int availableSpaces,
+        Integer availableSpaces,
 
         @DecimalMin("-180.0") @DecimalMax("180.0")
         Double longitude,
@@ -0,0 +1,11 @@
+package com.tirana.smartparking.parking.dto;
+
+import java.util.List;
+
+public record PricingBatchQuoteResultDTO(
+        int received,
+        int quoted,
+        int rejected,
+        List<PricingQuoteResultDTO> results
+) {
+}
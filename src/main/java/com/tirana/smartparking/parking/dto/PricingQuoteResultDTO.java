@@ -0,0 +1,12 @@
+package com.tirana.smartparking.parking.dto;
+
+import com.tirana.smartparking.common.dto.Money;
+
+public record PricingQuoteResultDTO(
+        int index,
+        Long parkingLotId,
+        Long parkingSpaceId,
+        Money quote,
+        String message
+) {
+}
@@ -60,8 +60,14 @@ public class ParkingLot {
     private Boolean covered;
 
     private Integer capacity;
+    // Written by AvailabilityCounterService in SQL; saving the entity must not overwrite them
+    @Column(updatable = false)
     private Integer availableSpaces;
+    @Column(updatable = false)
     private Instant availabilityUpdatedAt;
+    // Bumped by every shared availability write so nodes can drop outdated counts; SQL only
+    @Column(insertable = false, updatable = false)
+    private Long availabilityVersion;
 
     @Column(nullable = false, columnDefinition = "geography(Point, 4326)")
     private Point location;
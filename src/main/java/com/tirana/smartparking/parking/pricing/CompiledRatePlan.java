@@ -0,0 +1,27 @@
+package com.tirana.smartparking.parking.pricing;
+
+import com.tirana.smartparking.parking.entity.Enum.RateType;
+import com.tirana.smartparking.parking.entity.RateRule;
+
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Immutable snapshot of a rate plan and its rules, as a quote needs them. The rules are detached
+ * copies in the order the database returned them, which is the order they are matched in, and
+ * {@code kernel} holds them precomputed for pricing. {@code version} is the cache generation the
+ * snapshot was loaded in.
+ */
+public record CompiledRatePlan(
+        Long id,
+        RateType type,
+        String currency,
+        ZoneId zone,
+        Integer graceMinutes,
+        int incrementMinutes,
+        Integer dailyCap,
+        List<RateRule> rules,
+        PricingKernel kernel,
+        long version
+) {
+}
@@ -0,0 +1,393 @@
+package com.tirana.smartparking.parking.pricing;
+
+import com.tirana.smartparking.parking.entity.Enum.RateType;
+import com.tirana.smartparking.parking.entity.Enum.UserGroup;
+import com.tirana.smartparking.parking.entity.Enum.VehicleType;
+import com.tirana.smartparking.parking.entity.RateRule;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Slices a visit by local day and by the plan's rule boundaries and prices every slice, with the
+ * same results as {@link com.tirana.smartparking.common.util.VisitSlicer},
+ * {@link com.tirana.smartparking.common.util.VisitSlice#matchedRule} and the per-slice pricing
+ * in {@code PricingServiceImpl}, but without building date-times, slices or streams.
+ * <p>
+ * Everything that only depends on the plan is worked out once, when the plan is compiled:
+ * <ul>
+ *   <li>the rule boundaries as sorted nano-of-day values;</li>
+ *   <li>for every weekday and every interval between two boundaries, a bit set of the rules
+ *       whose day-of-week and time-of-day conditions hold there (they cannot change inside an
+ *       interval, since the rule times are the boundaries);</li>
+ *   <li>for every vehicle type and user group, a bit set of the rules that accept them.</li>
+ * </ul>
+ * A slice is then matched by and-ing two bit sets and checking the session-minute window of the
+ * set bits in rule order. Times are epoch seconds plus nanos rather than whole minutes, because
+ * visits and rule times are not minute aligned and slice lengths must truncate exactly like
+ * {@link Duration#toMinutes()}.
+ * <p>
+ * Local days whose offset is constant well beyond both midnights are handled with plain
+ * arithmetic on the cached {@link ZoneRules}. Days within two days of an offset transition go
+ * through {@code java.time} exactly like the slicer does, so DST gaps and overlaps keep their
+ * current behaviour.
+ */
+public final class PricingKernel {
+
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // Largest gap between two offsets of one zone is under 36 hours
+    private static final long TRANSITION_MARGIN = 2 * SECONDS_PER_DAY;
+
+    private static final int VEHICLE_TYPES = VehicleType.values().length + 1;
+    private static final int USER_GROUPS = UserGroup.values().length + 1;
+
+    /**
+     * Receives every slice that matched a rule, in visit order. Slices without a rule are not
+     * reported, as they do not appear in the breakdown.
+     */
+    @FunctionalInterface
+    public interface SliceConsumer {
+        void accept(long epochDay, int startSecondOfDay, int endSecondOfDay, int amount);
+    }
+
+    private final RateType type;
+    private final int increment;
+    private final ZoneId zone;
+    private final ZoneRules zoneRules;
+
+    private final int ruleCount;
+    private final int words;
+    private final boolean[] hasWindow;
+    private final long[] windowStart;
+    private final long[] windowEnd;
+    private final Integer[] priceFlat;
+    private final Integer[] pricePerHour;
+
+    // TIERED: rules with a full minute window and a price, in rule order
+    private final long[] tierStart;
+    private final long[] tierEnd;
+    private final Integer[] tierFlat;
+    private final Integer[] tierPerHour;
+
+    private final long[] boundaries;
+    // [weekday][interval][word]
+    private final long[] dayMasks;
+    // [vehicle type][user group][word], null type or group last
+    private final long[] groupMasks;
+
+    private PricingKernel(RateType type, int increment, ZoneId zone, List<RateRule> rules) {
+        this.type = type;
+        this.increment = increment;
+        this.zone = zone;
+        this.zoneRules = zone.getRules();
+
+        ruleCount = rules.size();
+        words = Math.max(1, (ruleCount + 63) >>> 6);
+        hasWindow = new boolean[ruleCount];
+        windowStart = new long[ruleCount];
+        windowEnd = new long[ruleCount];
+        priceFlat = new Integer[ruleCount];
+        pricePerHour = new Integer[ruleCount];
+
+        TreeSet<LocalTime> times = new TreeSet<>();
+        int tiers = 0;
+        for (int i = 0; i < ruleCount; i++) {
+            RateRule rule = rules.get(i);
+            hasWindow[i] = rule.getStartMinute() != null;
+            windowStart[i] = hasWindow[i] ? rule.getStartMinute() : 0;
+            windowEnd[i] = rule.getEndMinute() != null ? rule.getEndMinute() : Long.MAX_VALUE;
+            priceFlat[i] = rule.getPriceFlat();
+            pricePerHour[i] = rule.getPricePerHour();
+            if (rule.getStartTime() != null) {
+                times.add(rule.getStartTime());
+            }
+            if (rule.getEndTime() != null) {
+                times.add(rule.getEndTime());
+            }
+            if (isTier(rule)) {
+                tiers++;
+            }
+        }
+
+        tierStart = new long[tiers];
+        tierEnd = new long[tiers];
+        tierFlat = new Integer[tiers];
+        tierPerHour = new Integer[tiers];
+        int t = 0;
+        for (RateRule rule : rules) {
+            if (isTier(rule)) {
+                tierStart[t] = rule.getStartMinute();
+                tierEnd[t] = rule.getEndMinute();
+                tierFlat[t] = rule.getPriceFlat();
+                tierPerHour[t] = rule.getPricePerHour();
+                t++;
+            }
+        }
+
+        boundaries = times.stream().mapToLong(LocalTime::toNanoOfDay).toArray();
+        int intervals = boundaries.length + 1;
+        dayMasks = new long[7 * intervals * words];
+        for (int day = 0; day < 7; day++) {
+            for (int k = 0; k < intervals; k++) {
+                LocalTime from = k == 0 ? LocalTime.MIDNIGHT : LocalTime.ofNanoOfDay(boundaries[k - 1]);
+                for (int i = 0; i < ruleCount; i++) {
+                    RateRule rule = rules.get(i);
+                    boolean dayMatches = rule.getDayOfWeek() == null || rule.getDayOfWeek().ordinal() == day;
+                    if (dayMatches && matchesTimeOfDay(rule, from)) {
+                        dayMasks[(day * intervals + k) * words + (i >>> 6)] |= 1L << i;
+                    }
+                }
+            }
+        }
+
+        groupMasks = new long[VEHICLE_TYPES * USER_GROUPS * words];
+        for (int v = 0; v < VEHICLE_TYPES; v++) {
+            VehicleType vehicleType = v < VEHICLE_TYPES - 1 ? VehicleType.values()[v] : null;
+            for (int g = 0; g < USER_GROUPS; g++) {
+                UserGroup userGroup = g < USER_GROUPS - 1 ? UserGroup.values()[g] : null;
+                for (int i = 0; i < ruleCount; i++) {
+                    RateRule rule = rules.get(i);
+                    boolean vehicleMatches = rule.getVehicleType() == null || rule.getVehicleType() == vehicleType;
+                    boolean groupMatches = rule.getUserGroup() == null || rule.getUserGroup() == userGroup;
+                    if (vehicleMatches && groupMatches) {
+                        groupMasks[(v * USER_GROUPS + g) * words + (i >>> 6)] |= 1L << i;
+                    }
+                }
+            }
+        }
+    }
+
+    public static PricingKernel compile(RateType type, int incrementMinutes, ZoneId zone, List<RateRule> rules) {
+        return new PricingKernel(type, incrementMinutes, zone, rules);
+    }
+
+    /**
+     * Prices a visit. {@code start} and {@code end} must already be in the plan's zone.
+     */
+    public void quote(VehicleType vehicleType, UserGroup userGroup,
+                      ZonedDateTime start, ZonedDateTime end, SliceConsumer out) {
+        int group = (vehicleType != null ? vehicleType.ordinal() : VEHICLE_TYPES - 1) * USER_GROUPS
+                + (userGroup != null ? userGroup.ordinal() : USER_GROUPS - 1);
+        long startSec = start.toEpochSecond();
+        int startNano = start.getNano();
+        long endSec = end.toEpochSecond();
+        int endNano = end.getNano();
+        long firstDay = start.toLocalDate().toEpochDay();
+        long lastDay = end.toLocalDate().toEpochDay();
+
+        // Offset in force between prevTransition (inclusive) and nextTransition (exclusive)
+        int offset = start.getOffset().getTotalSeconds();
+        long prevTransition = Long.MIN_VALUE;
+        long nextTransition = Long.MAX_VALUE;
+        boolean cursorValid = zoneRules.isFixedOffset();
+
+        long relativeMinutes = 0;
+        for (long day = firstDay; day <= lastDay; day++) {
+            long localMidnight = day * SECONDS_PER_DAY;
+            long probe = localMidnight - offset;
+            if (!cursorValid || probe < prevTransition || probe >= nextTransition) {
+                Instant at = Instant.ofEpochSecond(probe);
+                offset = zoneRules.getOffset(at).getTotalSeconds();
+                ZoneOffsetTransition next = zoneRules.nextTransition(at);
+                ZoneOffsetTransition previous = zoneRules.previousTransition(at.plusSeconds(1));
+                nextTransition = next != null ? next.toEpochSecond() : Long.MAX_VALUE;
+                prevTransition = previous != null ? previous.toEpochSecond() : Long.MIN_VALUE;
+                cursorValid = true;
+            }
+
+            long dayStart = localMidnight - offset;
+            long dayEnd = dayStart + SECONDS_PER_DAY;
+            if (dayStart - TRANSITION_MARGIN < prevTransition || dayEnd + TRANSITION_MARGIN >= nextTransition) {
+                relativeMinutes = sliceTransitionDay(day, group, start, end, relativeMinutes, out);
+                continue;
+            }
+
+            // Clamp to the visit; seconds and nanos are compared as pairs
+            long fromSec = dayStart;
+            int fromNano = 0;
+            if (startSec > dayStart || (startSec == dayStart && startNano > 0)) {
+                fromSec = startSec;
+                fromNano = startNano;
+            }
+            long toSec = dayEnd;
+            int toNano = 0;
+            if (endSec < dayEnd) {
+                toSec = endSec;
+                toNano = endNano;
+            }
+            if (!isBefore(fromSec, fromNano, toSec, toNano)) {
+                continue;
+            }
+
+            long fromNanoOfDay = (fromSec - dayStart) * NANOS_PER_SECOND + fromNano;
+            int b = intervalOf(fromNanoOfDay);
+            while (true) {
+                long pointSec;
+                int pointNano;
+                if (b < boundaries.length) {
+                    pointSec = dayStart + boundaries[b] / NANOS_PER_SECOND;
+                    pointNano = (int) (boundaries[b] % NANOS_PER_SECOND);
+                    if (!isBefore(pointSec, pointNano, toSec, toNano)) {
+                        pointSec = toSec;
+                        pointNano = toNano;
+                        b = boundaries.length;
+                    }
+                } else {
+                    pointSec = toSec;
+                    pointNano = toNano;
+                }
+
+                long minutes = minutesBetween(fromSec, fromNano, pointSec, pointNano);
+                int endSecondOfDay = (int) ((pointSec - dayStart) % SECONDS_PER_DAY);
+                emit(day, fromNanoOfDay, endSecondOfDay, minutes, relativeMinutes, group, out);
+                relativeMinutes += minutes;
+
+                if (b >= boundaries.length) {
+                    break;
+                }
+                fromSec = pointSec;
+                fromNano = pointNano;
+                fromNanoOfDay = boundaries[b];
+                b++;
+            }
+        }
+    }
+
+    /**
+     * A day near an offset transition, sliced with {@code java.time} the way the slicer does it.
+     */
+    private long sliceTransitionDay(long epochDay, int group, ZonedDateTime start, ZonedDateTime end,
+                                    long relativeMinutes, SliceConsumer out) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        ZonedDateTime dayStart = date.atStartOfDay(zone);
+        ZonedDateTime dayEnd = date.plusDays(1).atStartOfDay(zone);
+        ZonedDateTime from = start.isAfter(dayStart) ? start : dayStart;
+        ZonedDateTime to = end.isBefore(dayEnd) ? end : dayEnd;
+        if (!from.isBefore(to)) {
+            return relativeMinutes;
+        }
+
+        ZonedDateTime previous = from;
+        for (long boundary : boundaries) {
+            ZonedDateTime point = date.atTime(LocalTime.ofNanoOfDay(boundary)).atZone(zone);
+            if (point.isAfter(from) && point.isBefore(to)) {
+                relativeMinutes = emit(previous, point, relativeMinutes, group, out);
+                previous = point;
+            }
+        }
+        return emit(previous, to, relativeMinutes, group, out);
+    }
+
+    private long emit(ZonedDateTime from, ZonedDateTime to, long relativeMinutes, int group, SliceConsumer out) {
+        if (!from.isBefore(to)) {
+            return relativeMinutes;
+        }
+        long minutes = Duration.between(from, to).toMinutes();
+        emit(from.toLocalDate().toEpochDay(), from.toLocalTime().toNanoOfDay(), to.toLocalTime().toSecondOfDay(),
+                minutes, relativeMinutes, group, out);
+        return relativeMinutes + minutes;
+    }
+
+    private void emit(long epochDay, long startNanoOfDay, int endSecondOfDay, long minutes, long relativeMinutes,
+                      int group, SliceConsumer out) {
+        int rule = matchRule(Math.floorMod(epochDay + 3, 7), intervalOf(startNanoOfDay), group, relativeMinutes);
+        if (rule < 0) {
+            return;
+        }
+        int billedMinutes = roundUp(minutes, increment);
+        int amount = switch (type) {
+            case FLAT_PER_ENTRY -> priceFlat[rule] != null ? priceFlat[rule] : 0;
+            case PER_HOUR, TIME_OF_DAY, DAY_OF_WEEK -> perHour(billedMinutes, pricePerHour[rule]);
+            case TIERED -> tier(relativeMinutes, billedMinutes);
+            case FREE -> 0;
+            case DYNAMIC -> 0; // hook for occupancy-based pricing, not implemented yet
+        };
+        out.accept(epochDay, (int) (startNanoOfDay / NANOS_PER_SECOND), endSecondOfDay, amount);
+    }
+
+    /**
+     * First rule in plan order that applies on this weekday and interval, to this vehicle type
+     * and user group, and at this minute of the session; -1 if none does.
+     */
+    private int matchRule(int dayOfWeek, int interval, int group, long relativeMinutes) {
+        int dayBase = (dayOfWeek * (boundaries.length + 1) + interval) * words;
+        int groupBase = group * words;
+        for (int w = 0; w < words; w++) {
+            long candidates = dayMasks[dayBase + w] & groupMasks[groupBase + w];
+            while (candidates != 0) {
+                int rule = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                if (!hasWindow[rule] || (relativeMinutes >= windowStart[rule] && relativeMinutes < windowEnd[rule])) {
+                    return rule;
+                }
+                candidates &= candidates - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int tier(long relativeMinutes, int billedMinutes) {
+        for (int t = 0; t < tierStart.length; t++) {
+            if (relativeMinutes >= tierStart[t] && relativeMinutes < tierEnd[t]) {
+                return tierFlat[t] != null ? tierFlat[t] : perHour(billedMinutes, tierPerHour[t]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Number of boundaries at or before {@code nanoOfDay}, i.e. the interval it falls in.
+     */
+    private int intervalOf(long nanoOfDay) {
+        int index = Arrays.binarySearch(boundaries, nanoOfDay);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private static boolean isTier(RateRule rule) {
+        return rule.getStartMinute() != null && rule.getEndMinute() != null
+                && (rule.getPriceFlat() != null || rule.getPricePerHour() != null);
+    }
+
+    private static boolean matchesTimeOfDay(RateRule rule, LocalTime time) {
+        if (rule.getStartTime() == null || rule.getEndTime() == null) {
+            return true;
+        }
+        if (rule.getStartTime().isBefore(rule.getEndTime())) {
+            return !time.isBefore(rule.getStartTime()) && time.isBefore(rule.getEndTime());
+        }
+        // Overnight time range (e.g., 22:00-06:00)
+        return !time.isBefore(rule.getStartTime()) || time.isBefore(rule.getEndTime());
+    }
+
+    private static boolean isBefore(long sec, int nano, long otherSec, int otherNano) {
+        return sec < otherSec || (sec == otherSec && nano < otherNano);
+    }
+
+    // Same truncation as Duration.between(from, to).toMinutes()
+    private static long minutesBetween(long fromSec, int fromNano, long toSec, int toNano) {
+        long seconds = toSec - fromSec;
+        if (toNano < fromNano) {
+            seconds--;
+        }
+        return seconds / 60;
+    }
+
+    private static int roundUp(long minutes, int increment) {
+        if (increment <= 0) return (int) minutes;
+        return (int) ((minutes + increment - 1) / increment) * increment;
+    }
+
+    private static int perHour(int minutes, Integer pricePerHour) {
+        if (pricePerHour == null) return 0;
+        return (int) Math.ceil((double) minutes / 60.0) * pricePerHour;
+    }
+}
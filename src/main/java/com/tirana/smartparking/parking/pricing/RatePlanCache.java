@@ -0,0 +1,287 @@
+package com.tirana.smartparking.parking.pricing;
+
+import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.parking.entity.RatePlan;
+import com.tirana.smartparking.parking.entity.RateRule;
+import com.tirana.smartparking.parking.entity.SpaceRateOverride;
+import com.tirana.smartparking.parking.repository.LotRateAssignmentRepository;
+import com.tirana.smartparking.parking.repository.RatePlanRepository;
+import com.tirana.smartparking.parking.repository.RateRuleRepository;
+import com.tirana.smartparking.parking.repository.SpaceRateOverrideRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps compiled rate plans and the lot/space -> plan assignments in memory, so that a quote
+ * does not read rate_plans, rate_rules, lot_rate_assignments or space_rate_overrides.
+ * Entries are loaded lazily on first use, including "no assignment" answers, and dropped by
+ * {@link com.tirana.smartparking.parking.service.RateManagementService} when the rows behind
+ * them change.
+ * <p>
+ * Invalidation runs after the writing transaction commits and bumps a generation counter. A
+ * load that raced with a write is returned to its caller but not cached, so a stale plan
+ * cannot outlive the write that replaced it. Writes made on other nodes are picked up by a
+ * periodic check of row counts and last update times, which clears everything when they move.
+ */
+@Component
+public class RatePlanCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RatePlanCache.class);
+
+    private static final String FINGERPRINT_SQL =
+            "SELECT concat_ws('|', " +
+            "(SELECT count(*) || ':' || coalesce(max(updated_at)::text, '') FROM rate_plans), " +
+            "(SELECT count(*) || ':' || coalesce(max(updated_at)::text, '') FROM rate_rules), " +
+            "(SELECT count(*) || ':' || coalesce(max(updated_at)::text, '') FROM lot_rate_assignments), " +
+            "(SELECT count(*) || ':' || coalesce(max(updated_at)::text, '') FROM space_rate_overrides))";
+
+    private final RatePlanRepository ratePlanRepository;
+    private final RateRuleRepository rateRuleRepository;
+    private final LotRateAssignmentRepository lotRateAssignmentRepository;
+    private final SpaceRateOverrideRepository spaceRateOverrideRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Long, CompiledRatePlan> plans = new ConcurrentHashMap<>();
+    // Lot -> plan of its highest-priority assignment, or NONE
+    private final Map<Long, Long> planByLot = new ConcurrentHashMap<>();
+    // Space -> its overrides, highest priority first
+    private final Map<Long, List<SpaceOverride>> overridesBySpace = new ConcurrentHashMap<>();
+
+    private static final Long NONE = -1L;
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile String fingerprint;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public RatePlanCache(RatePlanRepository ratePlanRepository,
+                         RateRuleRepository rateRuleRepository,
+                         LotRateAssignmentRepository lotRateAssignmentRepository,
+                         SpaceRateOverrideRepository spaceRateOverrideRepository,
+                         JdbcTemplate jdbcTemplate,
+                         MeterRegistry meterRegistry) {
+        this.ratePlanRepository = ratePlanRepository;
+        this.rateRuleRepository = rateRuleRepository;
+        this.lotRateAssignmentRepository = lotRateAssignmentRepository;
+        this.spaceRateOverrideRepository = spaceRateOverrideRepository;
+        this.jdbcTemplate = jdbcTemplate;
+
+        Gauge.builder("pricing.plan.cache.size", plans, Map::size)
+                .description("Compiled rate plans held in memory")
+                .register(meterRegistry);
+        FunctionCounter.builder("pricing.plan.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("pricing.plan.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("pricing.plan.cache.invalidations", invalidations, LongAdder::sum)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The plan that prices a visit starting at {@code start}: the space's highest-priority
+     * override in effect at that time, otherwise the lot's highest-priority assignment.
+     */
+    public CompiledRatePlan resolve(Long lotId, Long spaceId, ZonedDateTime start) {
+        if (spaceId != null) {
+            for (SpaceOverride override : overridesForSpace(spaceId)) {
+                if (override.isEffectiveAt(start)) {
+                    return plan(override.ratePlanId());
+                }
+            }
+        }
+
+        if (lotId != null) {
+            Long planId = planForLot(lotId);
+            if (!NONE.equals(planId)) {
+                return plan(planId);
+            }
+        }
+
+        // If we have a space but no lot, and no space-specific rates, throw an error
+        if (spaceId != null && lotId == null) {
+            throw new ResourceNotFoundException("No rate plan found for standalone parking space " + spaceId + ". Please assign a rate plan to this space.");
+        }
+
+        throw new ResourceNotFoundException("No rate plan found for lot " + lotId + " and space " + spaceId);
+    }
+
+    public CompiledRatePlan plan(Long planId) {
+        CompiledRatePlan cached = plans.get(planId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long seen = generation.get();
+        RatePlan plan = ratePlanRepository.findById(planId)
+                .orElseThrow(() -> new ResourceNotFoundException("Rate plan not found with id: " + planId));
+        CompiledRatePlan compiled = compile(plan, rateRuleRepository.findByRatePlanId(planId), seen);
+        cacheIfCurrent(plans, planId, compiled, seen);
+        return compiled;
+    }
+
+    public void invalidatePlan(Long planId) {
+        if (planId != null) {
+            afterCommit(() -> plans.remove(planId));
+        }
+    }
+
+    public void invalidateLot(Long lotId) {
+        if (lotId != null) {
+            afterCommit(() -> planByLot.remove(lotId));
+        }
+    }
+
+    public void invalidateSpace(Long spaceId) {
+        if (spaceId != null) {
+            afterCommit(() -> overridesBySpace.remove(spaceId));
+        }
+    }
+
+    public void invalidateAll() {
+        afterCommit(() -> {
+            plans.clear();
+            planByLot.clear();
+            overridesBySpace.clear();
+        });
+    }
+
+    /**
+     * Clears the cache when rate tables changed without going through this node.
+     */
+    @Scheduled(fixedDelayString = "${pricing.cache.checkMs:30000}")
+    public void checkForRemoteChanges() {
+        String current = jdbcTemplate.queryForObject(FINGERPRINT_SQL, String.class);
+        String previous = fingerprint;
+        fingerprint = current;
+        if (previous != null && !Objects.equals(previous, current)) {
+            logger.debug("Rate tables changed, dropping cached plans");
+            invalidateAll();
+        }
+    }
+
+    private Long planForLot(Long lotId) {
+        Long cached = planByLot.get(lotId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long seen = generation.get();
+        Long planId = lotRateAssignmentRepository.findAssignmentsForLot(lotId).stream()
+                .findFirst()
+                .map(assignment -> assignment.getRatePlan().getId())
+                .orElse(NONE);
+        cacheIfCurrent(planByLot, lotId, planId, seen);
+        return planId;
+    }
+
+    private List<SpaceOverride> overridesForSpace(Long spaceId) {
+        List<SpaceOverride> cached = overridesBySpace.get(spaceId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long seen = generation.get();
+        List<SpaceOverride> overrides = spaceRateOverrideRepository.findOverridesForSpace(spaceId).stream()
+                .map(SpaceOverride::of)
+                .toList();
+        cacheIfCurrent(overridesBySpace, spaceId, overrides, seen);
+        return overrides;
+    }
+
+    private <V> void cacheIfCurrent(Map<Long, V> map, Long key, V value, long seen) {
+        map.putIfAbsent(key, value);
+        // An invalidation that ran while this was loading may have missed it
+        if (generation.get() != seen) {
+            map.remove(key, value);
+        }
+    }
+
+    private void afterCommit(Runnable eviction) {
+        Runnable evict = () -> {
+            generation.incrementAndGet();
+            eviction.run();
+            invalidations.increment();
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int completionStatus) {
+                // Also on rollback: a load inside the transaction may have seen uncommitted rows
+                evict.run();
+            }
+        });
+    }
+
+    static CompiledRatePlan compile(RatePlan plan, List<RateRule> rules, long generation) {
+        List<RateRule> copies = rules.stream()
+                .map(rule -> new RateRule(
+                        rule.getId(),
+                        null,
+                        rule.getStartMinute(),
+                        rule.getEndMinute(),
+                        rule.getStartTime(),
+                        rule.getEndTime(),
+                        rule.getDayOfWeek(),
+                        rule.getVehicleType(),
+                        rule.getUserGroup(),
+                        rule.getPricePerHour(),
+                        rule.getPriceFlat(),
+                        rule.getCreatedAt(),
+                        rule.getUpdatedAt()))
+                .toList();
+        ZoneId zone = ZoneId.of(plan.getTimeZone());
+        int increment = Optional.ofNullable(plan.getIncrementMinutes()).orElse(1);
+        return new CompiledRatePlan(
+                plan.getId(),
+                plan.getType(),
+                plan.getCurrency(),
+                zone,
+                plan.getGraceMinutes(),
+                increment,
+                plan.getDailyCap(),
+                copies,
+                PricingKernel.compile(plan.getType(), increment, zone, copies),
+                generation
+        );
+    }
+
+    private record SpaceOverride(Long ratePlanId, ZonedDateTime effectiveFrom, ZonedDateTime effectiveTo) {
+
+        static SpaceOverride of(SpaceRateOverride override) {
+            return new SpaceOverride(override.getRatePlan().getId(), override.getEffectiveFrom(), override.getEffectiveTo());
+        }
+
+        boolean isEffectiveAt(ZonedDateTime time) {
+            return (effectiveFrom == null || !effectiveFrom.isAfter(time))
+                    && (effectiveTo == null || effectiveTo.isAfter(time));
+        }
+    }
+}
@@ -18,6 +18,10 @@ public interface LotRateAssignmentRepository extends JpaRepository<LotRateAssign
            "ORDER BY lra.priority DESC")
     List<LotRateAssignment> findActiveAssignmentsForLot(@Param("lotId") Long lotId, @Param("date") ZonedDateTime date);
     
+    @Query("SELECT lra FROM LotRateAssignment lra WHERE lra.lot.id = :lotId " +
+           "ORDER BY lra.priority DESC")
+    List<LotRateAssignment> findAssignmentsForLot(@Param("lotId") Long lotId);
+    
     Page<LotRateAssignment> findByLotId(Long lotId, Pageable pageable);
     
     boolean existsByLotIdAndRatePlanId(Long lotId, Long ratePlanId);
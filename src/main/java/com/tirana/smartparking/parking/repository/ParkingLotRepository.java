@@ -6,10 +6,13 @@ import org.locationtech.jts.geom.Point;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -48,4 +51,27 @@ public interface ParkingLotRepository extends JpaRepository<ParkingLot, Long> {
            "(LOWER(pl.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')) OR " +
            "LOWER(pl.address) LIKE LOWER(CONCAT('%', :searchTerm, '%')))")
     Page<ParkingLot> searchParkingLots(@Param("searchTerm") String searchTerm, Pageable pageable);
+
+    // Ids of active lots inside a bounding box, for map viewport subscriptions
+    @Query(value = "SELECT id FROM parking_lots WHERE status = 'ACTIVE' AND " +
+           "location && ST_MakeEnvelope(:minLng, :minLat, :maxLng, :maxLat, 4326)::geography LIMIT :limit",
+           nativeQuery = true)
+    List<Long> findIdsWithinBounds(@Param("minLng") double minLng, @Param("minLat") double minLat,
+                                   @Param("maxLng") double maxLng, @Param("maxLat") double maxLat,
+                                   @Param("limit") int limit);
+
+    @Query("SELECT pl.id FROM ParkingLot pl WHERE pl.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // Capacity, last written availability and its version, used to seed the availability counters
+    @Query("SELECT pl.capacity, pl.availableSpaces, pl.availabilityVersion FROM ParkingLot pl WHERE pl.id = :lotId")
+    List<Object[]> findCapacityAndAvailabilityById(@Param("lotId") Long lotId);
+
+    // Write the counted availability without loading the entity first
+    @Modifying
+    @Query("UPDATE ParkingLot pl SET pl.availableSpaces = :availableSpaces, pl.availabilityUpdatedAt = :updatedAt " +
+           "WHERE pl.id = :lotId")
+    int updateAvailability(@Param("lotId") Long lotId,
+                           @Param("availableSpaces") Integer availableSpaces,
+                           @Param("updatedAt") Instant updatedAt);
 }
@@ -11,6 +11,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ParkingSpaceRepository extends JpaRepository<ParkingSpace, Long> {
@@ -46,5 +47,12 @@ public interface ParkingSpaceRepository extends JpaRepository<ParkingSpace, Long
     // Find parking spaces with sensors
     @Query("SELECT ps FROM ParkingSpace ps WHERE ps.sensorDevice IS NOT NULL")
     Page<ParkingSpace> findSpacesWithSensors(Pageable pageable);
-}
 
+    // Resolve the owning lot of a space without loading the entity
+    @Query("SELECT ps.parkingLot.id FROM ParkingSpace ps WHERE ps.id = :spaceId")
+    Optional<Long> findLotIdBySpaceId(@Param("spaceId") Long spaceId);
+
+    // Id and status of every space in a lot, used to seed the availability counters
+    @Query("SELECT ps.id, ps.spaceStatus FROM ParkingSpace ps WHERE ps.parkingLot.id = :lotId")
+    List<Object[]> findSpaceStatusesByLotId(@Param("lotId") Long lotId);
+}
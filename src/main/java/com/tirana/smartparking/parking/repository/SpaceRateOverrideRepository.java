@@ -20,6 +20,10 @@ public interface SpaceRateOverrideRepository extends JpaRepository<SpaceRateOver
            "ORDER BY sro.priority DESC")
     List<SpaceRateOverride> findActiveOverridesForSpace(@Param("spaceId") Long spaceId, @Param("date") ZonedDateTime date);
     
+    @Query("SELECT sro FROM SpaceRateOverride sro WHERE sro.space.id = :spaceId " +
+           "ORDER BY sro.priority DESC")
+    List<SpaceRateOverride> findOverridesForSpace(@Param("spaceId") Long spaceId);
+    
     Page<SpaceRateOverride> findBySpaceId(Long spaceId, Pageable pageable);
     
     boolean existsBySpaceIdAndRatePlanId(Long spaceId, Long ratePlanId);
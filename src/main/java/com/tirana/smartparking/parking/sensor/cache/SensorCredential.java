@@ -0,0 +1,17 @@
+package com.tirana.smartparking.parking.sensor.cache;
+
+import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
+
+/**
+ * Immutable snapshot of what the ingestion path needs to know about a sensor: who it is,
+ * a digest of its API key and where it is installed. The plain API key is never kept.
+ */
+public record SensorCredential(
+        Long sensorId,
+        String deviceId,
+        byte[] apiKeyDigest,
+        SensorDevice.SensorType sensorType,
+        Long spaceId,
+        Long lotId
+) {
+}
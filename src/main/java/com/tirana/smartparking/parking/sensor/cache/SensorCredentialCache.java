@@ -0,0 +1,269 @@
+package com.tirana.smartparking.parking.sensor.cache;
+
+import com.tirana.smartparking.parking.entity.ParkingSpace;
+import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
+import com.tirana.smartparking.parking.sensor.dto.SensorCacheStatsDTO;
+import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
+import com.tirana.smartparking.parking.sensor.repository.SensorDeviceRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps sensor credentials and the space -> lot topology in memory so that an authenticated
+ * sensor event can be applied without reading sensor_devices or parking_spaces first.
+ * Entries are loaded lazily on first use and dropped by the sensor, space and lot admin
+ * services whenever the underlying rows change.
+ * <p>
+ * As in {@link com.tirana.smartparking.parking.pricing.RatePlanCache}, invalidation runs once the
+ * writing transaction has completed and bumps a generation counter; a load that raced with it is
+ * returned but not cached. Changes made on other nodes are picked up by a periodic hash over the
+ * credential and topology columns, which clears everything when it moves.
+ */
+@Component
+public class SensorCredentialCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorCredentialCache.class);
+
+    // Only the columns a cached entry is built from; last-seen and staleness writes do not count
+    private static final String FINGERPRINT_SQL =
+            "SELECT concat_ws('|', " +
+            "(SELECT count(*) || ':' || coalesce(sum(hashtext(concat_ws(',', id, device_id, api_key, sensor_type, parking_lot_id))), 0) " +
+            "FROM sensor_devices), " +
+            "(SELECT count(*) || ':' || coalesce(sum(hashtext(concat_ws(',', id, lot_id, sensor_id))), 0) " +
+            "FROM parking_spaces))";
+
+    private final SensorDeviceRepository sensorDeviceRepository;
+    private final ParkingSpaceRepository parkingSpaceRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, SensorCredential> credentials = new ConcurrentHashMap<>();
+    private final Map<Long, Long> lotBySpace = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile String fingerprint;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public SensorCredentialCache(SensorDeviceRepository sensorDeviceRepository,
+                                 ParkingSpaceRepository parkingSpaceRepository,
+                                 JdbcTemplate jdbcTemplate,
+                                 MeterRegistry meterRegistry) {
+        this.sensorDeviceRepository = sensorDeviceRepository;
+        this.parkingSpaceRepository = parkingSpaceRepository;
+        this.jdbcTemplate = jdbcTemplate;
+
+        Gauge.builder("sensor.credential.cache.size", credentials, Map::size)
+                .description("Sensors with a cached credential")
+                .register(meterRegistry);
+        FunctionCounter.builder("sensor.credential.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("sensor.credential.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("sensor.credential.cache.hit.ratio", this, SensorCredentialCache::hitRate)
+                .register(meterRegistry);
+    }
+
+    public Optional<SensorCredential> findCredential(String deviceId) {
+        if (deviceId == null) {
+            return Optional.empty();
+        }
+        SensorCredential cached = credentials.get(deviceId);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+        long seen = generation.get();
+        Optional<SensorCredential> loaded = sensorDeviceRepository.findByDeviceId(deviceId).map(this::toCredential);
+        loaded.ifPresent(credential -> cache(credential, seen));
+        return loaded;
+    }
+
+    /**
+     * Loads every credential in {@code deviceIds} that is not cached yet with a single query,
+     * so a cold batch does not fall back to one lookup per device.
+     */
+    public void warmUp(Collection<String> deviceIds) {
+        List<String> missing = deviceIds.stream()
+                .filter(Objects::nonNull)
+                .filter(deviceId -> !credentials.containsKey(deviceId))
+                .distinct()
+                .toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        long seen = generation.get();
+        for (SensorDevice sensor : sensorDeviceRepository.findByDeviceIdIn(missing)) {
+            cache(toCredential(sensor), seen);
+        }
+    }
+
+    public Optional<Long> findLotIdForSpace(Long spaceId) {
+        if (spaceId == null) {
+            return Optional.empty();
+        }
+        Long cached = lotBySpace.get(spaceId);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+        long seen = generation.get();
+        Optional<Long> loaded = parkingSpaceRepository.findLotIdBySpaceId(spaceId);
+        loaded.ifPresent(lotId -> cacheIfCurrent(lotBySpace, spaceId, lotId, seen));
+        return loaded;
+    }
+
+    public boolean matchesApiKey(SensorCredential credential, String apiKey) {
+        return apiKey != null && MessageDigest.isEqual(credential.apiKeyDigest(), digest(apiKey));
+    }
+
+    public void invalidate(String deviceId) {
+        if (deviceId != null) {
+            afterCompletion(() -> credentials.remove(deviceId));
+        }
+    }
+
+    public void invalidateSpace(Long spaceId) {
+        if (spaceId == null) {
+            return;
+        }
+        afterCompletion(() -> {
+            lotBySpace.remove(spaceId);
+            credentials.values().removeIf(credential -> spaceId.equals(credential.spaceId()));
+        });
+    }
+
+    public void invalidateLot(Long lotId) {
+        if (lotId == null) {
+            return;
+        }
+        afterCompletion(() -> {
+            lotBySpace.values().removeIf(lotId::equals);
+            credentials.values().removeIf(credential -> lotId.equals(credential.lotId()));
+        });
+    }
+
+    public void invalidateAll() {
+        afterCompletion(() -> {
+            credentials.clear();
+            lotBySpace.clear();
+        });
+    }
+
+    /**
+     * Clears the cache when sensors or spaces changed without going through this node.
+     */
+    @Scheduled(fixedDelayString = "${sensors.cache.checkMs:30000}")
+    public void checkForRemoteChanges() {
+        String current = jdbcTemplate.queryForObject(FINGERPRINT_SQL, String.class);
+        String previous = fingerprint;
+        fingerprint = current;
+        if (previous != null && !Objects.equals(previous, current)) {
+            logger.debug("Sensor or space rows changed, dropping cached credentials");
+            invalidateAll();
+        }
+    }
+
+    public SensorCacheStatsDTO stats() {
+        return new SensorCacheStatsDTO(
+                credentials.size(),
+                lotBySpace.size(),
+                hits.sum(),
+                misses.sum(),
+                hitRate(),
+                invalidations.sum()
+        );
+    }
+
+    private double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private void cache(SensorCredential credential, long seen) {
+        cacheIfCurrent(credentials, credential.deviceId(), credential, seen);
+        if (credential.spaceId() != null && credential.lotId() != null) {
+            cacheIfCurrent(lotBySpace, credential.spaceId(), credential.lotId(), seen);
+        }
+    }
+
+    private <K, V> void cacheIfCurrent(Map<K, V> map, K key, V value, long seen) {
+        map.putIfAbsent(key, value);
+        // An invalidation that ran while this was loading may have missed it
+        if (generation.get() != seen) {
+            map.remove(key, value);
+        }
+    }
+
+    private void afterCompletion(Runnable eviction) {
+        Runnable evict = () -> {
+            generation.incrementAndGet();
+            eviction.run();
+            invalidations.increment();
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int completionStatus) {
+                // Also on rollback: a load inside the transaction may have seen uncommitted rows
+                evict.run();
+            }
+        });
+    }
+
+    private SensorCredential toCredential(SensorDevice sensor) {
+        ParkingSpace space = sensor.getParkingSpace();
+        Long spaceId = space != null ? space.getId() : null;
+        Long lotId = null;
+        if (space != null && space.getParkingLot() != null) {
+            lotId = space.getParkingLot().getId();
+        } else if (sensor.getParkingLot() != null) {
+            lotId = sensor.getParkingLot().getId();
+        }
+        return new SensorCredential(
+                sensor.getId(),
+                sensor.getDeviceId(),
+                digest(Objects.requireNonNull(sensor.getApiKey())),
+                sensor.getSensorType(),
+                spaceId,
+                lotId
+        );
+    }
+
+    private static byte[] digest(String apiKey) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -2,9 +2,16 @@ package com.tirana.smartparking.parking.sensor.controller;
 
 import com.tirana.smartparking.common.dto.ApiResponse;
 import com.tirana.smartparking.common.response.ResponseHelper;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredentialCache;
+import com.tirana.smartparking.parking.sensor.dto.SensorBatchResultDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorCacheStatsDTO;
 import com.tirana.smartparking.parking.sensor.dto.SensorDTO;
 import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorIngestionQueueStatsDTO;
 import com.tirana.smartparking.parking.sensor.dto.SensorRegistrationDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorSuppressionStatsDTO;
+import com.tirana.smartparking.parking.sensor.filter.SensorEventFilter;
+import com.tirana.smartparking.parking.sensor.pipeline.SensorIngestionQueue;
 import com.tirana.smartparking.parking.sensor.service.SensorDeviceService;
 import com.tirana.smartparking.parking.sensor.service.SensorIngestionService;
 import jakarta.validation.Valid;
@@ -12,16 +19,28 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/v1/sensors")
 public class SensorDeviceController {
 
     private final SensorDeviceService sensorDeviceService;
     private final SensorIngestionService sensorIngestionService;
+    private final SensorCredentialCache sensorCredentialCache;
+    private final SensorEventFilter sensorEventFilter;
+    private final SensorIngestionQueue sensorIngestionQueue;
 
-    public SensorDeviceController(SensorDeviceService sensorDeviceService, SensorIngestionService sensorIngestionService) {
+    public SensorDeviceController(SensorDeviceService sensorDeviceService,
+                                  SensorIngestionService sensorIngestionService,
+                                  SensorCredentialCache sensorCredentialCache,
+                                  SensorEventFilter sensorEventFilter,
+                                  SensorIngestionQueue sensorIngestionQueue) {
         this.sensorDeviceService = sensorDeviceService;
         this.sensorIngestionService = sensorIngestionService;
+        this.sensorCredentialCache = sensorCredentialCache;
+        this.sensorEventFilter = sensorEventFilter;
+        this.sensorIngestionQueue = sensorIngestionQueue;
     }
 
     @PreAuthorize("hasAuthority('SENSOR_CREATE')")
@@ -38,6 +57,27 @@ public class SensorDeviceController {
         return ResponseHelper.ok("Sensor device fetched successfully", sensorDeviceService.getSensorDeviceById(id));
     }
 
+    @PreAuthorize("hasAuthority('SENSOR_READ')")
+    @GetMapping("/cache/stats")
+    public ResponseEntity<ApiResponse<SensorCacheStatsDTO>> getCredentialCacheStats() {
+        return ResponseHelper.ok("Sensor credential cache statistics fetched successfully", sensorCredentialCache.stats());
+    }
+
+    @PreAuthorize("hasAuthority('SENSOR_READ')")
+    @GetMapping("/suppression/stats")
+    public ResponseEntity<ApiResponse<List<SensorSuppressionStatsDTO>>> getSuppressionStats(@RequestParam(required = false) Long lotId) {
+        List<SensorSuppressionStatsDTO> stats = lotId != null
+                ? List.of(sensorEventFilter.stats(lotId))
+                : sensorEventFilter.stats();
+        return ResponseHelper.ok("Sensor event suppression statistics fetched successfully", stats);
+    }
+
+    @PreAuthorize("hasAuthority('SENSOR_READ')")
+    @GetMapping("/ingestion/stats")
+    public ResponseEntity<ApiResponse<SensorIngestionQueueStatsDTO>> getIngestionQueueStats() {
+        return ResponseHelper.ok("Sensor ingestion queue statistics fetched successfully", sensorIngestionQueue.stats());
+    }
+
     @PreAuthorize("hasAuthority('SENSOR_UPDATE')")
     @PutMapping("/{id}")
     public ResponseEntity<ApiResponse<SensorDTO>> updateSensorDevice(@PathVariable Long id,
@@ -64,7 +104,18 @@ public class SensorDeviceController {
 
     @PostMapping("/event")
     public ResponseEntity<ApiResponse<Void>> ingestSensorEvent(@Valid @RequestBody SensorEventDTO sensorEventDTO) {
+        if (sensorIngestionQueue.isEnabled()) {
+            Long orderingKey = sensorIngestionService.validateSensorEvent(sensorEventDTO);
+            sensorIngestionQueue.submit(orderingKey, sensorEventDTO);
+            return ResponseHelper.accepted("Sensor event accepted for processing", null);
+        }
         sensorIngestionService.ingestSensorEvent(sensorEventDTO);
         return ResponseHelper.ok("Sensor event ingested successfully", null);
     }
+
+    @PostMapping("/event/batch")
+    public ResponseEntity<ApiResponse<SensorBatchResultDTO>> ingestSensorEventBatch(@RequestBody List<SensorEventDTO> sensorEvents) {
+        SensorBatchResultDTO result = sensorIngestionService.ingestSensorEvents(sensorEvents);
+        return ResponseHelper.ok("Sensor event batch processed successfully", result);
+    }
 }
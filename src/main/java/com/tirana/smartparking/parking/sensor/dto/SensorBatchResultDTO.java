@@ -0,0 +1,12 @@
+package com.tirana.smartparking.parking.sensor.dto;
+
+import java.util.List;
+
+public record SensorBatchResultDTO(
+        int received,
+        int applied,
+        int suppressed,
+        int rejected,
+        List<SensorEventResultDTO> results
+) {
+}
@@ -0,0 +1,11 @@
+package com.tirana.smartparking.parking.sensor.dto;
+
+public record SensorCacheStatsDTO(
+        int cachedSensors,
+        int cachedSpaces,
+        long hits,
+        long misses,
+        double hitRate,
+        long invalidations
+) {
+}
@@ -8,6 +8,9 @@ public record SensorEventDTO(
         String event,
         Long spaceId,
         Instant timestamp,
-        String sensorType
+        String sensorType,
+        Integer count,
+        Integer batteryLevel,
+        String firmware
 ) {
 }
@@ -0,0 +1,11 @@
+package com.tirana.smartparking.parking.sensor.dto;
+
+public record SensorEventResultDTO(
+        int index,
+        String deviceId,
+        Long spaceId,
+        Long parkingLotId,
+        boolean applied,
+        String message
+) {
+}
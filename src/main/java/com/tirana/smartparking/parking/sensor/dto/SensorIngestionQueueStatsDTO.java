@@ -0,0 +1,16 @@
+package com.tirana.smartparking.parking.sensor.dto;
+
+public record SensorIngestionQueueStatsDTO(
+        boolean enabled,
+        int partitions,
+        int capacityPerPartition,
+        int depth,
+        long accepted,
+        long rejected,
+        long processed,
+        long invalid,
+        long failed,
+        double meanDrainLatencyMs,
+        double maxDrainLatencyMs
+) {
+}
@@ -0,0 +1,10 @@
+package com.tirana.smartparking.parking.sensor.dto;
+
+public record SensorSuppressionStatsDTO(
+        Long parkingLotId,
+        long duplicates,
+        long outOfOrder,
+        long debounced,
+        long total
+) {
+}
@@ -52,6 +52,14 @@ public class SensorDevice {
     private String firmware;
     private Integer batteryLevel;
 
+    // Set while an ACTIVE sensor is silent; written only by SensorTelemetryService
+    @Column(insertable = false, updatable = false)
+    private Instant staleSince;
+
+    // Last accepted binary frame sequence number, written only by the frame listener
+    @Column(insertable = false, updatable = false)
+    private Long frameSequence;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private SensorStatus status = SensorStatus.ACTIVE;
@@ -0,0 +1,233 @@
+package com.tirana.smartparking.parking.sensor.filter;
+
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.entity.ParkingSpace;
+import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorSuppressionStatsDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-space state filter in front of sensor ingestion. Flapping bays otherwise turn every
+ * flip into a space write, an availability event and a publish.
+ * <ul>
+ *     <li>events that report the status the space already has are dropped;</li>
+ *     <li>events older than the last applied one for the space are dropped;</li>
+ *     <li>a flip is only committed once the new status has held for the dwell time. Flips that are
+ *     not confirmed by a later event are committed by {@link #drainSettled(Instant)}.</li>
+ * </ul>
+ * The applied status of a space is read from the availability counters, so admin changes are
+ * taken into account as well. Between an {@code APPLY} (or a settled flip) and the counter update,
+ * the space counts as being in its new status, so a reading that contradicts the flip in that
+ * window is debounced as a new flip instead of being dropped as a duplicate. Callers report the
+ * update with {@link #committed}.
+ */
+@Component
+public class SensorEventFilter {
+
+    public enum Decision {
+        APPLY,
+        DUPLICATE,
+        OUT_OF_ORDER,
+        DEBOUNCED
+    }
+
+    private final AvailabilityCounterService availabilityCounterService;
+    private final Duration dwellTime;
+
+    private final Map<Long, SpaceState> spaces = new ConcurrentHashMap<>();
+    private final Map<Long, LotSuppression> suppressionByLot = new ConcurrentHashMap<>();
+    private final Map<Decision, Counter> suppressedCounters = new EnumMap<>(Decision.class);
+
+    public SensorEventFilter(AvailabilityCounterService availabilityCounterService,
+                             MeterRegistry meterRegistry,
+                             @Value("${sensors.filter.dwellMs:0}") long dwellMs) {
+        this.availabilityCounterService = availabilityCounterService;
+        this.dwellTime = Duration.ofMillis(dwellMs);
+        for (Decision decision : Decision.values()) {
+            if (decision != Decision.APPLY) {
+                suppressedCounters.put(decision, Counter.builder("sensor.events.suppressed")
+                        .tag("reason", decision.name().toLowerCase())
+                        .register(meterRegistry));
+            }
+        }
+    }
+
+    /**
+     * Decides whether a sensor reading should be applied now. {@code APPLY} records the reading
+     * as the space's last applied one; any other decision is counted against the lot.
+     */
+    public Decision evaluate(Long lotId, Long spaceId, ParkingSpace.SpaceStatus status, SensorEventDTO event) {
+        ParkingSpace.SpaceStatus current = availabilityCounterService.getSpaceStatus(lotId, spaceId);
+        Instant timestamp = event.timestamp() != null ? event.timestamp() : Instant.now();
+        Instant receivedAt = Instant.now();
+
+        SpaceState state = spaces.computeIfAbsent(spaceId, id -> new SpaceState(lotId));
+        Decision decision = state.evaluate(current, status, event, timestamp, receivedAt, dwellTime);
+        if (decision != Decision.APPLY) {
+            suppressionByLot.computeIfAbsent(lotId, id -> new LotSuppression()).record(decision);
+            suppressedCounters.get(decision).increment();
+        }
+        return decision;
+    }
+
+    /**
+     * Removes and returns the pending flips whose dwell time has elapsed without being contradicted.
+     * They are marked as applied, so the caller must commit them and report each with
+     * {@link #committed}.
+     */
+    public List<SettledEvent> drainSettled(Instant now) {
+        List<SettledEvent> settled = new ArrayList<>();
+        spaces.forEach((spaceId, state) -> {
+            SettledEvent event = state.takeSettled(spaceId, now, dwellTime);
+            if (event != null) {
+                settled.add(event);
+            }
+        });
+        settled.sort(Comparator.comparing(SettledEvent::timestamp));
+        return settled;
+    }
+
+    /**
+     * Marks the flip to {@code status} as written to the counters, which are authoritative again
+     * for the space. Must be called once the counter update is done, also when it failed.
+     */
+    public void committed(Long spaceId, ParkingSpace.SpaceStatus status) {
+        SpaceState state = spaces.get(spaceId);
+        if (state != null) {
+            state.committed(status);
+        }
+    }
+
+    /**
+     * Drops the state for a space, e.g. when it no longer exists.
+     */
+    public void forget(Long spaceId) {
+        spaces.remove(spaceId);
+    }
+
+    public List<SensorSuppressionStatsDTO> stats() {
+        return suppressionByLot.entrySet().stream()
+                .map(entry -> entry.getValue().toDTO(entry.getKey()))
+                .sorted(Comparator.comparing(SensorSuppressionStatsDTO::parkingLotId))
+                .toList();
+    }
+
+    public SensorSuppressionStatsDTO stats(Long lotId) {
+        LotSuppression suppression = suppressionByLot.get(lotId);
+        return suppression != null ? suppression.toDTO(lotId) : new LotSuppression().toDTO(lotId);
+    }
+
+    public record SettledEvent(Long lotId, Long spaceId, ParkingSpace.SpaceStatus status,
+                               SensorEventDTO event, Instant timestamp) {
+    }
+
+    private static final class SpaceState {
+        private final Long lotId;
+        private Instant lastAppliedAt;
+        // Status applied but not yet written to the counters
+        private ParkingSpace.SpaceStatus committingStatus;
+        private ParkingSpace.SpaceStatus pendingStatus;
+        private SensorEventDTO pendingEvent;
+        private Instant pendingTimestamp;
+        private Instant pendingSince;
+
+        SpaceState(Long lotId) {
+            this.lotId = lotId;
+        }
+
+        synchronized Decision evaluate(ParkingSpace.SpaceStatus current, ParkingSpace.SpaceStatus status,
+                                       SensorEventDTO event, Instant timestamp, Instant receivedAt, Duration dwellTime) {
+            if (lastAppliedAt != null && timestamp.isBefore(lastAppliedAt)) {
+                return Decision.OUT_OF_ORDER;
+            }
+            if (committingStatus != null) {
+                current = committingStatus;
+            }
+            if (status == current) {
+                // The bay flapped back before the flip settled
+                clearPending();
+                return Decision.DUPLICATE;
+            }
+            if (dwellTime.isZero()) {
+                applied(status, timestamp);
+                return Decision.APPLY;
+            }
+            if (status != pendingStatus) {
+                pendingStatus = status;
+                pendingEvent = event;
+                pendingTimestamp = timestamp;
+                pendingSince = receivedAt;
+                return Decision.DEBOUNCED;
+            }
+            if (Duration.between(pendingSince, receivedAt).compareTo(dwellTime) >= 0) {
+                applied(status, timestamp);
+                return Decision.APPLY;
+            }
+            return Decision.DEBOUNCED;
+        }
+
+        synchronized SettledEvent takeSettled(Long spaceId, Instant now, Duration dwellTime) {
+            if (pendingStatus == null || Duration.between(pendingSince, now).compareTo(dwellTime) < 0) {
+                return null;
+            }
+            SettledEvent settled = new SettledEvent(lotId, spaceId, pendingStatus, pendingEvent, pendingTimestamp);
+            applied(pendingStatus, pendingTimestamp);
+            return settled;
+        }
+
+        synchronized void committed(ParkingSpace.SpaceStatus status) {
+            if (committingStatus == status) {
+                committingStatus = null;
+            }
+        }
+
+        private void applied(ParkingSpace.SpaceStatus status, Instant timestamp) {
+            lastAppliedAt = timestamp;
+            committingStatus = status;
+            clearPending();
+        }
+
+        private void clearPending() {
+            pendingStatus = null;
+            pendingEvent = null;
+            pendingTimestamp = null;
+            pendingSince = null;
+        }
+    }
+
+    private static final class LotSuppression {
+        private final LongAdder duplicates = new LongAdder();
+        private final LongAdder outOfOrder = new LongAdder();
+        private final LongAdder debounced = new LongAdder();
+
+        void record(Decision decision) {
+            switch (decision) {
+                case DUPLICATE -> duplicates.increment();
+                case OUT_OF_ORDER -> outOfOrder.increment();
+                case DEBOUNCED -> debounced.increment();
+                default -> {
+                }
+            }
+        }
+
+        SensorSuppressionStatsDTO toDTO(Long lotId) {
+            long d = duplicates.sum();
+            long o = outOfOrder.sum();
+            long b = debounced.sum();
+            return new SensorSuppressionStatsDTO(lotId, d, o, b, d + o + b);
+        }
+    }
+}
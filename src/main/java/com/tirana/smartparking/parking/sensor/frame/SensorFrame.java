@@ -0,0 +1,16 @@
+package com.tirana.smartparking.parking.sensor.frame;
+
+import java.time.Instant;
+
+/**
+ * Decoded binary sensor reading. {@code signed} holds the raw bytes covered by the MAC.
+ */
+public record SensorFrame(
+        String deviceId,
+        long sequence,
+        int status,
+        Instant timestamp,
+        byte[] signed,
+        byte[] mac
+) {
+}
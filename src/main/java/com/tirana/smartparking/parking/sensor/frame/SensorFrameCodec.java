@@ -0,0 +1,140 @@
+package com.tirana.smartparking.parking.sensor.frame;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Fixed-layout binary sensor frame, big-endian, {@value #FRAME_LENGTH} bytes:
+ * <pre>
+ *  offset  size  field
+ *       0     1  magic 'S' (0x53)
+ *       1     1  version (1)
+ *       2    16  device id, ASCII, NUL padded
+ *      18     4  sequence, unsigned
+ *      22     1  status: 0 AVAILABLE, 1 OCCUPIED, 2 HEARTBEAT, 3 ERROR, 4 ENTRY, 5 EXIT
+ *      23     8  timestamp, epoch milliseconds
+ *      31     8  MAC: first 8 bytes of HMAC-SHA256 over bytes 0..30
+ * </pre>
+ * The MAC key is the SHA-256 digest of the sensor's API key, which is what the credential cache
+ * already holds, so the key never has to be kept in plain text on the server.
+ */
+public final class SensorFrameCodec {
+
+    public static final int FRAME_LENGTH = 39;
+
+    static final byte MAGIC = 0x53;
+    static final byte VERSION = 1;
+    static final int DEVICE_ID_LENGTH = 16;
+    static final int SIGNED_LENGTH = 31;
+    static final int MAC_LENGTH = 8;
+
+    private static final String[] STATUS_EVENTS = {"AVAILABLE", "OCCUPIED", "HEARTBEAT", "ERROR", "ENTRY", "EXIT"};
+
+    private static final ThreadLocal<Mac> HMAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    });
+
+    private SensorFrameCodec() {
+    }
+
+    /**
+     * Reads one frame from the buffer's current position.
+     *
+     * @throws IllegalArgumentException if the frame is truncated or has an unknown magic/version
+     */
+    public static SensorFrame decode(ByteBuffer buffer) {
+        if (buffer.remaining() < FRAME_LENGTH) {
+            throw new IllegalArgumentException("Sensor frame must be " + FRAME_LENGTH + " bytes");
+        }
+        byte[] signed = new byte[SIGNED_LENGTH];
+        buffer.get(signed);
+        byte[] mac = new byte[MAC_LENGTH];
+        buffer.get(mac);
+
+        ByteBuffer fields = ByteBuffer.wrap(signed);
+        if (fields.get() != MAGIC || fields.get() != VERSION) {
+            throw new IllegalArgumentException("Unsupported sensor frame header");
+        }
+        byte[] deviceId = new byte[DEVICE_ID_LENGTH];
+        fields.get(deviceId);
+        int length = 0;
+        while (length < DEVICE_ID_LENGTH && deviceId[length] != 0) {
+            length++;
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("Sensor frame has no device id");
+        }
+        long sequence = Integer.toUnsignedLong(fields.getInt());
+        int status = Byte.toUnsignedInt(fields.get());
+        Instant timestamp = Instant.ofEpochMilli(fields.getLong());
+        return new SensorFrame(new String(deviceId, 0, length, StandardCharsets.US_ASCII), sequence, status, timestamp, signed, mac);
+    }
+
+    public static byte[] encode(String deviceId, long sequence, int status, Instant timestamp, byte[] macKey) {
+        byte[] id = deviceId.getBytes(StandardCharsets.US_ASCII);
+        if (id.length == 0 || id.length > DEVICE_ID_LENGTH) {
+            throw new IllegalArgumentException("Device id must be 1-" + DEVICE_ID_LENGTH + " ASCII characters");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_LENGTH);
+        frame.put(MAGIC).put(VERSION);
+        frame.put(Arrays.copyOf(id, DEVICE_ID_LENGTH));
+        frame.putInt((int) sequence);
+        frame.put((byte) status);
+        frame.putLong(timestamp.toEpochMilli());
+        frame.put(mac(macKey, frame.array(), SIGNED_LENGTH));
+        return frame.array();
+    }
+
+    public static boolean verify(SensorFrame frame, byte[] macKey) {
+        return MessageDigest.isEqual(frame.mac(), mac(macKey, frame.signed(), SIGNED_LENGTH));
+    }
+
+    /**
+     * Event name understood by the ingestion service, or null for an unknown status code.
+     */
+    public static String event(SensorFrame frame) {
+        return frame.status() < STATUS_EVENTS.length ? STATUS_EVENTS[frame.status()] : null;
+    }
+
+    public static int status(String event) {
+        for (int i = 0; i < STATUS_EVENTS.length; i++) {
+            if (STATUS_EVENTS[i].equalsIgnoreCase(event)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sensor event: " + event);
+    }
+
+    /**
+     * Derives the MAC key a device uses from its API key.
+     */
+    public static byte[] macKey(String apiKey) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] mac(byte[] key, byte[] data, int length) {
+        Mac hmac = HMAC.get();
+        try {
+            hmac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid sensor MAC key", e);
+        }
+        hmac.update(data, 0, length);
+        return Arrays.copyOf(hmac.doFinal(), MAC_LENGTH);
+    }
+}
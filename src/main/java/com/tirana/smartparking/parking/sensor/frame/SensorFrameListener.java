@@ -0,0 +1,457 @@
+package com.tirana.smartparking.parking.sensor.frame;
+
+import com.tirana.smartparking.parking.sensor.cache.SensorCredential;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredentialCache;
+import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.service.SensorIngestionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional listener for the compact binary sensor protocol (see {@link SensorFrameCodec}).
+ * A single selector thread serves a UDP port and a TCP port, so frames skip HTTP, JSON and the
+ * security filter chain entirely. Each frame is authenticated by its MAC, must be stamped within
+ * the freshness window around the receive time, and must be newer than the device's last sequence
+ * number. The frames of a selector round are queued for one worker thread, which hands them to the
+ * regular batch ingestion path; when the queue is full the selector stops reading until it drains.
+ * <p>
+ * The last sequence number per device is kept in {@code sensor_devices.frame_sequence}. One
+ * conditional UPDATE claims every device's new sequence numbers in the same transaction that
+ * ingests the round, so a captured frame cannot be replayed after a restart or against another
+ * node, and a round that fails leaves its sequence numbers unclaimed. The in-memory copy only
+ * turns away obvious replays without a round trip.
+ */
+@Component
+public class SensorFrameListener implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorFrameListener.class);
+
+    private static final int UDP_BUFFER_SIZE = 64 * 1024;
+    private static final int TCP_BUFFER_FRAMES = 64;
+
+    // Serial number comparison for the unsigned 32-bit sequence, as in isAfter()
+    private static final String CLAIM_PREFIX =
+            "UPDATE sensor_devices s SET frame_sequence = v.last_sequence FROM (VALUES ";
+    private static final String CLAIM_ROW = "(CAST(? AS varchar), CAST(? AS bigint), CAST(? AS bigint))";
+    private static final String CLAIM_SUFFIX =
+            ") AS v(device_id, first_sequence, last_sequence) " +
+            "WHERE s.device_id = v.device_id AND (s.frame_sequence IS NULL OR " +
+            "(v.first_sequence - s.frame_sequence + 4294967296) % 4294967296 BETWEEN 1 AND 2147483647) " +
+            "RETURNING s.device_id";
+
+    private final SensorIngestionService sensorIngestionService;
+    private final SensorCredentialCache credentialCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final String host;
+    private final int udpPort;
+    private final int tcpPort;
+    private final int udpReceiveBufferBytes;
+    private final int maxBatchSize;
+    private final int maxConnections;
+    private final Duration freshness;
+
+    // Written by the selector thread, cleared by the worker when a round fails
+    private final Map<String, Long> lastSequence = new ConcurrentHashMap<>();
+    private final List<SensorFrame> pending = new ArrayList<>();
+    private final BlockingQueue<List<SensorFrame>> rounds;
+    private int connections;
+
+    private final Counter accepted;
+    private final Counter rejected;
+    private final Counter replayed;
+    private final Counter malformed;
+    private final Counter expired;
+    private final Counter failed;
+    private final Counter refused;
+
+    private Selector selector;
+    private DatagramChannel udpChannel;
+    private ServerSocketChannel tcpChannel;
+    private Thread thread;
+    private Thread worker;
+    private volatile boolean running;
+
+    public SensorFrameListener(SensorIngestionService sensorIngestionService,
+                               SensorCredentialCache credentialCache,
+                               JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${sensors.frames.enabled:false}") boolean enabled,
+                               @Value("${sensors.frames.host:0.0.0.0}") String host,
+                               @Value("${sensors.frames.udpPort:9410}") int udpPort,
+                               @Value("${sensors.frames.tcpPort:9411}") int tcpPort,
+                               @Value("${sensors.frames.udpReceiveBufferBytes:4194304}") int udpReceiveBufferBytes,
+                               @Value("${sensors.frames.maxBatchSize:500}") int maxBatchSize,
+                               @Value("${sensors.frames.queueCapacity:16}") int queueCapacity,
+                               @Value("${sensors.frames.maxConnections:1000}") int maxConnections,
+                               @Value("${sensors.frames.freshnessMs:60000}") long freshnessMs) {
+        this.sensorIngestionService = sensorIngestionService;
+        this.credentialCache = credentialCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.host = host;
+        this.udpPort = udpPort;
+        this.tcpPort = tcpPort;
+        this.udpReceiveBufferBytes = udpReceiveBufferBytes;
+        this.maxBatchSize = maxBatchSize;
+        this.maxConnections = maxConnections;
+        this.freshness = Duration.ofMillis(freshnessMs);
+        this.rounds = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.accepted = Counter.builder("sensor.frames").tag("result", "accepted").register(meterRegistry);
+        this.rejected = Counter.builder("sensor.frames").tag("result", "rejected").register(meterRegistry);
+        this.replayed = Counter.builder("sensor.frames").tag("result", "replayed").register(meterRegistry);
+        this.malformed = Counter.builder("sensor.frames").tag("result", "malformed").register(meterRegistry);
+        this.expired = Counter.builder("sensor.frames").tag("result", "expired").register(meterRegistry);
+        this.failed = Counter.builder("sensor.frames").tag("result", "failed").register(meterRegistry);
+        this.refused = Counter.builder("sensor.frames.connections.refused")
+                .description("TCP connections closed because the listener was at its connection limit")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            if (udpPort > 0) {
+                udpChannel = DatagramChannel.open();
+                if (udpReceiveBufferBytes > 0) {
+                    // Datagrams that arrive while the selector waits on a full queue are kept here;
+                    // the kernel caps the size at net.core.rmem_max
+                    udpChannel.setOption(StandardSocketOptions.SO_RCVBUF, udpReceiveBufferBytes);
+                    int granted = udpChannel.getOption(StandardSocketOptions.SO_RCVBUF);
+                    if (granted < udpReceiveBufferBytes) {
+                        logger.warn("UDP receive buffer is {} bytes instead of {}; raise net.core.rmem_max", granted, udpReceiveBufferBytes);
+                    }
+                }
+                udpChannel.bind(new InetSocketAddress(host, udpPort));
+                udpChannel.configureBlocking(false);
+                udpChannel.register(selector, SelectionKey.OP_READ);
+            }
+            if (tcpPort > 0) {
+                tcpChannel = ServerSocketChannel.open();
+                tcpChannel.bind(new InetSocketAddress(host, tcpPort));
+                tcpChannel.configureBlocking(false);
+                tcpChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw new IllegalStateException("Could not open sensor frame listener", e);
+        }
+        running = true;
+        thread = new Thread(this::run, "sensor-frame-listener");
+        thread.start();
+        worker = new Thread(this::work, "sensor-frame-worker");
+        worker.start();
+        logger.info("Listening for sensor frames on udp:{} tcp:{}", udpPort, tcpPort);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(10_000);
+            // The worker drains the rounds that are already queued before it exits
+            worker.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        ByteBuffer datagram = ByteBuffer.allocate(UDP_BUFFER_SIZE);
+        while (running) {
+            try {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        acceptConnection();
+                    } else if (key.channel() == udpChannel) {
+                        readDatagrams(datagram);
+                    } else {
+                        readStream(key);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Sensor frame listener I/O error: {}", e.getMessage());
+            }
+            // Whatever arrived during this selector round goes in as one batch
+            flush();
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+        SocketChannel connection = tcpChannel.accept();
+        if (connection == null) {
+            return;
+        }
+        if (connections >= maxConnections) {
+            refused.increment();
+            closeQuietly(connection);
+            return;
+        }
+        connection.configureBlocking(false);
+        connection.register(selector, SelectionKey.OP_READ,
+                ByteBuffer.allocate(SensorFrameCodec.FRAME_LENGTH * TCP_BUFFER_FRAMES));
+        connections++;
+    }
+
+    private void readDatagrams(ByteBuffer datagram) throws IOException {
+        // A datagram may carry several frames back to back
+        while (true) {
+            datagram.clear();
+            if (udpChannel.receive(datagram) == null) {
+                return;
+            }
+            datagram.flip();
+            if (datagram.remaining() % SensorFrameCodec.FRAME_LENGTH != 0) {
+                malformed.increment();
+                continue;
+            }
+            decodeAll(datagram, false);
+        }
+    }
+
+    private void readStream(SelectionKey key) {
+        SocketChannel connection = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        try {
+            if (connection.read(buffer) < 0) {
+                disconnect(key);
+                return;
+            }
+        } catch (IOException e) {
+            disconnect(key);
+            return;
+        }
+        buffer.flip();
+        if (!decodeAll(buffer, true)) {
+            // The stream is out of frame alignment, the device has to reconnect
+            disconnect(key);
+            return;
+        }
+        buffer.compact();
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        closeQuietly(key.channel());
+        connections--;
+    }
+
+    private boolean decodeAll(ByteBuffer buffer, boolean stopOnMalformed) {
+        while (buffer.remaining() >= SensorFrameCodec.FRAME_LENGTH) {
+            SensorFrame frame;
+            try {
+                frame = SensorFrameCodec.decode(buffer);
+            } catch (IllegalArgumentException e) {
+                malformed.increment();
+                if (stopOnMalformed) {
+                    return false;
+                }
+                continue;
+            }
+            accept(frame);
+        }
+        return true;
+    }
+
+    private void accept(SensorFrame frame) {
+        Optional<SensorCredential> credential = credentialCache.findCredential(frame.deviceId());
+        if (credential.isEmpty() || !SensorFrameCodec.verify(frame, credential.get().apiKeyDigest())) {
+            rejected.increment();
+            return;
+        }
+        Instant now = Instant.now();
+        if (frame.timestamp().isBefore(now.minus(freshness)) || frame.timestamp().isAfter(now.plus(freshness))) {
+            // Too old to be a live reading, or from a clock too far ahead; either way not trusted
+            expired.increment();
+            return;
+        }
+        Long last = lastSequence.get(frame.deviceId());
+        if (last != null && !isAfter(frame.sequence(), last)) {
+            replayed.increment();
+            return;
+        }
+        lastSequence.put(frame.deviceId(), frame.sequence());
+
+        pending.add(frame);
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues the frames of this round for the worker. Blocks while the queue is full, so a slow
+     * database slows down reading instead of piling up frames in memory.
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<SensorFrame> round = new ArrayList<>(pending);
+        pending.clear();
+        try {
+            rounds.put(round);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private void work() {
+        // Runs until the selector thread has queued its last round and the queue is drained
+        while (thread.isAlive() || !rounds.isEmpty()) {
+            try {
+                List<SensorFrame> round = rounds.poll(100, TimeUnit.MILLISECONDS);
+                if (round != null) {
+                    ingest(round);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claims the round's sequence numbers and ingests its frames in one transaction.
+     */
+    private void ingest(List<SensorFrame> round) {
+        try {
+            int applied = transactionTemplate.execute(status -> {
+                Set<String> claimed = claimSequences(round);
+                List<SensorEventDTO> events = new ArrayList<>(round.size());
+                for (SensorFrame frame : round) {
+                    if (claimed.contains(frame.deviceId())) {
+                        events.add(new SensorEventDTO(frame.deviceId(), null, SensorFrameCodec.event(frame), null, frame.timestamp(), null, null, null, null));
+                    }
+                }
+                if (!events.isEmpty()) {
+                    sensorIngestionService.ingestVerifiedSensorEvents(events);
+                }
+                return events.size();
+            });
+            accepted.increment(applied);
+            replayed.increment(round.size() - applied);
+        } catch (RuntimeException e) {
+            failed.increment(round.size());
+            // Nothing was claimed; let the database judge a retransmission of these frames
+            round.forEach(frame -> lastSequence.remove(frame.deviceId(), frame.sequence()));
+            logger.error("Failed to apply {} sensor frames: {}", round.size(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Moves each device's stored sequence number to the last one of this round, provided the
+     * round's first frame is newer than it. Returns the devices whose frames may be applied; the
+     * frames of the others were already accepted here or on another node.
+     */
+    private Set<String> claimSequences(List<SensorFrame> round) {
+        // Frames of a device are in sequence order, see accept()
+        Map<String, long[]> ranges = new LinkedHashMap<>();
+        for (SensorFrame frame : round) {
+            ranges.computeIfAbsent(frame.deviceId(), id -> new long[]{frame.sequence(), frame.sequence()})[1] = frame.sequence();
+        }
+        StringBuilder sql = new StringBuilder(CLAIM_PREFIX);
+        for (int i = 0; i < ranges.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(CLAIM_ROW);
+        }
+        sql.append(CLAIM_SUFFIX);
+
+        List<String> claimed = jdbcTemplate.query(sql.toString(), (PreparedStatement ps) -> {
+            int i = 1;
+            for (Map.Entry<String, long[]> range : ranges.entrySet()) {
+                ps.setString(i++, range.getKey());
+                ps.setLong(i++, range.getValue()[0]);
+                ps.setLong(i++, range.getValue()[1]);
+            }
+        }, (rs, rowNum) -> rs.getString(1));
+        return new HashSet<>(claimed);
+    }
+
+    /**
+     * Serial number comparison for the unsigned 32-bit sequence, so a wrapped counter is still newer.
+     */
+    private static boolean isAfter(long sequence, long last) {
+        long distance = (sequence - last) & 0xFFFFFFFFL;
+        return distance != 0 && distance < 0x80000000L;
+    }
+
+    private void closeQuietly() {
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+        closeQuietly(udpChannel);
+        closeQuietly(tcpChannel);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+            // Shutting down anyway
+        }
+    }
+}
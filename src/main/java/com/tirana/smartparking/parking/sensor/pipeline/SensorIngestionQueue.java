@@ -0,0 +1,226 @@
+package com.tirana.smartparking.parking.sensor.pipeline;
+
+import com.tirana.smartparking.common.exception.TooManyRequestsException;
+import com.tirana.smartparking.parking.sensor.dto.SensorBatchResultDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorIngestionQueueStatsDTO;
+import com.tirana.smartparking.parking.sensor.service.SensorIngestionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous ingestion mode. Validated events are put on one of a fixed number of bounded
+ * queues chosen by space id (lot id for gate counters), so all events of a space are applied by
+ * the same worker in the
+ * order they were accepted. Each worker drains its queue in micro-batches through
+ * {@link SensorIngestionService#ingestVerifiedSensorEvents(List)}, which keeps the request thread
+ * out of the JPA transaction; the API key was already checked when the event was submitted. A
+ * full queue is reported to the caller instead of blocking it.
+ * <p>
+ * A batch whose transaction fails is split in halves and each half applied again, so one event
+ * that cannot be stored only loses itself.
+ */
+@Component
+public class SensorIngestionQueue implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorIngestionQueue.class);
+
+    private final SensorIngestionService sensorIngestionService;
+    private final boolean enabled;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long retryAfterSeconds;
+
+    private final List<BlockingQueue<QueuedEvent>> partitions = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private final Counter accepted;
+    private final Counter rejected;
+    private final Counter processed;
+    private final Counter invalid;
+    private final Counter failed;
+    private final Timer drainLatency;
+
+    public SensorIngestionQueue(SensorIngestionService sensorIngestionService,
+                                MeterRegistry meterRegistry,
+                                @Value("${sensors.ingestion.async:false}") boolean enabled,
+                                @Value("${sensors.ingestion.partitions:4}") int partitionCount,
+                                @Value("${sensors.ingestion.queueCapacity:10000}") int capacity,
+                                @Value("${sensors.ingestion.maxBatchSize:200}") int maxBatchSize,
+                                @Value("${sensors.ingestion.retryAfterSeconds:1}") long retryAfterSeconds) {
+        if (partitionCount < 1 || capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Sensor ingestion partitions, queue capacity and batch size must be positive");
+        }
+        this.sensorIngestionService = sensorIngestionService;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        for (int i = 0; i < partitionCount; i++) {
+            BlockingQueue<QueuedEvent> queue = new ArrayBlockingQueue<>(capacity);
+            partitions.add(queue);
+            Gauge.builder("sensor.ingestion.queue.depth", queue, BlockingQueue::size)
+                    .tag("partition", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+        this.accepted = Counter.builder("sensor.ingestion.events").tag("result", "accepted").register(meterRegistry);
+        this.rejected = Counter.builder("sensor.ingestion.events").tag("result", "rejected").register(meterRegistry);
+        this.processed = Counter.builder("sensor.ingestion.events").tag("result", "processed").register(meterRegistry);
+        this.invalid = Counter.builder("sensor.ingestion.events").tag("result", "invalid").register(meterRegistry);
+        this.failed = Counter.builder("sensor.ingestion.events").tag("result", "failed").register(meterRegistry);
+        this.drainLatency = Timer.builder("sensor.ingestion.drain.latency")
+                .description("Time from acceptance to the end of the micro-batch that applied the event")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues an already validated event on the partition of its ordering key (space id, or lot id
+     * for gate counters).
+     *
+     * @throws TooManyRequestsException if that partition is full
+     */
+    public void submit(Long orderingKey, SensorEventDTO event) {
+        if (!running) {
+            throw new IllegalStateException("Sensor ingestion queue is not running");
+        }
+        BlockingQueue<QueuedEvent> queue = partitions.get(Math.floorMod(orderingKey.hashCode(), partitions.size()));
+        if (!queue.offer(new QueuedEvent(event, System.nanoTime()))) {
+            rejected.increment();
+            throw new TooManyRequestsException("Sensor ingestion queue is full, retry later", retryAfterSeconds);
+        }
+        accepted.increment();
+    }
+
+    public SensorIngestionQueueStatsDTO stats() {
+        int depth = partitions.stream().mapToInt(BlockingQueue::size).sum();
+        return new SensorIngestionQueueStatsDTO(
+                enabled,
+                partitions.size(),
+                capacity,
+                depth,
+                (long) accepted.count(),
+                (long) rejected.count(),
+                (long) processed.count(),
+                (long) invalid.count(),
+                (long) failed.count(),
+                drainLatency.mean(TimeUnit.MILLISECONDS),
+                drainLatency.max(TimeUnit.MILLISECONDS)
+        );
+    }
+
+    @Override
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < partitions.size(); i++) {
+            BlockingQueue<QueuedEvent> queue = partitions.get(i);
+            Thread worker = new Thread(() -> drain(queue), "sensor-ingest-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        logger.info("Started asynchronous sensor ingestion with {} partitions of {} events", partitions.size(), capacity);
+    }
+
+    /**
+     * Stops accepting events and lets the workers apply what is already queued.
+     */
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void drain(BlockingQueue<QueuedEvent> queue) {
+        List<QueuedEvent> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                apply(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void apply(List<QueuedEvent> batch) {
+        applyOrSplit(batch.stream().map(QueuedEvent::event).toList(), true);
+        long now = System.nanoTime();
+        for (QueuedEvent queued : batch) {
+            drainLatency.record(now - queued.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Applies events in one transaction. On failure the events are applied again in two halves,
+     * down to single events; a single event is retried once if the failure was transient.
+     * Partitions keep their order because the halves are applied one after the other.
+     */
+    private void applyOrSplit(List<SensorEventDTO> events, boolean retry) {
+        try {
+            SensorBatchResultDTO result = sensorIngestionService.ingestVerifiedSensorEvents(events);
+            processed.increment(result.applied() + result.suppressed());
+            invalid.increment(result.rejected());
+        } catch (RuntimeException e) {
+            if (events.size() > 1) {
+                logger.warn("Failed to apply {} queued sensor events, applying them in halves: {}", events.size(), e.getMessage());
+                int half = events.size() / 2;
+                applyOrSplit(events.subList(0, half), true);
+                applyOrSplit(events.subList(half, events.size()), true);
+            } else if (retry && e instanceof TransientDataAccessException) {
+                applyOrSplit(events, false);
+            } else {
+                failed.increment();
+                logger.error("Failed to apply queued sensor event of device {}: {}", events.get(0).deviceId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private record QueuedEvent(SensorEventDTO event, long enqueuedAtNanos) {
+    }
+}
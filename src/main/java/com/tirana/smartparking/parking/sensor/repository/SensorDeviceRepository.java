@@ -4,9 +4,15 @@ import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface SensorDeviceRepository extends JpaRepository<SensorDevice, Long> {
       Optional<SensorDevice> findByDeviceId(String deviceId);
+
+      List<SensorDevice> findByDeviceIdIn(Collection<String> deviceIds);
+
+      boolean existsByParkingLotIdAndSensorType(Long parkingLotId, SensorDevice.SensorType sensorType);
 }
@@ -2,9 +2,26 @@ package com.tirana.smartparking.parking.sensor.service;
 
 import org.springframework.stereotype.Service;
 
+import com.tirana.smartparking.parking.sensor.dto.SensorBatchResultDTO;
 import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
 
+import java.util.List;
+
 @Service
 public interface SensorIngestionService {
     void ingestSensorEvent(SensorEventDTO eventDTO);
+
+    SensorBatchResultDTO ingestSensorEvents(List<SensorEventDTO> events);
+
+    /**
+     * Same as {@link #ingestSensorEvents(List)} for events whose sender was already authenticated
+     * by the transport (e.g. a binary frame MAC), so the API key is not checked again.
+     */
+    SensorBatchResultDTO ingestVerifiedSensorEvents(List<SensorEventDTO> events);
+
+    /**
+     * Authenticates the sensor and checks the target space without applying anything.
+     * Returns the key that orders the event: the space id, or the lot id for gate counters.
+     */
+    Long validateSensorEvent(SensorEventDTO eventDTO);
 }
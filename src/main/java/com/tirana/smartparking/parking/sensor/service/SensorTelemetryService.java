@@ -0,0 +1,23 @@
+package com.tirana.smartparking.parking.sensor.service;
+
+/**
+ * Keeps sensor liveness and telemetry off the ingestion hot path. Readings only touch memory;
+ * {@code sensor_devices} is updated in bulk on a schedule, and sensors that stop reporting are
+ * marked stale together with their spaces.
+ */
+public interface SensorTelemetryService {
+
+    void recordSeen(Long sensorId, Integer batteryLevel, String firmware);
+
+    /**
+     * Writes all pending last-seen and telemetry values with one bulk UPDATE.
+     */
+    void flush();
+
+    /**
+     * Marks active sensors that have been silent for longer than the staleness threshold as stale
+     * ({@code stale_since}) and takes their spaces out of service. Sensors that never reported are
+     * measured from their registration. Returns the number of sensors marked.
+     */
+    int detectStaleSensors();
+}
@@ -2,6 +2,7 @@ package com.tirana.smartparking.parking.sensor.service.implementation;
 
 import com.tirana.smartparking.parking.repository.ParkingLotRepository;
 import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredentialCache;
 import com.tirana.smartparking.parking.sensor.dto.SensorDTO;
 import com.tirana.smartparking.parking.sensor.dto.SensorRegistrationDTO;
 import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
@@ -16,13 +17,16 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
     SensorDeviceRepository sensorDeviceRepository;
     ParkingLotRepository parkingLotRepository;
     ParkingSpaceRepository parkingSpaceRepository;
+    SensorCredentialCache sensorCredentialCache;
 
     public SensorDeviceServiceImpl(SensorDeviceRepository sensorDeviceRepository,
                                    ParkingLotRepository parkingLotRepository,
-                                   ParkingSpaceRepository parkingSpaceRepository) {
+                                   ParkingSpaceRepository parkingSpaceRepository,
+                                   SensorCredentialCache sensorCredentialCache) {
         this.sensorDeviceRepository = sensorDeviceRepository;
         this.parkingLotRepository = parkingLotRepository;
         this.parkingSpaceRepository = parkingSpaceRepository;
+        this.sensorCredentialCache = sensorCredentialCache;
     }
 
     @Override
@@ -44,6 +48,11 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
             throw new IllegalArgumentException("Either parking lot ID or parking space ID must be provided");
         }
 
+        if (SensorDevice.SensorType.GATE_COUNTER.name().equalsIgnoreCase(sensorRegistrationDTO.sensorType())
+                && sensorRegistrationDTO.parkingLotId() == null) {
+            throw new IllegalArgumentException("Gate counter sensors must be assigned to a parking lot");
+        }
+
         SensorDevice sensorDevice = new SensorDevice();
 
         sensorDevice.setDeviceId(sensorRegistrationDTO.deviceId());
@@ -61,6 +70,7 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
         sensorDevice.setDescription(sensorRegistrationDTO.description());
 
         sensorDevice = sensorDeviceRepository.save(sensorDevice);
+        sensorCredentialCache.invalidate(sensorDevice.getDeviceId());
 
         return mapToSensorDTO(sensorDevice);
     }
@@ -70,6 +80,7 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
     public SensorDTO updateSensorDevice(Long id, SensorRegistrationDTO sensorRegistrationDTO) {
         SensorDevice sensorDevice = sensorDeviceRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Sensor with this ID does not exist"));
+        String previousDeviceId = sensorDevice.getDeviceId();
 
         if (sensorRegistrationDTO.deviceId() != null && !sensorRegistrationDTO.deviceId().equals(sensorDevice.getDeviceId())) {
             if (sensorDeviceRepository.findByDeviceId(sensorRegistrationDTO.deviceId()).isPresent()) {
@@ -96,6 +107,8 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
             sensorDevice.setDescription(sensorRegistrationDTO.description());
         }
         sensorDevice = sensorDeviceRepository.save(sensorDevice);
+        sensorCredentialCache.invalidate(previousDeviceId);
+        sensorCredentialCache.invalidate(sensorDevice.getDeviceId());
         return mapToSensorDTO(sensorDevice);
     }
 
@@ -103,6 +116,7 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
     public SensorDTO patchSensorDevice(Long id, SensorRegistrationDTO sensorRegistrationDTO) {
         SensorDevice sensorDevice = sensorDeviceRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Sensor with this ID does not exist"));
+        String previousDeviceId = sensorDevice.getDeviceId();
 
         if (sensorRegistrationDTO.deviceId() != null && !sensorRegistrationDTO.deviceId().equals(sensorDevice.getDeviceId())) {
             if (sensorDeviceRepository.findByDeviceId(sensorRegistrationDTO.deviceId()).isPresent()) {
@@ -129,15 +143,17 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
             sensorDevice.setDescription(sensorRegistrationDTO.description());
         }
         sensorDevice = sensorDeviceRepository.save(sensorDevice);
+        sensorCredentialCache.invalidate(previousDeviceId);
+        sensorCredentialCache.invalidate(sensorDevice.getDeviceId());
         return mapToSensorDTO(sensorDevice);
     }
 
     @Override
     public void deleteSensorDeviceById(Long id) {
-        if (!sensorDeviceRepository.existsById(id)) {
-            throw new IllegalArgumentException("Sensor with this ID does not exist");
-        }
+        SensorDevice sensorDevice = sensorDeviceRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Sensor with this ID does not exist"));
         sensorDeviceRepository.deleteById(id);
+        sensorCredentialCache.invalidate(sensorDevice.getDeviceId());
     }
 
 
@@ -150,7 +166,9 @@ public class SensorDeviceServiceImpl implements SensorDeviceService {
                 sensorDevice.getParkingLot() != null ? sensorDevice.getParkingLot().getId() : null,
                 sensorDevice.getParkingSpace() != null ? sensorDevice.getParkingSpace().getId() : null,
                 sensorDevice.getSensorType().name(),
-                sensorDevice.getStatus().name(),
+                // Staleness is kept apart from the status an admin sets
+                sensorDevice.getStaleSince() != null && sensorDevice.getStatus() == SensorDevice.SensorStatus.ACTIVE
+                        ? "STALE" : sensorDevice.getStatus().name(),
                 sensorDevice.getDescription(),
                 sensorDevice.getLastSeenAt(),
                 sensorDevice.getFirmware(),
@@ -1,77 +1,365 @@
 package com.tirana.smartparking.parking.sensor.service.implementation;
 
 import com.tirana.smartparking.common.exception.ResourceNotFoundException;
-import com.tirana.smartparking.parking.availability.AvailabilityStream;
-import com.tirana.smartparking.parking.availability.events.AvailabilityEvent;
-import com.tirana.smartparking.parking.availability.repository.AvailabilityEventRepository;
+import com.tirana.smartparking.parking.availability.events.AvailabilityEventRecord;
+import com.tirana.smartparking.parking.availability.service.AvailabilityBus;
+import com.tirana.smartparking.parking.availability.service.AvailabilityChange;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.AvailabilityEventAppender;
 import com.tirana.smartparking.parking.entity.ParkingSpace;
-import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredential;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredentialCache;
+import com.tirana.smartparking.parking.sensor.dto.SensorBatchResultDTO;
 import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorEventResultDTO;
 import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
-import com.tirana.smartparking.parking.sensor.repository.SensorDeviceRepository;
+import com.tirana.smartparking.parking.sensor.filter.SensorEventFilter;
 import com.tirana.smartparking.parking.sensor.service.SensorIngestionService;
+import com.tirana.smartparking.parking.sensor.service.SensorTelemetryService;
 import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.*;
 
 @Service
 public class SensorIngestionServiceImpl implements SensorIngestionService {
-    private final SensorDeviceRepository sensorDeviceRepository;
-    private final ParkingSpaceRepository parkingSpaceRepository;
-    private final AvailabilityEventRepository availabilityEventRepository;
-    private final AvailabilityStream availabilityStream;
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorIngestionServiceImpl.class);
+
+    private final SensorCredentialCache credentialCache;
+    private final AvailabilityEventAppender availabilityEventAppender;
+    private final AvailabilityBus availabilityBus;
+    private final AvailabilityCounterService availabilityCounterService;
+    private final SensorEventFilter sensorEventFilter;
+    private final SensorTelemetryService sensorTelemetryService;
+    private final Duration maxClockSkew;
 
     public SensorIngestionServiceImpl(
-            SensorDeviceRepository sensorDeviceRepository,
-            ParkingSpaceRepository parkingSpaceRepository,
-            AvailabilityEventRepository availabilityEventRepository,
-            AvailabilityStream availabilityStream) {
-        this.sensorDeviceRepository = sensorDeviceRepository;
-        this.parkingSpaceRepository = parkingSpaceRepository;
-        this.availabilityEventRepository = availabilityEventRepository;
-        this.availabilityStream = availabilityStream;
+            SensorCredentialCache credentialCache,
+            AvailabilityEventAppender availabilityEventAppender,
+            AvailabilityBus availabilityBus,
+            AvailabilityCounterService availabilityCounterService,
+            SensorEventFilter sensorEventFilter,
+            SensorTelemetryService sensorTelemetryService,
+            @Value("${sensors.filter.maxClockSkewMs:5000}") long maxClockSkewMs) {
+        this.credentialCache = credentialCache;
+        this.availabilityEventAppender = availabilityEventAppender;
+        this.availabilityBus = availabilityBus;
+        this.availabilityCounterService = availabilityCounterService;
+        this.sensorEventFilter = sensorEventFilter;
+        this.sensorTelemetryService = sensorTelemetryService;
+        this.maxClockSkew = Duration.ofMillis(maxClockSkewMs);
     }
 
     @Override
     @Transactional
     public void ingestSensorEvent(SensorEventDTO eventDTO) {
-        // Validate sensor
-        SensorDevice sensor = sensorDeviceRepository.findByDeviceId(eventDTO.deviceId())
-                .orElseThrow(() -> new ResourceNotFoundException("Sensor not found: " + eventDTO.deviceId()));
-        if (!sensor.getApiKey().equals(eventDTO.apiKey())) {
-            throw new SecurityException("Invalid API key for sensor: " + eventDTO.deviceId());
-        }
-        // Validate parking space
-        ParkingSpace space = parkingSpaceRepository.findById(eventDTO.spaceId())
-                .orElseThrow(() -> new ResourceNotFoundException("Parking space not found: " + eventDTO.spaceId()));
-        // Update space status
-        ParkingSpace.SpaceStatus newStatus = null;
-        if ("OCCUPIED".equalsIgnoreCase(eventDTO.event())) {
-            newStatus = ParkingSpace.SpaceStatus.OCCUPIED;
-        } else if ("AVAILABLE".equalsIgnoreCase(eventDTO.event()) || "FREE".equalsIgnoreCase(eventDTO.event())) {
-            newStatus = ParkingSpace.SpaceStatus.AVAILABLE;
-        }
-
-        if (newStatus != null) {
-            space.setSpaceStatus(newStatus);
-            parkingSpaceRepository.save(space);
-        }
-        // Calculate available spaces in the lot
-        var lot = space.getParkingLot();
-        long availableSpaces = lot.getAvailableSpaces();
-
-        // Persist event
-        AvailabilityEvent event = new AvailabilityEvent();
-        event.setParkingLot(lot);
-        event.setParkingSpace(space);
-        event.setAvailableSpaces((int) availableSpaces);
-        event.setEvent(eventDTO.event());
-        event.setCreatedAt(eventDTO.timestamp() != null ? eventDTO.timestamp() : Instant.now());
-        event.setUpdatedAt(Instant.now());
-        event.setSource("SENSOR");
-        availabilityEventRepository.save(event);
+        // Validate sensor and resolve the target space from the credential cache
+        ResolvedEvent resolved = resolve(eventDTO, true);
+        // Heartbeats only refresh liveness, which resolve() already recorded
+        if (isHeartbeat(eventDTO)) {
+            return;
+        }
+        // Drop repeats, stale readings and flips that have not settled yet
+        if (filter(resolved) != SensorEventFilter.Decision.APPLY) {
+            return;
+        }
+        // Update space status and the lot's in-memory counter
+        long availableSpaces = applyStatus(resolved);
+
+        // Persist event (write-behind, once the transaction commits)
+        availabilityEventAppender.append(toAvailabilityEvent(resolved, availableSpaces));
         // Publish update
-        availabilityStream.publish(lot.getId(), availableSpaces);
+        availabilityBus.publish(resolved.lotId(), availableSpaces);
+    }
+
+    /**
+     * Applies a gateway batch in a single transaction. Sensors are resolved through the credential
+     * cache (cold entries are loaded with one query), events are applied per lot in the order they
+     * were received, and every affected lot is published once at the end instead of once per event.
+     * Invalid items are rejected individually and reported back without failing the rest of the batch;
+     * items dropped by the {@link SensorEventFilter} are reported as suppressed.
+     */
+    @Override
+    @Transactional
+    public SensorBatchResultDTO ingestSensorEvents(List<SensorEventDTO> events) {
+        return ingestBatch(events, true);
+    }
+
+    @Override
+    @Transactional
+    public SensorBatchResultDTO ingestVerifiedSensorEvents(List<SensorEventDTO> events) {
+        return ingestBatch(events, false);
+    }
+
+    private SensorBatchResultDTO ingestBatch(List<SensorEventDTO> events, boolean checkApiKey) {
+        if (events == null || events.isEmpty()) {
+            throw new IllegalArgumentException("Sensor event batch must contain at least one event");
+        }
+        if (events.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Sensor event batch cannot contain more than " + MAX_BATCH_SIZE + " events");
+        }
+
+        credentialCache.warmUp(events.stream()
+                .filter(Objects::nonNull)
+                .map(SensorEventDTO::deviceId)
+                .toList());
+
+        SensorEventResultDTO[] results = new SensorEventResultDTO[events.size()];
+        Map<Long, List<Integer>> eventsByLot = new LinkedHashMap<>();
+        ResolvedEvent[] resolvedEvents = new ResolvedEvent[events.size()];
+
+        // Validate every item up front and group the accepted ones per lot
+        for (int i = 0; i < events.size(); i++) {
+            SensorEventDTO event = events.get(i);
+            try {
+                if (event == null) {
+                    throw new IllegalArgumentException("Event is empty");
+                }
+                resolvedEvents[i] = resolve(event, checkApiKey);
+                eventsByLot.computeIfAbsent(resolvedEvents[i].lotId(), k -> new ArrayList<>()).add(i);
+            } catch (ResourceNotFoundException | SecurityException | IllegalArgumentException e) {
+                results[i] = rejected(i, event, e.getMessage());
+            }
+        }
+
+        List<AvailabilityEventRecord> availabilityEvents = new ArrayList<>();
+        Map<Long, Long> availableByLot = new LinkedHashMap<>();
+
+        int suppressed = 0;
+
+        for (Map.Entry<Long, List<Integer>> entry : eventsByLot.entrySet()) {
+            for (int i : entry.getValue()) {
+                ResolvedEvent resolved = resolvedEvents[i];
+                if (isHeartbeat(resolved.event())) {
+                    results[i] = new SensorEventResultDTO(i, resolved.event().deviceId(), resolved.spaceId(), entry.getKey(), true, "Heartbeat recorded");
+                    continue;
+                }
+                SensorEventFilter.Decision decision = filter(resolved);
+                if (decision != SensorEventFilter.Decision.APPLY) {
+                    results[i] = new SensorEventResultDTO(i, resolved.event().deviceId(), resolved.spaceId(), entry.getKey(),
+                            false, "Suppressed: " + decision.name().toLowerCase());
+                    suppressed++;
+                    continue;
+                }
+                long availableSpaces;
+                try {
+                    availableSpaces = applyStatus(resolved);
+                } catch (ResourceNotFoundException e) {
+                    results[i] = rejected(i, resolved.event(), e.getMessage());
+                    continue;
+                }
+
+                availabilityEvents.add(toAvailabilityEvent(resolved, availableSpaces));
+                availableByLot.put(entry.getKey(), availableSpaces);
+
+                results[i] = new SensorEventResultDTO(i, resolved.event().deviceId(), resolved.spaceId(), entry.getKey(), true, "Applied");
+            }
+        }
+
+        availabilityEventAppender.appendAll(availabilityEvents);
+
+        // One publish per affected lot, carrying the lot's latest value
+        availableByLot.forEach(availabilityBus::publish);
+
+        List<SensorEventResultDTO> resultList = Arrays.asList(results);
+        int applied = (int) resultList.stream().filter(SensorEventResultDTO::applied).count();
+        return new SensorBatchResultDTO(events.size(), applied, suppressed, events.size() - applied - suppressed, resultList);
+    }
+
+    @Override
+    public Long validateSensorEvent(SensorEventDTO eventDTO) {
+        ResolvedEvent resolved = resolve(eventDTO, true);
+        return resolved.gate() ? resolved.lotId() : resolved.spaceId();
+    }
+
+    /**
+     * Commits flips that were held back by the dwell time and never contradicted by a later reading.
+     */
+    @Scheduled(fixedDelayString = "${sensors.filter.sweepDelayMs:1000}")
+    @Transactional
+    public void commitSettledEvents() {
+        List<SensorEventFilter.SettledEvent> settled = sensorEventFilter.drainSettled(Instant.now());
+        if (settled.isEmpty()) {
+            return;
+        }
+
+        List<AvailabilityEventRecord> availabilityEvents = new ArrayList<>();
+        Map<Long, Long> availableByLot = new LinkedHashMap<>();
+        for (SensorEventFilter.SettledEvent event : settled) {
+            ResolvedEvent resolved = new ResolvedEvent(event.event(), event.spaceId(), event.lotId(), false);
+            long availableSpaces;
+            try {
+                availableSpaces = applyStatus(resolved);
+            } catch (ResourceNotFoundException e) {
+                logger.warn("Dropping settled sensor event for space {}: {}", event.spaceId(), e.getMessage());
+                continue;
+            }
+            availabilityEvents.add(toAvailabilityEvent(resolved, availableSpaces));
+            availableByLot.put(event.lotId(), availableSpaces);
+        }
+
+        availabilityEventAppender.appendAll(availabilityEvents);
+        availableByLot.forEach(availabilityBus::publish);
+    }
+
+    private ResolvedEvent resolve(SensorEventDTO received, boolean checkApiKey) {
+        SensorCredential credential = credentialCache.findCredential(received.deviceId())
+                .orElseThrow(() -> new ResourceNotFoundException("Sensor not found: " + received.deviceId()));
+        if (checkApiKey && !credentialCache.matchesApiKey(credential, received.apiKey())) {
+            throw new SecurityException("Invalid API key for sensor: " + received.deviceId());
+        }
+        // Any authenticated reading proves the sensor is alive; kept in memory, flushed in bulk
+        sensorTelemetryService.recordSeen(credential.sensorId(), received.batteryLevel(), received.firmware());
+        SensorEventDTO eventDTO = withBoundedTimestamp(received);
+
+        if (credential.sensorType() == SensorDevice.SensorType.GATE_COUNTER) {
+            return resolveGateEvent(eventDTO, credential);
+        }
+
+        // A sensor installed on a space may only report for that space
+        Long spaceId = eventDTO.spaceId() != null ? eventDTO.spaceId() : credential.spaceId();
+        if (spaceId == null) {
+            throw new IllegalArgumentException("Parking space ID is required");
+        }
+        if (credential.spaceId() != null && !credential.spaceId().equals(spaceId)) {
+            throw new IllegalArgumentException("Sensor " + eventDTO.deviceId() + " is not installed on parking space " + spaceId);
+        }
+
+        Long lotId = spaceId.equals(credential.spaceId()) && credential.lotId() != null
+                ? credential.lotId()
+                : credentialCache.findLotIdForSpace(spaceId)
+                        .orElseThrow(() -> new ResourceNotFoundException("Parking space not found or not assigned to a lot: " + spaceId));
+        return new ResolvedEvent(eventDTO, spaceId, lotId, false);
+    }
+
+    /**
+     * Gate counters report for their whole lot: ENTRY/EXIT shift the free count by {@code count}
+     * vehicles (default 1), COUNT replaces it with the controller's absolute free count.
+     */
+    private ResolvedEvent resolveGateEvent(SensorEventDTO eventDTO, SensorCredential credential) {
+        if (credential.lotId() == null) {
+            throw new IllegalArgumentException("Gate counter " + eventDTO.deviceId() + " is not assigned to a parking lot");
+        }
+        if (eventDTO.count() != null && eventDTO.count() < 0) {
+            throw new IllegalArgumentException("Count cannot be negative");
+        }
+        if ("COUNT".equalsIgnoreCase(eventDTO.event()) && eventDTO.count() == null) {
+            throw new IllegalArgumentException("COUNT events require a count");
+        }
+        return new ResolvedEvent(eventDTO, null, credential.lotId(), true);
+    }
+
+    /**
+     * Readings stamped further ahead than the allowed clock skew are taken as received now. Left
+     * alone, one future-dated reading would make every later one for the space out of order.
+     */
+    private SensorEventDTO withBoundedTimestamp(SensorEventDTO eventDTO) {
+        Instant now = Instant.now();
+        if (eventDTO.timestamp() == null || !eventDTO.timestamp().isAfter(now.plus(maxClockSkew))) {
+            return eventDTO;
+        }
+        logger.debug("Sensor {} reported a timestamp in the future ({}), using receive time", eventDTO.deviceId(), eventDTO.timestamp());
+        return new SensorEventDTO(eventDTO.deviceId(), eventDTO.apiKey(), eventDTO.event(), eventDTO.spaceId(), now,
+                eventDTO.sensorType(), eventDTO.count(), eventDTO.batteryLevel(), eventDTO.firmware());
+    }
+
+    private SensorEventFilter.Decision filter(ResolvedEvent resolved) {
+        if (resolved.gate()) {
+            // Every gate pulse is a distinct vehicle, none of them is a duplicate
+            return SensorEventFilter.Decision.APPLY;
+        }
+        ParkingSpace.SpaceStatus newStatus = resolveStatus(resolved.event().event());
+        if (newStatus == null) {
+            // Unknown event types do not change the space, nothing to debounce
+            return SensorEventFilter.Decision.APPLY;
+        }
+        return sensorEventFilter.evaluate(resolved.lotId(), resolved.spaceId(), newStatus, resolved.event());
+    }
+
+    /**
+     * Writes the reported status and applies it to the lot counter, returning the lot's
+     * available spaces afterwards. Unknown event types leave the space untouched.
+     */
+    private long applyStatus(ResolvedEvent resolved) {
+        if (resolved.gate()) {
+            return applyGateEvent(resolved);
+        }
+        ParkingSpace.SpaceStatus newStatus = resolveStatus(resolved.event().event());
+        if (newStatus == null) {
+            return availabilityCounterService.getAvailableSpaces(resolved.lotId());
+        }
+        try {
+            AvailabilityChange change = availabilityCounterService.updateSpaceStatus(
+                    resolved.lotId(), resolved.spaceId(), newStatus, Instant.now());
+            if (change == null) {
+                // The space is gone; make sure the next event does not trust the cached topology
+                credentialCache.invalidateSpace(resolved.spaceId());
+                sensorEventFilter.forget(resolved.spaceId());
+                throw new ResourceNotFoundException("Parking space not found: " + resolved.spaceId());
+            }
+            return change.availableSpaces();
+        } finally {
+            // Readings are compared with the counter again from here on
+            sensorEventFilter.committed(resolved.spaceId(), newStatus);
+        }
+    }
+
+    /**
+     * Adjusts the lot counter only; no parking space rows are read or written.
+     */
+    private long applyGateEvent(ResolvedEvent resolved) {
+        SensorEventDTO event = resolved.event();
+        int vehicles = event.count() != null ? event.count() : 1;
+        if ("ENTRY".equalsIgnoreCase(event.event())) {
+            return availabilityCounterService.adjust(resolved.lotId(), -vehicles);
+        } else if ("EXIT".equalsIgnoreCase(event.event())) {
+            return availabilityCounterService.adjust(resolved.lotId(), vehicles);
+        } else if ("COUNT".equalsIgnoreCase(event.event())) {
+            return availabilityCounterService.correct(resolved.lotId(), event.count());
+        }
+        return availabilityCounterService.getAvailableSpaces(resolved.lotId());
+    }
+
+    private SensorEventResultDTO rejected(int index, SensorEventDTO event, String message) {
+        return new SensorEventResultDTO(index,
+                event != null ? event.deviceId() : null,
+                event != null ? event.spaceId() : null,
+                null, false, message);
+    }
+
+    private boolean isHeartbeat(SensorEventDTO eventDTO) {
+        return "HEARTBEAT".equalsIgnoreCase(eventDTO.event());
+    }
+
+    private ParkingSpace.SpaceStatus resolveStatus(String event) {
+        if ("OCCUPIED".equalsIgnoreCase(event)) {
+            return ParkingSpace.SpaceStatus.OCCUPIED;
+        } else if ("AVAILABLE".equalsIgnoreCase(event) || "FREE".equalsIgnoreCase(event)) {
+            return ParkingSpace.SpaceStatus.AVAILABLE;
+        }
+        return null;
+    }
+
+    private AvailabilityEventRecord toAvailabilityEvent(ResolvedEvent resolved, long availableSpaces) {
+        SensorEventDTO eventDTO = resolved.event();
+        return new AvailabilityEventRecord(
+                resolved.lotId(),
+                resolved.spaceId(),
+                (int) availableSpaces,
+                eventDTO.event(),
+                eventDTO.timestamp() != null ? eventDTO.timestamp() : Instant.now(),
+                resolved.gate() ? "GATE" : "SENSOR"
+        );
+    }
+
+    private record ResolvedEvent(SensorEventDTO event, Long spaceId, Long lotId, boolean gate) {
     }
 }
@@ -0,0 +1,193 @@
+package com.tirana.smartparking.parking.sensor.service.implementation;
+
+import com.tirana.smartparking.parking.availability.events.AvailabilityEventRecord;
+import com.tirana.smartparking.parking.availability.service.AvailabilityBus;
+import com.tirana.smartparking.parking.availability.service.AvailabilityChange;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.availability.service.AvailabilityEventAppender;
+import com.tirana.smartparking.parking.entity.ParkingSpace;
+import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
+import com.tirana.smartparking.parking.sensor.service.SensorTelemetryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class SensorTelemetryServiceImpl implements SensorTelemetryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorTelemetryServiceImpl.class);
+
+    private static final int UPDATE_CHUNK_SIZE = 1000;
+    private static final String UPDATE_PREFIX =
+            "UPDATE sensor_devices s SET last_seen_at = v.last_seen, " +
+            "battery_level = COALESCE(v.battery_level, s.battery_level), " +
+            "firmware = COALESCE(v.firmware, s.firmware), " +
+            "stale_since = NULL " +
+            "FROM (VALUES ";
+    private static final String UPDATE_ROW = "(CAST(? AS bigint), CAST(? AS timestamptz), CAST(? AS integer), CAST(? AS varchar))";
+    private static final String UPDATE_SUFFIX =
+            ") AS v(id, last_seen, battery_level, firmware) " +
+            "WHERE s.id = v.id AND (s.last_seen_at IS NULL OR s.last_seen_at < v.last_seen)";
+
+    // Sensors that never reported count as silent since they were registered. The UPDATE re-checks
+    // each row it locks, so a sensor whose reading was flushed concurrently is not returned.
+    private static final String MARK_STALE_SQL =
+            "WITH stale AS (" +
+            "UPDATE sensor_devices SET stale_since = ? " +
+            "WHERE status = 'ACTIVE' AND stale_since IS NULL AND COALESCE(last_seen_at, created_at) < ? " +
+            "RETURNING id, device_id, sensor_type, parking_lot_id) " +
+            "SELECT stale.id, stale.device_id, stale.sensor_type, stale.parking_lot_id, ps.id, ps.lot_id " +
+            "FROM stale LEFT JOIN parking_spaces ps ON ps.sensor_id = stale.id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AvailabilityCounterService availabilityCounterService;
+    private final AvailabilityEventAppender availabilityEventAppender;
+    private final AvailabilityBus availabilityBus;
+    private final Duration stalenessThreshold;
+
+    private final Map<Long, Telemetry> pending = new ConcurrentHashMap<>();
+
+    public SensorTelemetryServiceImpl(JdbcTemplate jdbcTemplate,
+                                      AvailabilityCounterService availabilityCounterService,
+                                      AvailabilityEventAppender availabilityEventAppender,
+                                      AvailabilityBus availabilityBus,
+                                      @Value("${sensors.staleness.thresholdMs:900000}") long stalenessThresholdMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.availabilityCounterService = availabilityCounterService;
+        this.availabilityEventAppender = availabilityEventAppender;
+        this.availabilityBus = availabilityBus;
+        this.stalenessThreshold = Duration.ofMillis(stalenessThresholdMs);
+    }
+
+    @Override
+    public void recordSeen(Long sensorId, Integer batteryLevel, String firmware) {
+        pending.merge(sensorId, new Telemetry(Instant.now(), batteryLevel, firmware), Telemetry::merge);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${sensors.telemetry.flushDelayMs:30000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, Telemetry>> batch = new ArrayList<>(pending.size());
+        for (Long sensorId : pending.keySet()) {
+            Telemetry telemetry = pending.remove(sensorId);
+            if (telemetry != null) {
+                batch.add(Map.entry(sensorId, telemetry));
+            }
+        }
+        for (int from = 0; from < batch.size(); from += UPDATE_CHUNK_SIZE) {
+            List<Map.Entry<Long, Telemetry>> chunk = batch.subList(from, Math.min(batch.size(), from + UPDATE_CHUNK_SIZE));
+            try {
+                jdbcTemplate.update(updateSql(chunk.size()), (PreparedStatement ps) -> {
+                    int i = 1;
+                    for (Map.Entry<Long, Telemetry> entry : chunk) {
+                        Telemetry telemetry = entry.getValue();
+                        ps.setLong(i++, entry.getKey());
+                        ps.setTimestamp(i++, Timestamp.from(telemetry.lastSeen()));
+                        if (telemetry.batteryLevel() != null) {
+                            ps.setInt(i++, telemetry.batteryLevel());
+                        } else {
+                            ps.setNull(i++, Types.INTEGER);
+                        }
+                        ps.setString(i++, telemetry.firmware());
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Put the values back unless newer ones arrived meanwhile
+                chunk.forEach(entry -> pending.merge(entry.getKey(), entry.getValue(), Telemetry::merge));
+                logger.error("Failed to write telemetry for {} sensors: {}", chunk.size(), e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    @Scheduled(fixedDelayString = "${sensors.staleness.checkDelayMs:60000}")
+    public int detectStaleSensors() {
+        // Make sure the database reflects every reading received so far
+        flush();
+        Instant now = Instant.now();
+        Instant cutoff = now.minus(stalenessThreshold);
+
+        // Only the sensors this UPDATE actually marked are acted on
+        List<StaleSensor> marked = jdbcTemplate.query(MARK_STALE_SQL,
+                (rs, rowNum) -> new StaleSensor(rs.getLong(1), rs.getString(2),
+                        SensorDevice.SensorType.GATE_COUNTER.name().equals(rs.getString(3)) ? rs.getObject(4, Long.class) : null,
+                        rs.getObject(5, Long.class), rs.getObject(6, Long.class)),
+                Timestamp.from(now), Timestamp.from(cutoff));
+
+        // Spaces of a dead sensor must not be counted as free
+        List<AvailabilityEventRecord> events = new ArrayList<>();
+        Map<Long, Long> availableByLot = new LinkedHashMap<>();
+        for (StaleSensor sensor : marked) {
+            if (pending.containsKey(sensor.sensorId())) {
+                // Reported after the flush above; the next flush clears stale_since again
+                continue;
+            }
+            if (sensor.gateLotId() != null) {
+                // Nothing counts the lot's entries and exits any more; report it full until the next COUNT
+                long available = availabilityCounterService.correct(sensor.gateLotId(), 0);
+                events.add(new AvailabilityEventRecord(sensor.gateLotId(), null, (int) available, "STALE", now, "SYSTEM"));
+                availableByLot.put(sensor.gateLotId(), available);
+                logger.warn("Gate counter {} has not reported since {}, lot {} reported as full", sensor.deviceId(), cutoff, sensor.gateLotId());
+                continue;
+            }
+            if (sensor.spaceId() == null || sensor.lotId() == null) {
+                continue;
+            }
+            AvailabilityChange change = availabilityCounterService
+                    .updateSpaceStatus(sensor.lotId(), sensor.spaceId(), ParkingSpace.SpaceStatus.OUT_OF_SERVICE, now);
+            if (change == null) {
+                continue;
+            }
+            long available = change.availableSpaces();
+            events.add(new AvailabilityEventRecord(sensor.lotId(), sensor.spaceId(), (int) available, "STALE", now, "SYSTEM"));
+            availableByLot.put(sensor.lotId(), available);
+            logger.warn("Sensor {} has not reported since {}, space {} taken out of service", sensor.deviceId(), cutoff, sensor.spaceId());
+        }
+        availabilityEventAppender.appendAll(events);
+        availableByLot.forEach(availabilityBus::publish);
+        return marked.size();
+    }
+
+    private static String updateSql(int rows) {
+        StringBuilder sql = new StringBuilder(UPDATE_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(UPDATE_ROW);
+        }
+        return sql.append(UPDATE_SUFFIX).toString();
+    }
+
+    private record StaleSensor(Long sensorId, String deviceId, Long gateLotId, Long spaceId, Long lotId) {
+    }
+
+    private record Telemetry(Instant lastSeen, Integer batteryLevel, String firmware) {
+        Telemetry merge(Telemetry newer) {
+            return new Telemetry(
+                    newer.lastSeen().isAfter(lastSeen) ? newer.lastSeen() : lastSeen,
+                    newer.batteryLevel() != null ? newer.batteryLevel() : batteryLevel,
+                    newer.firmware() != null ? newer.firmware() : firmware
+            );
+        }
+    }
+}
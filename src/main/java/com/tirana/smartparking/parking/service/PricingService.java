@@ -1,14 +1,24 @@
 package com.tirana.smartparking.parking.service;
 
 import com.tirana.smartparking.common.dto.Money;
+import com.tirana.smartparking.parking.dto.PricingBatchQuoteResultDTO;
+import com.tirana.smartparking.parking.dto.PricingQuoteDTO;
 import com.tirana.smartparking.parking.entity.Enum.UserGroup;
 import com.tirana.smartparking.parking.entity.Enum.VehicleType;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
 public interface PricingService {
     Money quote(Long lotId, Long spaceId, VehicleType vt, UserGroup ug,
                 ZonedDateTime start, ZonedDateTime end);
     
+    /**
+     * Quotes many visits at once. Each distinct lot/space is resolved once and visits that end up
+     * on the same plan with the same vehicle type, user group and times are priced once. Items
+     * that cannot be quoted are reported in their result instead of failing the batch.
+     */
+    PricingBatchQuoteResultDTO quoteAll(List<PricingQuoteDTO> requests);
+    
     Integer getGraceMinutes(Long lotId, Long spaceId, ZonedDateTime startTime);
 }
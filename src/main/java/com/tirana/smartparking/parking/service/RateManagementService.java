@@ -8,6 +8,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
 public interface RateManagementService {
     
@@ -45,6 +46,8 @@ public interface RateManagementService {
     // Pricing operations
     Money getPricingQuote(PricingQuoteDTO quoteDTO);
     
+    PricingBatchQuoteResultDTO getPricingQuotes(List<PricingQuoteDTO> quoteDTOs);
+    
     // Convenience method for standalone space pricing
     Money getStandaloneSpacePricingQuote(Long spaceId, VehicleType vehicleType, UserGroup userGroup, 
                                         ZonedDateTime startTime, ZonedDateTime endTime);
@@ -1,6 +1,7 @@
 package com.tirana.smartparking.parking.service.implementation;
 
 import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
 import com.tirana.smartparking.parking.dto.*;
 import com.tirana.smartparking.parking.entity.ParkingLot;
 import com.tirana.smartparking.parking.entity.ParkingSpace;
@@ -9,6 +10,7 @@ import com.tirana.smartparking.parking.entity.Review;
 import com.tirana.smartparking.parking.repository.ParkingLotRepository;
 import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
 import com.tirana.smartparking.parking.repository.ReviewRepository;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredentialCache;
 import com.tirana.smartparking.parking.service.ParkingLotService;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
@@ -20,8 +22,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Instant;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 
@@ -35,15 +37,21 @@ public class ParkingLotServiceImpl implements ParkingLotService {
     private final ParkingSpaceRepository parkingSpaceRepository;
     private final ReviewRepository reviewRepository;
     private final GeometryFactory geometryFactory;
+    private final SensorCredentialCache sensorCredentialCache;
+    private final AvailabilityCounterService availabilityCounterService;
 
     public ParkingLotServiceImpl(ParkingLotRepository parkingLotRepository, 
                                 ParkingSpaceRepository parkingSpaceRepository,
                                 ReviewRepository reviewRepository,
-                                GeometryFactory geometryFactory) {
+                                GeometryFactory geometryFactory,
+                                SensorCredentialCache sensorCredentialCache,
+                                AvailabilityCounterService availabilityCounterService) {
         this.parkingLotRepository = parkingLotRepository;
         this.parkingSpaceRepository = parkingSpaceRepository;
         this.reviewRepository = reviewRepository;
         this.geometryFactory = geometryFactory;
+        this.sensorCredentialCache = sensorCredentialCache;
+        this.availabilityCounterService = availabilityCounterService;
     }
 
     @Override
@@ -111,8 +119,10 @@ public class ParkingLotServiceImpl implements ParkingLotService {
         ParkingLot parkingLot = parkingLotRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Parking lot not found with id: " + id));
 
+        Integer previousCapacity = parkingLot.getCapacity();
         updateParkingLotFields(parkingLot, parkingLotRegistrationDTO);
-        parkingLot = parkingLotRepository.save(parkingLot);
+        parkingLot = parkingLotRepository.saveAndFlush(parkingLot);
+        applyAvailableSpaces(parkingLot, previousCapacity, parkingLotRegistrationDTO.availableSpaces());
         return mapToResponseDTO(parkingLot);
     }
 
@@ -121,8 +131,10 @@ public class ParkingLotServiceImpl implements ParkingLotService {
         ParkingLot parkingLot = parkingLotRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Parking lot not found with id: " + id));
 
+        Integer previousCapacity = parkingLot.getCapacity();
         patchParkingLotFields(parkingLot, parkingLotRegistrationDTO);
-        parkingLot = parkingLotRepository.save(parkingLot);
+        parkingLot = parkingLotRepository.saveAndFlush(parkingLot);
+        applyAvailableSpaces(parkingLot, previousCapacity, parkingLotRegistrationDTO.availableSpaces());
         return mapToResponseDTO(parkingLot);
     }
 
@@ -132,6 +144,22 @@ public class ParkingLotServiceImpl implements ParkingLotService {
             throw new ResourceNotFoundException("Parking lot not found with id: " + id);
         }
         parkingLotRepository.deleteById(id);
+        sensorCredentialCache.invalidateLot(id);
+        availabilityCounterService.evict(id);
+    }
+
+    /**
+     * The counters own a lot's free count, so an admin-supplied value is handed to them instead of
+     * being saved with the entity. A new capacity is picked up by recounting the lot.
+     */
+    private void applyAvailableSpaces(ParkingLot parkingLot, Integer previousCapacity, Integer availableSpaces) {
+        Long lotId = parkingLot.getId();
+        if (!Objects.equals(previousCapacity, parkingLot.getCapacity())) {
+            parkingLot.setAvailableSpaces((int) availabilityCounterService.recount(lotId));
+        }
+        if (availableSpaces != null) {
+            parkingLot.setAvailableSpaces((int) availabilityCounterService.correct(lotId, availableSpaces));
+        }
     }
 
     private void updateParkingLotFields(ParkingLot parkingLot, ParkingLotRegistrationDTO dto) {
@@ -158,7 +186,6 @@ public class ParkingLotServiceImpl implements ParkingLotService {
         parkingLot.setHasDisabledAccess(dto.hasDisabledAccess());
         parkingLot.setHasCctv(dto.hasCctv());
         parkingLot.setCapacity(dto.capacity());
-        parkingLot.setAvailableSpaces(dto.availableSpaces());
         if (dto.latitude() != null && dto.longitude() != null) {
             parkingLot.setLocation(
                     geometryFactory.createPoint(new Coordinate(dto.latitude(), dto.longitude()))
@@ -182,7 +209,6 @@ public class ParkingLotServiceImpl implements ParkingLotService {
         parkingLot.setHasDisabledAccess(dto.hasDisabledAccess());
         parkingLot.setHasCctv(dto.hasCctv());
         parkingLot.setCapacity(dto.capacity());
-        parkingLot.setAvailableSpaces(dto.availableSpaces());
         if (dto.latitude() != null && dto.longitude() != null) {
             parkingLot.setLocation(
                     geometryFactory.createPoint(new Coordinate(dto.latitude(), dto.longitude()))
@@ -252,6 +278,9 @@ public class ParkingLotServiceImpl implements ParkingLotService {
             // Save the parking space
             parkingSpaceRepository.save(parkingSpace);
         }
+        // Recount so the new spaces are included; the count reads parking_spaces directly
+        parkingSpaceRepository.flush();
+        availabilityCounterService.recount(parkingLot.getId());
     }
 
     /**
@@ -356,7 +385,7 @@ public class ParkingLotServiceImpl implements ParkingLotService {
     @Override
     @Transactional(readOnly = true)
     public Integer getAvailableSpacesCount(Long lotId) {
-        return parkingSpaceRepository.findAvailableSpacesByLotId(lotId).size();
+        return (int) availabilityCounterService.getAvailableSpaces(lotId);
     }
     
     @Override
@@ -391,14 +420,12 @@ public class ParkingLotServiceImpl implements ParkingLotService {
     @Override
     @Transactional
     public void updateParkingLotAvailability(Long lotId) {
-        ParkingLot parkingLot = parkingLotRepository.findById(lotId)
-                .orElseThrow(() -> new ResourceNotFoundException("Parking lot not found with id: " + lotId));
-        
-        Integer availableSpaces = getAvailableSpacesCount(lotId);
-        parkingLot.setAvailableSpaces(availableSpaces);
-        parkingLot.setAvailabilityUpdatedAt(Instant.now());
+        if (!parkingLotRepository.existsById(lotId)) {
+            throw new ResourceNotFoundException("Parking lot not found with id: " + lotId);
+        }
         
-        parkingLotRepository.save(parkingLot);
+        // Explicit resync: recount from parking_spaces; the counters write the column
+        Integer availableSpaces = (int) availabilityCounterService.recount(lotId);
         
         logger.info("Updated availability for parking lot {}: {} available spaces", lotId, availableSpaces);
     }
@@ -1,12 +1,15 @@
 package com.tirana.smartparking.parking.service.implementation;
 
 import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
 import com.tirana.smartparking.parking.dto.*;
 import com.tirana.smartparking.parking.entity.ParkingSpace;
 import com.tirana.smartparking.parking.entity.Review;
 import com.tirana.smartparking.parking.repository.ParkingLotRepository;
 import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
 import com.tirana.smartparking.parking.repository.ReviewRepository;
+import com.tirana.smartparking.parking.sensor.cache.SensorCredentialCache;
+import com.tirana.smartparking.parking.sensor.entity.SensorDevice;
 import com.tirana.smartparking.parking.sensor.repository.SensorDeviceRepository;
 import com.tirana.smartparking.parking.service.ParkingSpaceService;
 import org.locationtech.jts.geom.Coordinate;
@@ -34,17 +37,23 @@ public class ParkingSpaceServiceImpl implements ParkingSpaceService {
     private final SensorDeviceRepository sensorRepository;
     private final ParkingSpaceRepository parkingSpaceRepository;
     private final ReviewRepository reviewRepository;
+    private final SensorCredentialCache sensorCredentialCache;
+    private final AvailabilityCounterService availabilityCounterService;
 
     public ParkingSpaceServiceImpl(ParkingLotRepository parkingLotRepository, 
                                   GeometryFactory geometryFactory, 
                                   SensorDeviceRepository sensorRepository, 
                                   ParkingSpaceRepository parkingSpaceRepository,
-                                  ReviewRepository reviewRepository) {
+                                  ReviewRepository reviewRepository,
+                                  SensorCredentialCache sensorCredentialCache,
+                                  AvailabilityCounterService availabilityCounterService) {
         this.parkingLotRepository = parkingLotRepository;
         this.geometryFactory = geometryFactory;
         this.sensorRepository = sensorRepository;
         this.parkingSpaceRepository = parkingSpaceRepository;
         this.reviewRepository = reviewRepository;
+        this.sensorCredentialCache = sensorCredentialCache;
+        this.availabilityCounterService = availabilityCounterService;
     }
 
     @Override
@@ -78,11 +87,18 @@ public class ParkingSpaceServiceImpl implements ParkingSpaceService {
         parkingSpace.setDescription(parkingSpaceRegistrationDTO.description());
 
         if (parkingSpaceRegistrationDTO.sensorId() != null) {
-            parkingSpace.setSensorDevice(sensorRepository.findById(parkingSpaceRegistrationDTO.sensorId())
-                    .orElseThrow(() -> new IllegalArgumentException("Sensor not found")));
+            SensorDevice sensorDevice = sensorRepository.findById(parkingSpaceRegistrationDTO.sensorId())
+                    .orElseThrow(() -> new IllegalArgumentException("Sensor not found"));
+            parkingSpace.setSensorDevice(sensorDevice);
+            // The sensor is now installed on this space, so its cached topology is stale
+            sensorCredentialCache.invalidate(sensorDevice.getDeviceId());
         }
 
-        return mapToParkingSpaceResponseDTO(parkingSpaceRepository.save(parkingSpace));
+        ParkingSpace saved = parkingSpaceRepository.save(parkingSpace);
+        if (saved.getParkingLot() != null) {
+            availabilityCounterService.applyStatus(saved.getParkingLot().getId(), saved.getId(), null, saved.getSpaceStatus());
+        }
+        return mapToParkingSpaceResponseDTO(saved);
     }
     
     // ==================== NEW USER-FACING METHODS ====================
@@ -171,17 +187,16 @@ public class ParkingSpaceServiceImpl implements ParkingSpaceService {
         ParkingSpace parkingSpace = parkingSpaceRepository.findById(spaceId)
                 .orElseThrow(() -> new ResourceNotFoundException("Parking space not found with id: " + spaceId));
         
+        ParkingSpace.SpaceStatus previous = parkingSpace.getSpaceStatus();
         parkingSpace.setSpaceStatus(status);
         parkingSpace.setLastStatusChangedAt(Instant.now());
         
-        parkingSpaceRepository.save(parkingSpace);
+        // Flushed first so the space row is locked before the lot row, as on the sensor path
+        parkingSpaceRepository.saveAndFlush(parkingSpace);
         
-        // Update the parent parking lot's availability
+        // Update the parent parking lot's counter
         if (parkingSpace.getParkingLot() != null) {
-            // This would need to be injected or called differently in a real implementation
-            // For now, we'll just log it
-            logger.info("Parking space {} status updated to {}, should update lot {} availability", 
-                       spaceId, status, parkingSpace.getParkingLot().getId());
+            availabilityCounterService.applyStatus(parkingSpace.getParkingLot().getId(), spaceId, previous, status);
         }
         
         logger.info("Updated status for parking space {}: {}", spaceId, status);
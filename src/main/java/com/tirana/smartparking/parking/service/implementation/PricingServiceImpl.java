@@ -4,165 +4,124 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tirana.smartparking.common.dto.Money;
 import com.tirana.smartparking.common.exception.ResourceNotFoundException;
-import com.tirana.smartparking.common.util.VisitSlice;
-import com.tirana.smartparking.common.util.VisitSlicer;
+import com.tirana.smartparking.parking.dto.PricingBatchQuoteResultDTO;
+import com.tirana.smartparking.parking.dto.PricingQuoteDTO;
+import com.tirana.smartparking.parking.dto.PricingQuoteResultDTO;
 import com.tirana.smartparking.parking.entity.Enum.UserGroup;
 import com.tirana.smartparking.parking.entity.Enum.VehicleType;
-import com.tirana.smartparking.parking.entity.LotRateAssignment;
-import com.tirana.smartparking.parking.entity.RatePlan;
-import com.tirana.smartparking.parking.entity.RateRule;
-import com.tirana.smartparking.parking.entity.SpaceRateOverride;
-import com.tirana.smartparking.parking.repository.LotRateAssignmentRepository;
-import com.tirana.smartparking.parking.repository.RateRuleRepository;
-import com.tirana.smartparking.parking.repository.SpaceRateOverrideRepository;
+import com.tirana.smartparking.parking.pricing.CompiledRatePlan;
+import com.tirana.smartparking.parking.pricing.PricingKernel;
+import com.tirana.smartparking.parking.pricing.RatePlanCache;
 import com.tirana.smartparking.parking.service.PricingService;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 @Service
 public class PricingServiceImpl implements PricingService {
-  private final LotRateAssignmentRepository lotRatesRepository;
-  private final SpaceRateOverrideRepository spaceRatesRepository;
-  private final RateRuleRepository rulesRepository;
-
-    public PricingServiceImpl(LotRateAssignmentRepository lotRatesRepository, SpaceRateOverrideRepository spaceRatesRepository, RateRuleRepository rulesRepository) {
-        this.lotRatesRepository = lotRatesRepository;
-        this.spaceRatesRepository = spaceRatesRepository;
-        this.rulesRepository = rulesRepository;
+  private static final ObjectMapper BREAKDOWN_MAPPER = new ObjectMapper();
+  private static final int MAX_BATCH_SIZE = 200;
+
+  private final RatePlanCache ratePlanCache;
+
+    public PricingServiceImpl(RatePlanCache ratePlanCache) {
+        this.ratePlanCache = ratePlanCache;
     }
 
 
     public Money quote(Long lotId, Long spaceId, VehicleType vt, UserGroup ug,
                        ZonedDateTime start, ZonedDateTime end) {
-    RatePlan plan = resolvePlan(lotId, spaceId, start, end);
-    ZoneId zone = ZoneId.of(plan.getTimeZone());
+    return quote(ratePlanCache.resolve(lotId, spaceId, start), vt, ug, start, end);
+  }
+
+  /**
+   * Prices a visit against an already resolved plan.
+   */
+  public Money quote(CompiledRatePlan plan, VehicleType vt, UserGroup ug,
+                     ZonedDateTime start, ZonedDateTime end) {
+    ZoneId zone = plan.zone();
     ZonedDateTime s = start.withZoneSameInstant(zone);
     ZonedDateTime e = end.withZoneSameInstant(zone);
 
     long minutes = Duration.between(s, e).toMinutes();
-    if (plan.getGraceMinutes() != null && minutes <= plan.getGraceMinutes()) {
-      return Money.zero(plan.getCurrency());
+    if (plan.graceMinutes() != null && minutes <= plan.graceMinutes()) {
+      return Money.zero(plan.currency());
     }
 
-    // Fetch rules once
-    List<RateRule> planRules = rulesRepository.findByRatePlanId(plan.getId());
-
     // Split visit into day/time slices & compute
-    int increment = Optional.ofNullable(plan.getIncrementMinutes()).orElse(1);
-    int total = 0;
-    Map<String,Integer> lines = new LinkedHashMap<>();
-
-    for (VisitSlice slice : VisitSlicer.sliceByDayAndTime(s, e, planRules, zone)) {
-      RateRule r = slice.matchedRule(vt, ug).orElse(null);
-      if (r == null) continue;
-
-      int billedMinutes = roundUp(slice.minutes(), increment);
-      int sliceAmount = switch (plan.getType()) {
-        case FLAT_PER_ENTRY -> Optional.ofNullable(r.getPriceFlat()).orElse(0);
-        case PER_HOUR, TIME_OF_DAY, DAY_OF_WEEK -> perHour(billedMinutes, r.getPricePerHour());
-        case TIERED -> applyTiers(slice.relativeMinutesFromStart(), billedMinutes, planRules);
-        case FREE -> 0;
-        case DYNAMIC -> dynamicPrice(slice, vt, ug); // your hook for occupancy-based pricing
-      };
-
-      String key = slice.label();
-      lines.put(key, lines.getOrDefault(key, 0) + sliceAmount);
-      total += sliceAmount;
-
-      // optional: enforce daily caps by slice.getDay()
-      if (plan.getDailyCap()!=null) {
-        int daySpent = sumForDay(lines, slice.getDay());
-        if (daySpent > plan.getDailyCap()) {
-          int reduce = daySpent - plan.getDailyCap();
-          total -= reduce;
-          lines.put("Daily cap " + slice.getDay(), plan.getDailyCap());
-        }
-      }
-    }
+    Breakdown breakdown = new Breakdown(plan.dailyCap());
+    plan.kernel().quote(vt, ug, s, e, breakdown);
 
     // Return money (minor units)
-    return new Money(plan.getCurrency(), total, toJson(lines));
+    return new Money(plan.currency(), breakdown.total, toJson(breakdown.lines));
   }
 
-  // helpers...
-  
-  private RatePlan resolvePlan(Long lotId, Long spaceId, ZonedDateTime start, ZonedDateTime end) {
-    // Check for space-specific overrides first (the highest priority)
-    if (spaceId != null) {
-      List<SpaceRateOverride> spaceOverrides = spaceRatesRepository.findActiveOverridesForSpace(spaceId, start);
-      if (!spaceOverrides.isEmpty()) {
-        return spaceOverrides.getFirst().getRatePlan(); // Highest priority first
-      }
-    }
-    
-    // Fall back to lot-level assignments (only if lotId is provided)
-    if (lotId != null) {
-      List<LotRateAssignment> lotAssignments = lotRatesRepository.findActiveAssignmentsForLot(lotId, start);
-      System.out.println("Lot assignments: " + lotAssignments);
-      if (!lotAssignments.isEmpty()) {
-        return lotAssignments.getFirst().getRatePlan(); // Highest priority first
-      }
+  @Override
+  public PricingBatchQuoteResultDTO quoteAll(List<PricingQuoteDTO> requests) {
+    if (requests == null || requests.isEmpty()) {
+      throw new IllegalArgumentException("Quote batch must contain at least one quote");
     }
-    
-    // If we have a space but no lot, and no space-specific rates, throw an error
-    if (spaceId != null && lotId == null) {
-      throw new ResourceNotFoundException("No rate plan found for standalone parking space " + spaceId + ". Please assign a rate plan to this space.");
+    if (requests.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("Quote batch cannot contain more than " + MAX_BATCH_SIZE + " quotes");
     }
-    
-    throw new ResourceNotFoundException("No rate plan found for lot " + lotId + " and space " + spaceId);
-  }
-  
-  private int roundUp(long minutes, int increment) {
-    if (increment <= 0) return (int) minutes;
-    return (int) ((minutes + increment - 1) / increment) * increment;
-  }
-  
-  private int perHour(int minutes, Integer pricePerHour) {
-    if (pricePerHour == null) return 0;
-    return (int) Math.ceil((double) minutes / 60.0) * pricePerHour;
-  }
-  
-  private int applyTiers(long relativeMinutesFromStart, int billedMinutes, List<RateRule> rules) {
-    // Find applicable tier rules based on relative time from session start
-    for (RateRule rule : rules) {
-      if (rule.getStartMinute() != null && rule.getEndMinute() != null) {
-        if (relativeMinutesFromStart >= rule.getStartMinute() && 
-            relativeMinutesFromStart < rule.getEndMinute()) {
-          if (rule.getPriceFlat() != null) {
-            return rule.getPriceFlat();
-          } else if (rule.getPricePerHour() != null) {
-            return perHour(billedMinutes, rule.getPricePerHour());
-          }
-        }
+
+    Map<PlanKey, CompiledRatePlan> plans = new HashMap<>();
+    Map<QuoteKey, Money> quotes = new HashMap<>();
+    List<PricingQuoteResultDTO> results = new ArrayList<>(requests.size());
+    int quoted = 0;
+    for (int i = 0; i < requests.size(); i++) {
+      PricingQuoteDTO request = requests.get(i);
+      try {
+        validate(request);
+        // Lot plans do not depend on the time, space overrides do
+        PlanKey planKey = new PlanKey(request.parkingLotId(), request.parkingSpaceId(),
+            request.parkingSpaceId() != null ? request.startTime().toInstant() : null);
+        CompiledRatePlan plan = plans.computeIfAbsent(planKey,
+            key -> ratePlanCache.resolve(request.parkingLotId(), request.parkingSpaceId(), request.startTime()));
+        QuoteKey quoteKey = new QuoteKey(plan.id(), plan.version(), request.vehicleType(), request.userGroup(),
+            request.startTime().toInstant(), request.endTime().toInstant());
+        Money quote = quotes.computeIfAbsent(quoteKey,
+            key -> quote(plan, request.vehicleType(), request.userGroup(), request.startTime(), request.endTime()));
+        results.add(new PricingQuoteResultDTO(i, request.parkingLotId(), request.parkingSpaceId(), quote, null));
+        quoted++;
+      } catch (ResourceNotFoundException | IllegalArgumentException e) {
+        results.add(new PricingQuoteResultDTO(i,
+            request != null ? request.parkingLotId() : null,
+            request != null ? request.parkingSpaceId() : null,
+            null, e.getMessage()));
       }
     }
-    return 0;
+    return new PricingBatchQuoteResultDTO(requests.size(), quoted, requests.size() - quoted, results);
   }
+
+  // helpers...
   
-  private int dynamicPrice(VisitSlice slice, VehicleType vt, UserGroup ug) {
-    // Placeholder for dynamic pricing logic
-    // This could integrate with occupancy sensors, demand forecasting, etc.
-    return 0;
+  private void validate(PricingQuoteDTO request) {
+    if (request == null) {
+      throw new IllegalArgumentException("Quote is empty");
+    }
+    if (!request.isLotOrSpaceProvided()) {
+      throw new IllegalArgumentException("Either parkingLotId or parkingSpaceId must be provided");
+    }
+    if (request.vehicleType() == null || request.userGroup() == null
+        || request.startTime() == null || request.endTime() == null) {
+      throw new IllegalArgumentException("Vehicle type, user group, start time and end time are required");
+    }
   }
   
-  private int sumForDay(Map<String, Integer> lines, java.time.LocalDate day) {
-    return lines.entrySet().stream()
-        .filter(entry -> entry.getKey().contains(day.toString()))
-        .mapToInt(Map.Entry::getValue)
-        .sum();
-  }
   
   private String toJson(Map<String, Integer> lines) {
     try {
-      ObjectMapper mapper = new ObjectMapper();
-      return mapper.writeValueAsString(lines);
+      return BREAKDOWN_MAPPER.writeValueAsString(lines);
     } catch (JsonProcessingException e) {
       return "{}";
     }
@@ -170,7 +129,74 @@ public class PricingServiceImpl implements PricingService {
   
   @Override
   public Integer getGraceMinutes(Long lotId, Long spaceId, ZonedDateTime startTime) {
-    RatePlan plan = resolvePlan(lotId, spaceId, startTime, startTime.plusMinutes(1));
-    return plan.getGraceMinutes();
+    return ratePlanCache.resolve(lotId, spaceId, startTime).graceMinutes();
+  }
+
+  private record PlanKey(Long lotId, Long spaceId, Instant start) {
+  }
+
+  private record QuoteKey(Long planId, long planVersion, VehicleType vehicleType, UserGroup userGroup,
+                          Instant start, Instant end) {
+  }
+
+  /**
+   * Collects the priced slices into breakdown lines keyed by day and time range, and applies
+   * the plan's daily cap as slices come in. Each day keeps a running total of its slices, so a
+   * long stay costs the same per slice as a short visit.
+   */
+  private static final class Breakdown implements PricingKernel.SliceConsumer {
+    private final Integer dailyCap;
+    private final Map<String, Integer> lines = new LinkedHashMap<>();
+    private final Map<Long, DayTotal> days = new HashMap<>();
+    private DayTotal current;
+    private int total;
+
+    Breakdown(Integer dailyCap) {
+      this.dailyCap = dailyCap;
+    }
+
+    @Override
+    public void accept(long epochDay, int startSecondOfDay, int endSecondOfDay, int amount) {
+      DayTotal day = day(epochDay);
+      String key = String.format("%s %02d:%02d-%02d:%02d",
+          day.date,
+          startSecondOfDay / 3600, startSecondOfDay / 60 % 60,
+          endSecondOfDay / 3600, endSecondOfDay / 60 % 60);
+      lines.merge(key, amount, Integer::sum);
+      total += amount;
+      day.slices += amount;
+
+      // optional: enforce daily caps by day
+      if (dailyCap != null) {
+        // The day's cap line counts towards the day once it is there, as it always has
+        int daySpent = day.slices + (day.capped ? dailyCap : 0);
+        if (daySpent > dailyCap) {
+          int reduce = daySpent - dailyCap;
+          total -= reduce;
+          lines.put("Daily cap " + day.date, dailyCap);
+          day.capped = true;
+        }
+      }
+    }
+
+    private DayTotal day(long epochDay) {
+      // Slices arrive in time order, so this is nearly always the day before
+      if (current == null || current.epochDay != epochDay) {
+        current = days.computeIfAbsent(epochDay, DayTotal::new);
+      }
+      return current;
+    }
+  }
+
+  private static final class DayTotal {
+    private final long epochDay;
+    private final String date;
+    private int slices;
+    private boolean capped;
+
+    DayTotal(long epochDay) {
+      this.epochDay = epochDay;
+      this.date = LocalDate.ofEpochDay(epochDay).toString();
+    }
   }
 }
@@ -10,6 +10,7 @@ import com.tirana.smartparking.parking.entity.LotRateAssignment;
 import com.tirana.smartparking.parking.entity.RatePlan;
 import com.tirana.smartparking.parking.entity.RateRule;
 import com.tirana.smartparking.parking.entity.SpaceRateOverride;
+import com.tirana.smartparking.parking.pricing.RatePlanCache;
 import com.tirana.smartparking.parking.repository.LotRateAssignmentRepository;
 import com.tirana.smartparking.parking.repository.ParkingLotRepository;
 import com.tirana.smartparking.parking.repository.ParkingSpaceRepository;
@@ -24,6 +25,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
 
 @Service
@@ -37,6 +39,7 @@ public class RateManagementServiceImpl implements RateManagementService {
     private final ParkingLotRepository parkingLotRepository;
     private final ParkingSpaceRepository parkingSpaceRepository;
     private final PricingService pricingService;
+    private final RatePlanCache ratePlanCache;
     
     public RateManagementServiceImpl(
             RatePlanRepository ratePlanRepository,
@@ -45,7 +48,8 @@ public class RateManagementServiceImpl implements RateManagementService {
             SpaceRateOverrideRepository spaceRateOverrideRepository,
             ParkingLotRepository parkingLotRepository,
             ParkingSpaceRepository parkingSpaceRepository,
-            PricingService pricingService) {
+            PricingService pricingService,
+            RatePlanCache ratePlanCache) {
         this.ratePlanRepository = ratePlanRepository;
         this.rateRuleRepository = rateRuleRepository;
         this.lotRateAssignmentRepository = lotRateAssignmentRepository;
@@ -53,6 +57,7 @@ public class RateManagementServiceImpl implements RateManagementService {
         this.parkingLotRepository = parkingLotRepository;
         this.parkingSpaceRepository = parkingSpaceRepository;
         this.pricingService = pricingService;
+        this.ratePlanCache = ratePlanCache;
     }
     
     // Rate Plan operations
@@ -73,6 +78,7 @@ public class RateManagementServiceImpl implements RateManagementService {
         ratePlan.setActive(registrationDTO.active() != null ? registrationDTO.active() : true);
 
         RatePlan saved = ratePlanRepository.save(ratePlan);
+        ratePlanCache.invalidatePlan(saved.getId());
         return mapToRatePlanDTO(saved);
     }
 
@@ -105,6 +111,7 @@ public class RateManagementServiceImpl implements RateManagementService {
             throw new ResourceNotFoundException("Rate plan not found with id: " + id);
         }
         ratePlanRepository.deleteById(id);
+        ratePlanCache.invalidatePlan(id);
     }
     
     // Rate Rule operations
@@ -115,6 +122,10 @@ public class RateManagementServiceImpl implements RateManagementService {
     }
 
     private RateRuleDTO getRateRuleDTO(RateRuleRegistrationDTO registrationDTO, RateRule rateRule) {
+        // A rule moved to another plan changes both plans
+        if (rateRule.getRatePlan() != null) {
+            ratePlanCache.invalidatePlan(rateRule.getRatePlan().getId());
+        }
         rateRule.setRatePlan(ratePlanRepository.findById(registrationDTO.ratePlanId())
                 .orElseThrow(() -> new ResourceNotFoundException("Rate plan not found with id: " + registrationDTO.ratePlanId())));
         rateRule.setStartMinute(registrationDTO.startMinute());
@@ -128,6 +139,7 @@ public class RateManagementServiceImpl implements RateManagementService {
         rateRule.setPriceFlat(registrationDTO.priceFlat());
 
         RateRule saved = rateRuleRepository.save(rateRule);
+        ratePlanCache.invalidatePlan(saved.getRatePlan().getId());
         return mapToRateRuleDTO(saved);
     }
 
@@ -163,10 +175,10 @@ public class RateManagementServiceImpl implements RateManagementService {
     
     @Override
     public void deleteRateRule(Long id) {
-        if (!rateRuleRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Rate rule not found with id: " + id);
-        }
-        rateRuleRepository.deleteById(id);
+        RateRule rateRule = rateRuleRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Rate rule not found with id: " + id));
+        rateRuleRepository.delete(rateRule);
+        ratePlanCache.invalidatePlan(rateRule.getRatePlan().getId());
     }
     
     // Lot Rate Assignment operations
@@ -185,6 +197,9 @@ public class RateManagementServiceImpl implements RateManagementService {
     }
 
     private LotRateAssignmentDTO getLotRateAssignmentDTO(LotRateAssignmentRegistrationDTO registrationDTO, LotRateAssignment assignment) {
+        if (assignment.getLot() != null) {
+            ratePlanCache.invalidateLot(assignment.getLot().getId());
+        }
         assignment.setLot(parkingLotRepository.findById(registrationDTO.parkingLotId())
                 .orElseThrow(() -> new ResourceNotFoundException("Parking lot not found with id: " + registrationDTO.parkingLotId())));
         assignment.setRatePlan(ratePlanRepository.findById(registrationDTO.ratePlanId())
@@ -194,6 +209,7 @@ public class RateManagementServiceImpl implements RateManagementService {
         assignment.setEffectiveTo(registrationDTO.effectiveTo());
 
         LotRateAssignment saved = lotRateAssignmentRepository.save(assignment);
+        ratePlanCache.invalidateLot(saved.getLot().getId());
         return mapToLotRateAssignmentDTO(saved);
     }
 
@@ -229,10 +245,10 @@ public class RateManagementServiceImpl implements RateManagementService {
     
     @Override
     public void deleteLotRateAssignment(Long id) {
-        if (!lotRateAssignmentRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Lot rate assignment not found with id: " + id);
-        }
-        lotRateAssignmentRepository.deleteById(id);
+        LotRateAssignment assignment = lotRateAssignmentRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Lot rate assignment not found with id: " + id));
+        lotRateAssignmentRepository.delete(assignment);
+        ratePlanCache.invalidateLot(assignment.getLot().getId());
     }
     
     // Space Rate Override operations
@@ -251,6 +267,9 @@ public class RateManagementServiceImpl implements RateManagementService {
     }
 
     private SpaceRateOverrideDTO getSpaceRateOverrideDTO(SpaceRateOverrideRegistrationDTO registrationDTO, SpaceRateOverride override) {
+        if (override.getSpace() != null) {
+            ratePlanCache.invalidateSpace(override.getSpace().getId());
+        }
         override.setSpace(parkingSpaceRepository.findById(registrationDTO.parkingSpaceId())
                 .orElseThrow(() -> new ResourceNotFoundException("Parking space not found with id: " + registrationDTO.parkingSpaceId())));
         override.setRatePlan(ratePlanRepository.findById(registrationDTO.ratePlanId())
@@ -260,6 +279,7 @@ public class RateManagementServiceImpl implements RateManagementService {
         override.setEffectiveTo(registrationDTO.effectiveTo());
 
         SpaceRateOverride saved = spaceRateOverrideRepository.save(override);
+        ratePlanCache.invalidateSpace(saved.getSpace().getId());
         return mapToSpaceRateOverrideDTO(saved);
     }
 
@@ -295,10 +315,10 @@ public class RateManagementServiceImpl implements RateManagementService {
     
     @Override
     public void deleteSpaceRateOverride(Long id) {
-        if (!spaceRateOverrideRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Space rate override not found with id: " + id);
-        }
-        spaceRateOverrideRepository.deleteById(id);
+        SpaceRateOverride override = spaceRateOverrideRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Space rate override not found with id: " + id));
+        spaceRateOverrideRepository.delete(override);
+        ratePlanCache.invalidateSpace(override.getSpace().getId());
     }
     
     // Pricing operations
@@ -315,6 +335,12 @@ public class RateManagementServiceImpl implements RateManagementService {
         );
     }
     
+    @Override
+    @Transactional(readOnly = true)
+    public PricingBatchQuoteResultDTO getPricingQuotes(List<PricingQuoteDTO> quoteDTOs) {
+        return pricingService.quoteAll(quoteDTOs);
+    }
+    
     @Override
     @Transactional(readOnly = true)
     public Money getStandaloneSpacePricingQuote(Long spaceId, VehicleType vehicleType, UserGroup userGroup,
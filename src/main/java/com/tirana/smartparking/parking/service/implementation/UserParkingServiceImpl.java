@@ -1,6 +1,7 @@
 package com.tirana.smartparking.parking.service.implementation;
 
 import com.tirana.smartparking.common.exception.ResourceNotFoundException;
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
 import com.tirana.smartparking.parking.dto.*;
 import com.tirana.smartparking.parking.entity.ParkingLot;
 import com.tirana.smartparking.parking.entity.ParkingSpace;
@@ -33,15 +34,18 @@ public class UserParkingServiceImpl implements UserParkingService {
     private final ParkingSpaceRepository parkingSpaceRepository;
     private final ReviewRepository reviewRepository;
     private final GeometryFactory geometryFactory;
+    private final AvailabilityCounterService availabilityCounterService;
     
     public UserParkingServiceImpl(ParkingLotRepository parkingLotRepository,
                                  ParkingSpaceRepository parkingSpaceRepository,
                                  ReviewRepository reviewRepository,
-                                 GeometryFactory geometryFactory) {
+                                 GeometryFactory geometryFactory,
+                                 AvailabilityCounterService availabilityCounterService) {
         this.parkingLotRepository = parkingLotRepository;
         this.parkingSpaceRepository = parkingSpaceRepository;
         this.reviewRepository = reviewRepository;
         this.geometryFactory = geometryFactory;
+        this.availabilityCounterService = availabilityCounterService;
     }
     
     @Override
@@ -162,7 +166,7 @@ public class UserParkingServiceImpl implements UserParkingService {
     
     @Override
     public Integer getAvailableSpacesCount(Long lotId) {
-        return parkingSpaceRepository.findAvailableSpacesByLotId(lotId).size();
+        return (int) availabilityCounterService.getAvailableSpaces(lotId);
     }
     
     @Override
@@ -194,14 +198,12 @@ public class UserParkingServiceImpl implements UserParkingService {
     @Override
     @Transactional
     public void updateParkingLotAvailability(Long lotId) {
-        ParkingLot parkingLot = parkingLotRepository.findById(lotId)
-                .orElseThrow(() -> new ResourceNotFoundException("Parking lot not found with id: " + lotId));
-        
-        Integer availableSpaces = getAvailableSpacesCount(lotId);
-        parkingLot.setAvailableSpaces(availableSpaces);
-        parkingLot.setAvailabilityUpdatedAt(Instant.now());
+        if (!parkingLotRepository.existsById(lotId)) {
+            throw new ResourceNotFoundException("Parking lot not found with id: " + lotId);
+        }
         
-        parkingLotRepository.save(parkingLot);
+        // Explicit resync: recount from parking_spaces; the counters write the column
+        Integer availableSpaces = (int) availabilityCounterService.recount(lotId);
         
         logger.info("Updated availability for parking lot {}: {} available spaces", lotId, availableSpaces);
     }
@@ -212,14 +214,16 @@ public class UserParkingServiceImpl implements UserParkingService {
         ParkingSpace parkingSpace = parkingSpaceRepository.findById(spaceId)
                 .orElseThrow(() -> new ResourceNotFoundException("Parking space not found with id: " + spaceId));
         
+        ParkingSpace.SpaceStatus previous = parkingSpace.getSpaceStatus();
         parkingSpace.setSpaceStatus(status);
         parkingSpace.setLastStatusChangedAt(Instant.now());
         
-        parkingSpaceRepository.save(parkingSpace);
+        // Flushed first so the space row is locked before the lot row, as on the sensor path
+        parkingSpaceRepository.saveAndFlush(parkingSpace);
         
-        // Update the parent parking lot's availability
+        // Update the parent parking lot's counter
         if (parkingSpace.getParkingLot() != null) {
-            updateParkingLotAvailability(parkingSpace.getParkingLot().getId());
+            availabilityCounterService.applyStatus(parkingSpace.getParkingLot().getId(), spaceId, previous, status);
         }
         
         logger.info("Updated status for parking space {}: {}", spaceId, status);
@@ -0,0 +1,154 @@
+package com.tirana.smartparking.parking.availability;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fan-out benchmark for {@link AvailabilityStream}: registers 10,000 subscribers (by default)
+ * spread over a few lots and publishes a steady stream of updates. A share of the subscribers
+ * take several milliseconds per send, like mobile clients on a poor link. The benchmark reports
+ * what the publishing thread pays per publish, how long delivery takes end to end, and how many
+ * slow subscribers were evicted:
+ * <pre>
+ *   AvailabilityStreamFanOutBenchmark [subscribers] [lots] [publishes] [slowSubscribers] [slowSendMs]
+ * </pre>
+ * Emitters only count what they receive; no sockets are involved, so the numbers are the cost of
+ * the stream itself. Coalescing is switched off so every publish is fanned out.
+ */
+public class AvailabilityStreamFanOutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int lots = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int publishes = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int slowSubscribers = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        long slowSendMs = args.length > 4 ? Long.parseLong(args[4]) : 20;
+
+        AvailabilityStream stream = new AvailabilityStream(new SimpleMeterRegistry(), 16, 8, 32, 0, 16, 300_000, 15_000, 0, 0, 0, false);
+        stream.start();
+
+        long[] publishedAt = new long[publishes];
+        LongAdder received = new LongAdder();
+        LatencyLog lag = new LatencyLog();
+        for (int i = 0; i < subscribers; i++) {
+            long delayMs = i < slowSubscribers ? slowSendMs : 0;
+            stream.register(null, (long) (i % lots), new CountingEmitter(publishedAt, received, lag, delayMs));
+        }
+
+        // Publish round-robin over the lots at roughly 1,000 updates/s, like a busy ingestion node
+        long[] publishCost = new long[publishes];
+        long start = System.nanoTime();
+        for (int n = 0; n < publishes; n++) {
+            long target = start + TimeUnit.MILLISECONDS.toNanos(n);
+            while (System.nanoTime() < target) {
+                Thread.onSpinWait();
+            }
+            long before = System.nanoTime();
+            publishedAt[n] = before;
+            stream.publish((long) (n % lots), n);
+            publishCost[n] = System.nanoTime() - before;
+        }
+
+        // Done once deliveries stop moving
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long last = -1;
+        while (received.sum() != last && System.nanoTime() < deadline) {
+            last = received.sum();
+            Thread.sleep(200);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long evictedSlow = stream.stats().evictedSlow();
+        stream.stop();
+
+        Arrays.sort(publishCost);
+        long[] lags = lag.sorted();
+        System.out.printf("%d subscribers over %d lots (%d slow at %dms/send), %d publishes%n",
+                subscribers, lots, slowSubscribers, slowSendMs, publishes);
+        System.out.printf("delivered %d updates in %.2fs (%.0f/s), evicted %d slow subscribers%n",
+                received.sum(), seconds, received.sum() / seconds, evictedSlow);
+        System.out.printf("publish() on the caller: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                percentile(publishCost, 0.50), percentile(publishCost, 0.99), percentile(publishCost, 1.0));
+        System.out.printf("publish to send:         p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                percentile(lags, 0.50), percentile(lags, 0.99), percentile(lags, 1.0));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * Emitter that records delivery instead of writing to a response. The published value is the
+     * publish number, which is used to look up when it was published.
+     */
+    private static final class CountingEmitter extends SseEmitter {
+        private final long[] publishedAt;
+        private final LongAdder received;
+        private final LatencyLog lag;
+        private final long delayMs;
+
+        CountingEmitter(long[] publishedAt, LongAdder received, LatencyLog lag, long delayMs) {
+            super(0L);
+            this.publishedAt = publishedAt;
+            this.received = received;
+            this.lag = lag;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            long now = System.nanoTime();
+            for (var part : builder.build()) {
+                if (part.getData() instanceof Long n) {
+                    lag.record(now - publishedAt[n.intValue()]);
+                }
+            }
+            received.increment();
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            // Nothing to release without a response
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            // Nothing to release without a response
+        }
+    }
+
+    private static final class LatencyLog {
+        private final AtomicLong size = new AtomicLong();
+        private final long[] values = new long[1 << 22];
+
+        void record(long nanos) {
+            long index = size.getAndIncrement();
+            if (index < values.length) {
+                values[(int) index] = nanos;
+            }
+        }
+
+        long[] sorted() {
+            long[] copy = Arrays.copyOf(values, (int) Math.min(size.get(), values.length));
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
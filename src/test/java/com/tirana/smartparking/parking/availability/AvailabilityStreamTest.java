@@ -0,0 +1,238 @@
+package com.tirana.smartparking.parking.availability;
+
+import com.tirana.smartparking.parking.availability.dto.AvailabilityUpdateDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AvailabilityStreamTest {
+
+    private static final Long LOT_ID = 1L;
+    private static final int REPLAY_BUFFER_SIZE = 4;
+    private static final long SNAPSHOT_FREE = 42;
+    private static final ToLongFunction<Long> FREE_COUNT = lotId -> SNAPSHOT_FREE;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<AvailabilityStream> streams = new ArrayList<>();
+
+    private AvailabilityStream stream(long replayRetentionMs) {
+        // No coalescing, so every publish is fanned out and buffered at once
+        AvailabilityStream stream = new AvailabilityStream(meterRegistry, 4, 1, 32, 0, REPLAY_BUFFER_SIZE, replayRetentionMs,
+                15_000, 0, 0, 0, true);
+        stream.start();
+        streams.add(stream);
+        return stream;
+    }
+
+    @AfterEach
+    public void stopStreams() {
+        streams.forEach(AvailabilityStream::stop);
+    }
+
+    private static AvailabilityStream.Channel follow(AvailabilityStream stream, Long lotId) {
+        AvailabilityStream.Channel channel = stream.open(null, new CollectingSink());
+        channel.changeLots(Set.of(lotId));
+        return channel;
+    }
+
+    /**
+     * Publishes the free counts to a followed lot and returns their event ids, as its follower got them.
+     */
+    private static List<Long> publish(AvailabilityStream stream, long... free) {
+        CollectingSink sink = new CollectingSink();
+        AvailabilityStream.Channel channel = stream.open(null, sink);
+        channel.changeLots(Set.of(LOT_ID));
+        for (long value : free) {
+            stream.publish(LOT_ID, value);
+        }
+        List<Long> sequences = sink.await(free.length).stream().map(AvailabilityUpdateDTO::sequence).toList();
+        channel.close();
+        return sequences;
+    }
+
+    /**
+     * What a client reconnecting to the lot with this resume point is sent.
+     */
+    private static List<AvailabilityStream.Frame> resume(AvailabilityStream stream, long lastEventId) {
+        CollectingSink sink = new CollectingSink();
+        AvailabilityStream.Channel channel = stream.open(null, sink);
+        channel.changeLots(Set.of(LOT_ID));
+        channel.resume(Set.of(LOT_ID), lastEventId, FREE_COUNT);
+        sink.await(1);
+        channel.close();
+        return List.copyOf(sink.frames);
+    }
+
+    private double resumed(String result) {
+        return meterRegistry.get("availability.stream.resume").tag("result", result).counter().count();
+    }
+
+    private boolean hasLotGauge(Long lotId) {
+        return meterRegistry.find("availability.stream.lot.subscribers").tag("lot", lotId.toString()).gauge() != null;
+    }
+
+    @Test
+    public void testFollowedLotIsNotReleased() {
+        AvailabilityStream stream = stream(0);
+        follow(stream, LOT_ID);
+
+        assertTrue(stream.releaseLots().isEmpty());
+        assertTrue(stream.releaseLots().isEmpty());
+        assertTrue(hasLotGauge(LOT_ID));
+    }
+
+    @Test
+    public void testUnfollowedLotIsReleasedWithItsGauge() {
+        AvailabilityStream stream = stream(0);
+        AvailabilityStream.Channel channel = follow(stream, LOT_ID);
+        channel.close();
+
+        assertEquals(Set.of(LOT_ID), stream.releaseLots());
+        assertFalse(hasLotGauge(LOT_ID));
+        assertEquals(0, stream.stats().lots());
+        assertTrue(stream.releaseLots().isEmpty());
+
+        // Following it again starts over with a new gauge
+        follow(stream, LOT_ID);
+        assertTrue(hasLotGauge(LOT_ID));
+    }
+
+    @Test
+    public void testUnfollowedLotIsKeptForTheRetention() {
+        AvailabilityStream stream = stream(60_000);
+        AvailabilityStream.Channel channel = follow(stream, LOT_ID);
+        channel.close();
+
+        assertTrue(stream.releaseLots().isEmpty());
+        assertTrue(stream.releaseLots().isEmpty());
+        assertTrue(hasLotGauge(LOT_ID));
+    }
+
+    @Test
+    public void testResumeReplaysWhatIsStillBuffered() {
+        AvailabilityStream stream = stream(0);
+        // One more than the buffer holds, so the first is forgotten but nothing after it
+        List<Long> sequences = publish(stream, 10, 9, 8, 7, 6);
+
+        List<AvailabilityStream.Frame> frames = resume(stream, sequences.get(0));
+
+        assertEquals(1, frames.size());
+        assertFalse(frames.get(0).snapshot());
+        assertEquals(List.of(
+                new AvailabilityUpdateDTO(LOT_ID, 9, sequences.get(1)),
+                new AvailabilityUpdateDTO(LOT_ID, 8, sequences.get(2)),
+                new AvailabilityUpdateDTO(LOT_ID, 7, sequences.get(3)),
+                new AvailabilityUpdateDTO(LOT_ID, 6, sequences.get(4))), frames.get(0).updates());
+        assertEquals(1, resumed("replayed"));
+
+        // Up to date already: an empty replay, no snapshot
+        AvailabilityStream.Channel channel = stream.open(null, new CollectingSink());
+        channel.changeLots(Set.of(LOT_ID));
+        channel.resume(Set.of(LOT_ID), sequences.get(4), FREE_COUNT);
+        channel.close();
+        assertEquals(2, resumed("replayed"));
+        assertEquals(0, resumed("snapshot"));
+    }
+
+    @Test
+    public void testResumeSendsSnapshotWhenTheGapOutgrowsTheBuffer() {
+        AvailabilityStream stream = stream(0);
+        List<Long> sequences = publish(stream, 10, 9, 8, 7, 6, 5);
+
+        List<AvailabilityStream.Frame> frames = resume(stream, sequences.get(0));
+
+        assertEquals(1, frames.size());
+        assertTrue(frames.get(0).snapshot());
+        // Stamped with the last id issued, so it supersedes everything the client missed
+        assertEquals(List.of(new AvailabilityUpdateDTO(LOT_ID, SNAPSHOT_FREE, sequences.get(5))), frames.get(0).updates());
+        assertEquals(0, resumed("replayed"));
+        assertEquals(1, resumed("snapshot"));
+    }
+
+    @Test
+    public void testResumeSendsSnapshotForUpdatesFromBeforeTheLotWasFollowed() {
+        AvailabilityStream stream = stream(0);
+        long before = stream.resumePoint(stream.sseId(0));
+        publish(stream, 10);
+
+        List<AvailabilityStream.Frame> frames = resume(stream, before);
+
+        assertTrue(frames.get(0).snapshot());
+        assertEquals(1, resumed("snapshot"));
+    }
+
+    @Test
+    public void testForeignOrGarbageLastEventIdGetsSnapshot() {
+        AvailabilityStream stream = stream(0);
+        AvailabilityStream otherNode = stream(0);
+        List<Long> sequences = publish(stream, 10, 9);
+
+        assertEquals(sequences.get(0), stream.resumePoint(stream.sseId(sequences.get(0))));
+        assertEquals(AvailabilityStream.FOREIGN_EVENT_ID, stream.resumePoint(otherNode.sseId(sequences.get(0))));
+        assertEquals(AvailabilityStream.FOREIGN_EVENT_ID, stream.resumePoint(Long.toString(sequences.get(0))));
+        assertEquals(AvailabilityStream.FOREIGN_EVENT_ID, stream.resumePoint("garbage"));
+        assertEquals(AvailabilityStream.FOREIGN_EVENT_ID, stream.resumePoint(stream.sseId(0) + "x"));
+        assertEquals(AvailabilityStream.FOREIGN_EVENT_ID, stream.resumePoint(stream.sseId(-5)));
+        // Not issued yet, so not from this run
+        assertEquals(AvailabilityStream.FOREIGN_EVENT_ID, stream.resumePoint(stream.sseId(sequences.get(1) + 1)));
+
+        // Everything after the first update is still buffered, but a foreign id cannot be placed
+        List<AvailabilityStream.Frame> frames = resume(stream, AvailabilityStream.FOREIGN_EVENT_ID);
+
+        assertEquals(1, frames.size());
+        assertTrue(frames.get(0).snapshot());
+        assertEquals(List.of(new AvailabilityUpdateDTO(LOT_ID, SNAPSHOT_FREE, sequences.get(1))), frames.get(0).updates());
+        assertEquals(1, resumed("snapshot"));
+    }
+
+    /**
+     * Keeps every frame it is sent.
+     */
+    static final class CollectingSink implements AvailabilityStream.Sink {
+        final List<AvailabilityStream.Frame> frames = new ArrayList<>();
+
+        @Override
+        public synchronized void send(List<AvailabilityStream.Frame> sent) {
+            frames.addAll(sent);
+            notifyAll();
+        }
+
+        /**
+         * Waits for the dispatcher to deliver at least this many updates and returns them in order.
+         */
+        synchronized List<AvailabilityUpdateDTO> await(int updates) {
+            long deadline = System.currentTimeMillis() + 5_000;
+            List<AvailabilityUpdateDTO> received = new ArrayList<>();
+            while (true) {
+                received.clear();
+                frames.forEach(frame -> received.addAll(frame.updates()));
+                long left = deadline - System.currentTimeMillis();
+                if (received.size() >= updates || left <= 0) {
+                    return received;
+                }
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return received;
+                }
+            }
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close(AvailabilityStream.CloseReason reason, Throwable error) {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.events.AvailabilityEventRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Insert throughput of {@code availability_events} against a real database, before and after the
+ * write-behind appender:
+ * <pre>
+ *   AvailabilityEventAppenderBenchmark [events] [eventsPerTransaction] [batchSize]
+ * </pre>
+ * "Per row" is what saving {@code AvailabilityEvent} entities did: the IDENTITY id makes Hibernate
+ * send one {@code INSERT ... RETURNING id} per event, inside the ingestion transaction, here
+ * committed every {@code eventsPerTransaction} events (the ingestion queue's batch size).
+ * "Appender" hands the same events to {@link AvailabilityEventAppenderImpl} and flushes it,
+ * timing both what the caller pays and the time until every row is written.
+ * <p>
+ * Connects with {@code SPRING_DATASOURCE_URL}, {@code _USERNAME} and {@code _PASSWORD}, uses the
+ * lowest parking lot id, and deletes the rows it wrote.
+ */
+public class AvailabilityEventAppenderBenchmark {
+
+    private static final String SOURCE = "BENCHMARK";
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int eventsPerTransaction = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+                System.getenv("SPRING_DATASOURCE_URL"), System.getenv("SPRING_DATASOURCE_USERNAME"),
+                System.getenv("SPRING_DATASOURCE_PASSWORD"), true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        Long lotId = jdbcTemplate.queryForObject("SELECT min(id) FROM parking_lots", Long.class);
+        if (lotId == null) {
+            throw new IllegalStateException("The benchmark needs at least one parking lot");
+        }
+        List<AvailabilityEventRecord> records = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            records.add(new AvailabilityEventRecord(lotId, null, i % 100, "OCCUPIED", Instant.now(), SOURCE));
+        }
+
+        try {
+            // Warm up the connection and both statement shapes
+            perRow(jdbcTemplate, transactionTemplate, records.subList(0, Math.min(events, 1_000)), eventsPerTransaction);
+            appender(jdbcTemplate, records.subList(0, Math.min(events, 1_000)), batchSize);
+            cleanUp(jdbcTemplate);
+
+            long perRowNanos = perRow(jdbcTemplate, transactionTemplate, records, eventsPerTransaction);
+            cleanUp(jdbcTemplate);
+            long[] appenderNanos = appender(jdbcTemplate, records, batchSize);
+            cleanUp(jdbcTemplate);
+
+            System.out.printf("%d events, %d per transaction, appender batches of %d%n", events, eventsPerTransaction, batchSize);
+            System.out.printf("per row:  %8.0f events/s (%.2f s)%n", events / (perRowNanos / 1e9), perRowNanos / 1e9);
+            System.out.printf("appender: %8.0f events/s written (%.2f s), caller paid %.3f s%n",
+                    events / (appenderNanos[1] / 1e9), appenderNanos[1] / 1e9, appenderNanos[0] / 1e9);
+        } finally {
+            dataSource.destroy();
+        }
+    }
+
+    private static long perRow(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                               List<AvailabilityEventRecord> records, int eventsPerTransaction) {
+        long start = System.nanoTime();
+        for (int from = 0; from < records.size(); from += eventsPerTransaction) {
+            List<AvailabilityEventRecord> chunk = records.subList(from, Math.min(records.size(), from + eventsPerTransaction));
+            transactionTemplate.executeWithoutResult(status -> {
+                for (AvailabilityEventRecord event : chunk) {
+                    Timestamp now = Timestamp.from(Instant.now());
+                    jdbcTemplate.queryForObject("INSERT INTO availability_events (lot_id, space_id, available_spaces, event, "
+                                    + "created_at, updated_at, source) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING id", Long.class,
+                            event.lotId(), event.spaceId(), event.availableSpaces(), event.event(),
+                            Timestamp.from(event.createdAt()), now, event.source());
+                }
+            });
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the time spent appending, and the time until everything was written
+     */
+    private static long[] appender(JdbcTemplate jdbcTemplate, List<AvailabilityEventRecord> records, int batchSize) {
+        AvailabilityEventAppenderImpl appender = new AvailabilityEventAppenderImpl(jdbcTemplate, new SimpleMeterRegistry(),
+                batchSize, Math.max(records.size(), batchSize), 0, 1_000);
+        appender.start();
+        long start = System.nanoTime();
+        appender.appendAll(records);
+        long appended = System.nanoTime() - start;
+        appender.stop();
+        return new long[]{appended, System.nanoTime() - start};
+    }
+
+    private static void cleanUp(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("DELETE FROM availability_events WHERE source = ?", SOURCE);
+    }
+}
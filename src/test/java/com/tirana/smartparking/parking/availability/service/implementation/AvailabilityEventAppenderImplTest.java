@@ -0,0 +1,103 @@
+package com.tirana.smartparking.parking.availability.service.implementation;
+
+import com.tirana.smartparking.parking.availability.events.AvailabilityEventRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AvailabilityEventAppenderImplTest {
+
+    private static final long DELETED_LOT_ID = 13L;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final List<Long> writtenLotIds = new ArrayList<>();
+
+    private AvailabilityEventAppenderImpl appender() {
+        return new AvailabilityEventAppenderImpl(jdbcTemplate, meterRegistry, 8, 64, 3, 60_000);
+    }
+
+    /**
+     * Binds each INSERT to a mocked statement and fails it if any of its lot ids matches.
+     */
+    private void failInsertsWhere(Predicate<List<Long>> fails, RuntimeException failure) {
+        doAnswer(invocation -> {
+            List<Long> lotIds = new ArrayList<>();
+            PreparedStatement ps = mock(PreparedStatement.class);
+            doAnswer(bound -> {
+                int index = bound.getArgument(0);
+                // lot_id is the first of the seven columns of each row
+                if ((index - 1) % 7 == 0) {
+                    lotIds.add(bound.getArgument(1));
+                }
+                return null;
+            }).when(ps).setLong(anyInt(), anyLong());
+            invocation.<PreparedStatementSetter>getArgument(1).setValues(ps);
+            if (fails.test(lotIds)) {
+                throw failure;
+            }
+            writtenLotIds.addAll(lotIds);
+            return lotIds.size();
+        }).when(jdbcTemplate).update(anyString(), any(PreparedStatementSetter.class));
+    }
+
+    private static List<AvailabilityEventRecord> events(long... lotIds) {
+        return LongStream.of(lotIds)
+                .mapToObj(lotId -> new AvailabilityEventRecord(lotId, null, 1, "OCCUPIED", Instant.now(), "SENSOR"))
+                .toList();
+    }
+
+    private double count(String meter) {
+        return meterRegistry.get(meter).counter().count();
+    }
+
+    @Test
+    public void testRowRejectedByAConstraintDoesNotDropItsNeighbours() {
+        failInsertsWhere(lotIds -> lotIds.contains(DELETED_LOT_ID), new DataIntegrityViolationException("violates foreign key"));
+        AvailabilityEventAppenderImpl appender = appender();
+
+        appender.appendAll(events(1, 2, 3, DELETED_LOT_ID, 5, 6, 7));
+        appender.flush();
+
+        assertEquals(List.of(1L, 2L, 3L, 5L, 6L, 7L), writtenLotIds);
+        assertEquals(6, count("availability.events.written"));
+        assertEquals(1, count("availability.events.failed"));
+        assertEquals(0, meterRegistry.get("availability.events.retrying").gauge().value());
+    }
+
+    @Test
+    public void testBatchIsRetriedWholeWhenTheDatabaseIsUnavailable() {
+        failInsertsWhere(lotIds -> true, new QueryTimeoutException("timed out"));
+        AvailabilityEventAppenderImpl appender = appender();
+
+        appender.appendAll(events(1, 2, 3));
+        appender.flush();
+
+        assertTrue(writtenLotIds.isEmpty());
+        assertEquals(0, count("availability.events.failed"));
+        assertEquals(3, meterRegistry.get("availability.events.retrying").gauge().value());
+        // Only the one attempt; the split is reserved for rows the database rejects
+        verify(jdbcTemplate, times(1)).update(anyString(), any(PreparedStatementSetter.class));
+
+        failInsertsWhere(lotIds -> false, null);
+        appender.stop();
+        assertEquals(Set.of(1L, 2L, 3L), Set.copyOf(writtenLotIds));
+        assertEquals(0, meterRegistry.get("availability.events.retrying").gauge().value());
+    }
+}
@@ -0,0 +1,232 @@
+package com.tirana.smartparking.parking.pricing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tirana.smartparking.common.dto.Money;
+import com.tirana.smartparking.common.util.VisitSlice;
+import com.tirana.smartparking.common.util.VisitSlicer;
+import com.tirana.smartparking.parking.entity.Enum.RateType;
+import com.tirana.smartparking.parking.entity.Enum.UserGroup;
+import com.tirana.smartparking.parking.entity.Enum.VehicleType;
+import com.tirana.smartparking.parking.entity.RatePlan;
+import com.tirana.smartparking.parking.entity.RateRule;
+import com.tirana.smartparking.parking.service.implementation.PricingServiceImpl;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares {@link PricingServiceImpl} on the {@link PricingKernel} with the slicer-based pricing
+ * it replaced, kept below as {@link #referenceQuote}, over randomized plans and visits. Zones
+ * include DST transitions at midnight, half-hour DST and a skipped day; visits include seconds,
+ * nanos, negative lengths and multi-week stays.
+ */
+public class PricingKernelDifferentialTest {
+
+    private static final String[] ZONES = {
+            "Europe/Tirane", "UTC", "America/New_York", "Australia/Lord_Howe",
+            "America/Sao_Paulo", "America/Havana", "Asia/Kolkata", "Pacific/Apia"
+    };
+
+    private final PricingServiceImpl pricingService = new PricingServiceImpl(mock(RatePlanCache.class));
+
+    @Test
+    public void testRandomPlansMatchSlicerPricing() {
+        compare(20251017L, 4000, 12);
+    }
+
+    @Test
+    public void testPlansWithManyRulesMatchSlicerPricing() {
+        // More than 64 rules, so rule sets span several words
+        compare(7L, 300, 90);
+    }
+
+    private void compare(long seed, int plans, int maxRules) {
+        Random random = new Random(seed);
+        for (int p = 0; p < plans; p++) {
+            CompiledRatePlan plan = randomPlan(random, maxRules);
+            for (int v = 0; v < 5; v++) {
+                ZonedDateTime start = randomStart(random, plan.zone());
+                ZonedDateTime end = start.plus(randomLength(random));
+                VehicleType vehicleType = pick(random, VehicleType.values());
+                UserGroup userGroup = pick(random, UserGroup.values());
+
+                Money expected = referenceQuote(plan, vehicleType, userGroup, start, end);
+                Money actual = pricingService.quote(plan, vehicleType, userGroup, start, end);
+
+                String context = "seed " + seed + ", plan " + p + ", visit " + v + ": " + plan.type() + " in " + plan.zone()
+                        + " from " + start + " to " + end + " for " + vehicleType + "/" + userGroup;
+                assertEquals(expected.getAmount(), actual.getAmount(), context);
+                assertEquals(expected.getBreakdown(), actual.getBreakdown(), context);
+                assertEquals(expected.getCurrency(), actual.getCurrency(), context);
+            }
+        }
+    }
+
+    private static CompiledRatePlan randomPlan(Random random, int maxRules) {
+        RateType type = RateType.values()[random.nextInt(RateType.values().length)];
+        RatePlan plan = new RatePlan(1L, "plan", type, "ALL", ZONES[random.nextInt(ZONES.length)],
+                random.nextInt(4) == 0 ? random.nextInt(30) : null,
+                pick(random, new Integer[]{null, 0, 1, 5, 15, 60}),
+                random.nextInt(3) == 0 ? 200 + random.nextInt(2000) : null,
+                true, Instant.now(), Instant.now());
+
+        List<RateRule> rules = new ArrayList<>();
+        int count = random.nextInt(maxRules + 1);
+        for (int i = 0; i < count; i++) {
+            Integer startMinute = random.nextInt(3) == 0 ? 60 * random.nextInt(24) : null;
+            Integer endMinute = startMinute != null && random.nextInt(4) != 0 ? startMinute + 30 + random.nextInt(600) : null;
+            rules.add(new RateRule((long) i, null,
+                    startMinute,
+                    endMinute,
+                    random.nextInt(2) == 0 ? randomTime(random) : null,
+                    random.nextInt(2) == 0 ? randomTime(random) : null,
+                    random.nextInt(3) == 0 ? DayOfWeek.of(1 + random.nextInt(7)) : null,
+                    random.nextInt(3) == 0 ? VehicleType.values()[random.nextInt(VehicleType.values().length)] : null,
+                    random.nextInt(3) == 0 ? UserGroup.values()[random.nextInt(UserGroup.values().length)] : null,
+                    random.nextInt(5) == 0 ? null : 50 + random.nextInt(500),
+                    random.nextInt(3) == 0 ? 100 + random.nextInt(1000) : null,
+                    Instant.now(), Instant.now()));
+        }
+        return RatePlanCache.compile(plan, rules, 0);
+    }
+
+    private static LocalTime randomTime(Random random) {
+        LocalTime time = LocalTime.of(random.nextInt(24), 15 * random.nextInt(4));
+        return switch (random.nextInt(10)) {
+            case 0 -> time.plusSeconds(random.nextInt(60));
+            case 1 -> time.plusNanos(random.nextInt(1_000_000_000));
+            default -> time;
+        };
+    }
+
+    private static ZonedDateTime randomStart(Random random, ZoneId zone) {
+        Instant instant = Instant.ofEpochSecond(1_262_304_000L + (long) (random.nextDouble() * 18 * 365 * 86_400));
+        if (random.nextInt(3) == 0) {
+            // Close to an offset transition, when the zone has one
+            ZoneOffsetTransition transition = zone.getRules().nextTransition(instant);
+            if (transition != null) {
+                instant = transition.getInstant().plusSeconds(random.nextInt(6 * 86_400) - 3 * 86_400);
+            }
+        }
+        switch (random.nextInt(4)) {
+            case 0 -> instant = Instant.ofEpochSecond(instant.getEpochSecond() / 900 * 900);
+            case 1 -> instant = instant.plusNanos(random.nextInt(1_000_000_000));
+            default -> { }
+        }
+        return instant.atZone(zone);
+    }
+
+    private static Duration randomLength(Random random) {
+        return switch (random.nextInt(10)) {
+            case 0 -> Duration.ofSeconds(-random.nextInt(7200));
+            case 1, 2, 3, 4 -> Duration.ofSeconds(random.nextInt(4 * 3600));
+            case 5, 6, 7 -> Duration.ofSeconds(random.nextInt(3 * 86_400)).plusNanos(random.nextInt(1_000_000_000));
+            default -> Duration.ofSeconds(random.nextInt(21 * 86_400));
+        };
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        int index = random.nextInt(values.length + 1);
+        return index < values.length ? values[index] : null;
+    }
+
+    // Pricing as it was before the kernel, on VisitSlicer and VisitSlice
+
+    private static Money referenceQuote(CompiledRatePlan plan, VehicleType vt, UserGroup ug,
+                                        ZonedDateTime start, ZonedDateTime end) {
+        ZoneId zone = plan.zone();
+        ZonedDateTime s = start.withZoneSameInstant(zone);
+        ZonedDateTime e = end.withZoneSameInstant(zone);
+
+        long minutes = Duration.between(s, e).toMinutes();
+        if (plan.graceMinutes() != null && minutes <= plan.graceMinutes()) {
+            return Money.zero(plan.currency());
+        }
+
+        List<RateRule> planRules = plan.rules();
+        int increment = plan.incrementMinutes();
+        int total = 0;
+        Map<String, Integer> lines = new LinkedHashMap<>();
+
+        for (VisitSlice slice : VisitSlicer.sliceByDayAndTime(s, e, planRules, zone)) {
+            RateRule r = slice.matchedRule(vt, ug).orElse(null);
+            if (r == null) continue;
+
+            int billedMinutes = roundUp(slice.minutes(), increment);
+            int sliceAmount = switch (plan.type()) {
+                case FLAT_PER_ENTRY -> Optional.ofNullable(r.getPriceFlat()).orElse(0);
+                case PER_HOUR, TIME_OF_DAY, DAY_OF_WEEK -> perHour(billedMinutes, r.getPricePerHour());
+                case TIERED -> applyTiers(slice.relativeMinutesFromStart(), billedMinutes, planRules);
+                case FREE, DYNAMIC -> 0;
+            };
+
+            String key = slice.label();
+            lines.put(key, lines.getOrDefault(key, 0) + sliceAmount);
+            total += sliceAmount;
+
+            if (plan.dailyCap() != null) {
+                int daySpent = sumForDay(lines, slice.getDay());
+                if (daySpent > plan.dailyCap()) {
+                    int reduce = daySpent - plan.dailyCap();
+                    total -= reduce;
+                    lines.put("Daily cap " + slice.getDay(), plan.dailyCap());
+                }
+            }
+        }
+
+        try {
+            return new Money(plan.currency(), total, new ObjectMapper().writeValueAsString(lines));
+        } catch (JsonProcessingException ex) {
+            return new Money(plan.currency(), total, "{}");
+        }
+    }
+
+    private static int roundUp(long minutes, int increment) {
+        if (increment <= 0) return (int) minutes;
+        return (int) ((minutes + increment - 1) / increment) * increment;
+    }
+
+    private static int perHour(int minutes, Integer pricePerHour) {
+        if (pricePerHour == null) return 0;
+        return (int) Math.ceil((double) minutes / 60.0) * pricePerHour;
+    }
+
+    private static int applyTiers(long relativeMinutesFromStart, int billedMinutes, List<RateRule> rules) {
+        for (RateRule rule : rules) {
+            if (rule.getStartMinute() != null && rule.getEndMinute() != null) {
+                if (relativeMinutesFromStart >= rule.getStartMinute() &&
+                        relativeMinutesFromStart < rule.getEndMinute()) {
+                    if (rule.getPriceFlat() != null) {
+                        return rule.getPriceFlat();
+                    } else if (rule.getPricePerHour() != null) {
+                        return perHour(billedMinutes, rule.getPricePerHour());
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static int sumForDay(Map<String, Integer> lines, java.time.LocalDate day) {
+        return lines.entrySet().stream()
+                .filter(entry -> entry.getKey().contains(day.toString()))
+                .mapToInt(Map.Entry::getValue)
+                .sum();
+    }
+}
@@ -0,0 +1,109 @@
+package com.tirana.smartparking.parking.sensor.filter;
+
+import com.tirana.smartparking.parking.availability.service.AvailabilityCounterService;
+import com.tirana.smartparking.parking.entity.ParkingSpace.SpaceStatus;
+import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.filter.SensorEventFilter.Decision;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SensorEventFilterTest {
+
+    private static final Long LOT_ID = 1L;
+    private static final Long SPACE_ID = 10L;
+    private static final Instant T0 = Instant.parse("2024-01-15T14:30:00Z");
+
+    private final AvailabilityCounterService counters = mock(AvailabilityCounterService.class);
+
+    private SensorEventFilter filter(long dwellMs) {
+        when(counters.getSpaceStatus(LOT_ID, SPACE_ID)).thenReturn(SpaceStatus.AVAILABLE);
+        return new SensorEventFilter(counters, new SimpleMeterRegistry(), dwellMs);
+    }
+
+    private static SensorEventDTO reading(SpaceStatus status, Instant timestamp) {
+        String event = status == SpaceStatus.OCCUPIED ? "OCCUPIED" : "VACANT";
+        return new SensorEventDTO("SENSOR_001", null, event, SPACE_ID, timestamp, "SPACE", null, null, null);
+    }
+
+    private static Decision evaluate(SensorEventFilter filter, SpaceStatus status, Instant timestamp) {
+        return filter.evaluate(LOT_ID, SPACE_ID, status, reading(status, timestamp));
+    }
+
+    @Test
+    public void testFlipIsCommittedOnceItHeldForTheDwellTime() throws Exception {
+        SensorEventFilter filter = filter(50);
+
+        assertEquals(Decision.DEBOUNCED, evaluate(filter, SpaceStatus.OCCUPIED, T0));
+        assertEquals(Decision.DEBOUNCED, evaluate(filter, SpaceStatus.OCCUPIED, T0.plusMillis(10)));
+        Thread.sleep(60);
+        assertEquals(Decision.APPLY, evaluate(filter, SpaceStatus.OCCUPIED, T0.plusMillis(70)));
+        assertTrue(filter.drainSettled(Instant.now().plusSeconds(1)).isEmpty());
+    }
+
+    @Test
+    public void testUnconfirmedFlipIsSettledAfterTheDwellTime() {
+        SensorEventFilter filter = filter(50);
+
+        assertEquals(Decision.DEBOUNCED, evaluate(filter, SpaceStatus.OCCUPIED, T0));
+        assertTrue(filter.drainSettled(Instant.now()).isEmpty());
+
+        List<SensorEventFilter.SettledEvent> settled = filter.drainSettled(Instant.now().plus(Duration.ofSeconds(1)));
+        assertEquals(1, settled.size());
+        assertEquals(SpaceStatus.OCCUPIED, settled.get(0).status());
+        assertEquals(T0, settled.get(0).timestamp());
+        assertTrue(filter.drainSettled(Instant.now().plus(Duration.ofSeconds(2))).isEmpty());
+    }
+
+    @Test
+    public void testFlappingWithinTheDwellTimeIsNeverApplied() {
+        SensorEventFilter filter = filter(60_000);
+
+        assertEquals(Decision.DEBOUNCED, evaluate(filter, SpaceStatus.OCCUPIED, T0));
+        assertEquals(Decision.DUPLICATE, evaluate(filter, SpaceStatus.AVAILABLE, T0.plusSeconds(1)));
+        assertEquals(Decision.DEBOUNCED, evaluate(filter, SpaceStatus.OCCUPIED, T0.plusSeconds(2)));
+        assertEquals(Decision.DUPLICATE, evaluate(filter, SpaceStatus.AVAILABLE, T0.plusSeconds(3)));
+
+        assertTrue(filter.drainSettled(Instant.now().plus(Duration.ofMinutes(2))).isEmpty());
+        assertEquals(2, filter.stats(LOT_ID).debounced());
+        assertEquals(2, filter.stats(LOT_ID).duplicates());
+    }
+
+    @Test
+    public void testOlderReadingAfterANewerOneIsOutOfOrder() {
+        SensorEventFilter filter = filter(0);
+
+        assertEquals(Decision.APPLY, evaluate(filter, SpaceStatus.OCCUPIED, T0.plusSeconds(10)));
+        filter.committed(SPACE_ID, SpaceStatus.OCCUPIED);
+        when(counters.getSpaceStatus(LOT_ID, SPACE_ID)).thenReturn(SpaceStatus.OCCUPIED);
+
+        assertEquals(Decision.OUT_OF_ORDER, evaluate(filter, SpaceStatus.AVAILABLE, T0.plusSeconds(5)));
+        assertEquals(Decision.APPLY, evaluate(filter, SpaceStatus.AVAILABLE, T0.plusSeconds(11)));
+        assertEquals(1, filter.stats(LOT_ID).outOfOrder());
+    }
+
+    @Test
+    public void testContradictingReadingBeforeCommitIsANewFlip() {
+        SensorEventFilter filter = filter(0);
+
+        // The counters still report AVAILABLE until committed() is called
+        assertEquals(Decision.APPLY, evaluate(filter, SpaceStatus.OCCUPIED, T0));
+        assertEquals(Decision.DUPLICATE, evaluate(filter, SpaceStatus.OCCUPIED, T0.plusSeconds(1)));
+        assertEquals(Decision.APPLY, evaluate(filter, SpaceStatus.AVAILABLE, T0.plusSeconds(2)));
+
+        // A late report for the first flip must not clear the second one
+        filter.committed(SPACE_ID, SpaceStatus.OCCUPIED);
+        assertEquals(Decision.DUPLICATE, evaluate(filter, SpaceStatus.AVAILABLE, T0.plusSeconds(3)));
+
+        filter.committed(SPACE_ID, SpaceStatus.AVAILABLE);
+        when(counters.getSpaceStatus(LOT_ID, SPACE_ID)).thenReturn(SpaceStatus.AVAILABLE);
+        assertEquals(Decision.APPLY, evaluate(filter, SpaceStatus.OCCUPIED, T0.plusSeconds(4)));
+    }
+}
@@ -0,0 +1,74 @@
+package com.tirana.smartparking.parking.sensor.frame;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SensorFrameCodecTest {
+
+    private static final String API_KEY = "sk_live_1234567890abcdef";
+
+    @Test
+    public void testRoundTrip() {
+        Instant timestamp = Instant.parse("2024-01-15T14:30:00Z");
+        byte[] bytes = SensorFrameCodec.encode("SENSOR_001", 0xFFFFFFFEL, 1, timestamp, SensorFrameCodec.macKey(API_KEY));
+
+        assertEquals(SensorFrameCodec.FRAME_LENGTH, bytes.length);
+        SensorFrame frame = SensorFrameCodec.decode(ByteBuffer.wrap(bytes));
+        assertEquals("SENSOR_001", frame.deviceId());
+        assertEquals(0xFFFFFFFEL, frame.sequence());
+        assertEquals("OCCUPIED", SensorFrameCodec.event(frame));
+        assertEquals(timestamp, frame.timestamp());
+        assertTrue(SensorFrameCodec.verify(frame, SensorFrameCodec.macKey(API_KEY)));
+    }
+
+    @Test
+    public void testTamperedFrameFailsVerification() {
+        byte[] bytes = SensorFrameCodec.encode("SENSOR_001", 7, 0, Instant.now(), SensorFrameCodec.macKey(API_KEY));
+        bytes[22] = 1; // flip the status byte
+
+        SensorFrame frame = SensorFrameCodec.decode(ByteBuffer.wrap(bytes));
+        assertFalse(SensorFrameCodec.verify(frame, SensorFrameCodec.macKey(API_KEY)));
+        assertFalse(SensorFrameCodec.verify(frame, SensorFrameCodec.macKey("another-key")));
+    }
+
+    @Test
+    public void testRejectsUnknownHeader() {
+        byte[] bytes = SensorFrameCodec.encode("SENSOR_001", 1, 0, Instant.now(), SensorFrameCodec.macKey(API_KEY));
+        bytes[0] = 0;
+        assertThrows(IllegalArgumentException.class, () -> SensorFrameCodec.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void testSimulatorPacksFramesIntoDatagrams() throws Exception {
+        try (DatagramChannel receiver = DatagramChannel.open()) {
+            receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+            SensorFrameSimulator simulator = new SensorFrameSimulator("SENSOR_001", API_KEY, Instant.now());
+
+            SensorFrameSimulator.sendUdp((InetSocketAddress) receiver.getLocalAddress(), simulator.frames(5), 4);
+
+            List<SensorFrame> received = new ArrayList<>();
+            ByteBuffer datagram = ByteBuffer.allocate(SensorFrameCodec.FRAME_LENGTH * 4);
+            for (int i = 0; i < 2; i++) {
+                datagram.clear();
+                receiver.receive(datagram);
+                datagram.flip();
+                while (datagram.remaining() >= SensorFrameCodec.FRAME_LENGTH) {
+                    received.add(SensorFrameCodec.decode(datagram));
+                }
+            }
+            assertEquals(5, received.size());
+            for (int i = 0; i < received.size(); i++) {
+                assertEquals(i, received.get(i).sequence());
+                assertTrue(SensorFrameCodec.verify(received.get(i), SensorFrameCodec.macKey(API_KEY)));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.tirana.smartparking.parking.sensor.frame;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local stand-in for a LoRa/NB-IoT gateway. Generates signed frames for one device and sends them
+ * over UDP or TCP to the frame listener, or the same readings as JSON to the REST endpoint, and
+ * reports the achieved rate so the transports can be compared against a running instance:
+ * <pre>
+ *   SensorFrameSimulator udp|tcp|rest &lt;host&gt; &lt;port&gt; &lt;deviceId&gt; &lt;apiKey&gt; &lt;events&gt;
+ * </pre>
+ * The readings alternate between OCCUPIED and AVAILABLE, one second apart.
+ */
+public class SensorFrameSimulator {
+
+    private final String deviceId;
+    private final byte[] macKey;
+    private final Instant start;
+    private long sequence;
+
+    public SensorFrameSimulator(String deviceId, String apiKey, Instant start) {
+        this.deviceId = deviceId;
+        this.macKey = SensorFrameCodec.macKey(apiKey);
+        this.start = start;
+    }
+
+    public byte[] nextFrame() {
+        long n = sequence++;
+        return SensorFrameCodec.encode(deviceId, n, status(n), start.plusSeconds(n), macKey);
+    }
+
+    public List<byte[]> frames(int count) {
+        List<byte[]> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            frames.add(nextFrame());
+        }
+        return frames;
+    }
+
+    /**
+     * Sends frames as datagrams, packing as many as fit in {@code framesPerDatagram}.
+     */
+    public static void sendUdp(InetSocketAddress target, List<byte[]> frames, int framesPerDatagram) throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            ByteBuffer datagram = ByteBuffer.allocate(SensorFrameCodec.FRAME_LENGTH * framesPerDatagram);
+            for (byte[] frame : frames) {
+                datagram.put(frame);
+                if (!datagram.hasRemaining()) {
+                    datagram.flip();
+                    channel.send(datagram, target);
+                    datagram.clear();
+                }
+            }
+            if (datagram.position() > 0) {
+                datagram.flip();
+                channel.send(datagram, target);
+            }
+        }
+    }
+
+    public static void sendTcp(InetSocketAddress target, List<byte[]> frames) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(target)) {
+            for (byte[] frame : frames) {
+                ByteBuffer buffer = ByteBuffer.wrap(frame);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    public void sendRest(URI endpoint, String apiKey, int count) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        for (int i = 0; i < count; i++) {
+            long n = sequence++;
+            String body = "{\"deviceId\":\"" + deviceId + "\",\"apiKey\":\"" + apiKey + "\",\"event\":\""
+                    + (status(n) == 1 ? "OCCUPIED" : "AVAILABLE") + "\",\"timestamp\":\"" + start.plusSeconds(n) + "\"}";
+            HttpRequest request = HttpRequest.newBuilder(endpoint)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private static int status(long n) {
+        return (int) (n % 2 == 0 ? 1 : 0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 6) {
+            System.err.println("Usage: SensorFrameSimulator udp|tcp|rest <host> <port> <deviceId> <apiKey> <events>");
+            System.exit(1);
+        }
+        String mode = args[0];
+        InetSocketAddress target = new InetSocketAddress(args[1], Integer.parseInt(args[2]));
+        int events = Integer.parseInt(args[5]);
+        SensorFrameSimulator simulator = new SensorFrameSimulator(args[3], args[4], Instant.now());
+
+        long startedAt = System.nanoTime();
+        switch (mode) {
+            case "udp" -> sendUdp(target, simulator.frames(events), 32);
+            case "tcp" -> sendTcp(target, simulator.frames(events));
+            case "rest" -> simulator.sendRest(URI.create("http://" + args[1] + ":" + args[2] + "/api/v1/sensors/event"), args[4], events);
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+        System.out.printf("%s: sent %d events in %.2fs (%.0f events/s)%n", mode, events, seconds, events / seconds);
+    }
+}
@@ -0,0 +1,399 @@
+package com.tirana.smartparking.parking.sensor.load;
+
+import com.tirana.smartparking.parking.sensor.frame.SensorFrameCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Capacity-planning load generator for sensor ingestion. Seeds a fleet of per-space sensors in a
+ * local Postgres (see {@link SimulatedFleet}), replays occupancy changes against a running
+ * instance at a fixed rate and reports sustained events/s, latency percentiles and the rows the
+ * server wrote while doing so:
+ * <pre>
+ *   SensorFleetSimulator --sensors=5000 --lots=50 --rate=2000 --duration=60 --transport=batch
+ * </pre>
+ * Every bay alternates between an exponentially distributed stay (OCCUPIED) and vacancy
+ * (AVAILABLE), so arrivals and departures form a Poisson process per bay. The simulated clock only
+ * decides which bay changes next; readings are sent at {@code --rate} events/s and stamped with the
+ * wall clock. A fraction of readings ({@code --duplicates}) repeats the bay's current status, the
+ * way real sensors re-report, to exercise the suppression filter.
+ * <p>
+ * Readings of a bay always go through the same sender thread, so they arrive in order. Latency is
+ * measured from the moment a reading was scheduled, not when it was actually sent, so a server
+ * that falls behind shows up in the percentiles instead of silently lowering the send rate.
+ * <p>
+ * Options (defaults in brackets): {@code --url} [http://localhost:8080], {@code --jdbc-url},
+ * {@code --db-user}, {@code --db-password} [SPRING_DATASOURCE_* environment variables],
+ * {@code --transport} rest|batch|udp [batch], {@code --udp-port} [9410], {@code --sensors} [5000],
+ * {@code --lots} [50], {@code --rate} [2000], {@code --duration} seconds [60], {@code --senders}
+ * [16], {@code --batch-size} [100], {@code --mean-stay-minutes} [45], {@code --mean-vacancy-minutes}
+ * [20], {@code --duplicates} [0.05], {@code --settle} seconds to wait for write-behind flushes
+ * before counting rows [10], {@code --seed} [42], {@code --keep} keeps the fleet afterwards.
+ */
+public class SensorFleetSimulator {
+
+    private static final int AVAILABLE = 0;
+    private static final int OCCUPIED = 1;
+
+    private final Map<String, String> options;
+    private final String transport;
+    private final int rate;
+    private final int senderCount;
+    private final int batchSize;
+
+    private SensorFleetSimulator(Map<String, String> options) {
+        this.options = options;
+        this.transport = option("transport", "batch");
+        this.rate = Integer.parseInt(option("rate", "2000"));
+        this.senderCount = Integer.parseInt(option("senders", "16"));
+        this.batchSize = Integer.parseInt(option("batch-size", "100"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                System.err.println("Usage: SensorFleetSimulator [--name=value ...], see the class documentation");
+                System.exit(1);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        new SensorFleetSimulator(options).run();
+    }
+
+    private void run() throws Exception {
+        int sensors = Integer.parseInt(option("sensors", "5000"));
+        int lots = Integer.parseInt(option("lots", "50"));
+        int duration = Integer.parseInt(option("duration", "60"));
+        if (sensors < 1 || sensors > 99_999 || lots < 1 || lots > sensors) {
+            throw new IllegalArgumentException("Need 1..99999 sensors and between 1 and that many lots");
+        }
+        // Short, unique per run: frame device ids are limited to 16 characters
+        String tag = option("tag", "s" + Long.toString(System.currentTimeMillis() / 1000, 36));
+
+        try (SimulatedFleet fleet = new SimulatedFleet(
+                option("jdbc-url", System.getenv("SPRING_DATASOURCE_URL")),
+                option("db-user", System.getenv("SPRING_DATASOURCE_USERNAME")),
+                option("db-password", System.getenv("SPRING_DATASOURCE_PASSWORD")),
+                tag)) {
+            long seedStart = System.nanoTime();
+            List<SimulatedFleet.Sensor> sensorList = fleet.seed(lots, sensors);
+            System.out.printf("Seeded %d sensors in %d lots (tag %s) in %.1fs%n",
+                    sensors, lots, tag, (System.nanoTime() - seedStart) / 1e9);
+
+            Map<String, long[]> before = fleet.writeCounters();
+            Result result = drive(sensorList, (long) rate * duration);
+
+            int settle = Integer.parseInt(option("settle", "10"));
+            System.out.printf("Waiting %ds for write-behind flushes...%n", settle);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(settle));
+            Map<String, long[]> after = fleet.writeCounters();
+
+            report(sensors, lots, duration, result, before, after, fleet.availabilityEventCount());
+            if (!options.containsKey("keep")) {
+                fleet.drop();
+            }
+        }
+    }
+
+    /**
+     * Generates {@code events} readings at the configured rate and waits for every sender to finish.
+     */
+    private Result drive(List<SimulatedFleet.Sensor> fleet, long events) throws Exception {
+        List<Sender> senders = new ArrayList<>(senderCount);
+        for (int i = 0; i < senderCount; i++) {
+            senders.add(new Sender(i, fleet));
+        }
+        senders.forEach(Thread::start);
+
+        Random random = new Random(Long.parseLong(option("seed", "42")));
+        double meanStay = Double.parseDouble(option("mean-stay-minutes", "45"));
+        double meanVacancy = Double.parseDouble(option("mean-vacancy-minutes", "20"));
+        double duplicates = Double.parseDouble(option("duplicates", "0.05"));
+
+        int[] status = new int[fleet.size()];
+        // Next change per bay on the simulated clock (minutes); all bays start vacant
+        PriorityQueue<double[]> changes = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        for (int i = 0; i < fleet.size(); i++) {
+            changes.add(new double[]{exponential(random, meanVacancy), i});
+        }
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (long n = 0; n < events; n++) {
+            long scheduledAt = start + n * intervalNanos;
+            int sensor;
+            if (random.nextDouble() < duplicates) {
+                sensor = random.nextInt(fleet.size());
+            } else {
+                double[] next = changes.poll();
+                sensor = (int) next[1];
+                status[sensor] = status[sensor] == AVAILABLE ? OCCUPIED : AVAILABLE;
+                double hold = status[sensor] == OCCUPIED ? meanStay : meanVacancy;
+                next[0] += exponential(random, hold);
+                changes.add(next);
+            }
+            long wait = scheduledAt - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            senders.get(sensor % senderCount).queue.put(new Reading(sensor, status[sensor], scheduledAt, Instant.now()));
+        }
+        for (Sender sender : senders) {
+            sender.queue.put(Reading.END);
+        }
+        for (Sender sender : senders) {
+            sender.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Result result = new Result(elapsed);
+        for (Sender sender : senders) {
+            result.add(sender);
+        }
+        Arrays.sort(result.latencies);
+        return result;
+    }
+
+    private void report(int sensors, int lots, int duration, Result result,
+                        Map<String, long[]> before, Map<String, long[]> after, long availabilityEvents) {
+        double seconds = result.elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("transport=%s sensors=%d lots=%d target=%d ev/s for %ds, senders=%d%s%n",
+                transport, sensors, lots, rate, duration, senderCount,
+                "batch".equals(transport) ? ", batch size " + batchSize : "");
+        System.out.printf("sent %d events in %.1fs: %.0f ev/s sustained (ok %d, throttled %d, failed %d)%n",
+                result.sent, seconds, result.ok / seconds, result.ok, result.throttled, result.failed);
+        if (result.latencies.length > 0) {
+            System.out.printf("latency from scheduled send: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    result.percentile(0.50), result.percentile(0.90), result.percentile(0.99), result.percentile(1.0));
+        } else {
+            System.out.println("latency: not measured, UDP frames are not acknowledged");
+        }
+        System.out.println("rows written by the server during the run:");
+        for (String table : SimulatedFleet.WRITTEN_TABLES) {
+            long[] b = before.getOrDefault(table, new long[2]);
+            long[] a = after.getOrDefault(table, new long[2]);
+            System.out.printf("  %-20s inserted %9d  updated %9d%n", table, a[0] - b[0], a[1] - b[1]);
+        }
+        System.out.printf("availability events for the simulated lots: %d (%.2f per reading)%n",
+                availabilityEvents, result.sent == 0 ? 0.0 : (double) availabilityEvents / result.sent);
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.getOrDefault(name, defaultValue);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing --" + name);
+        }
+        return value;
+    }
+
+    private static double exponential(Random random, double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    private record Reading(int sensor, int status, long scheduledAt, Instant timestamp) {
+        static final Reading END = new Reading(-1, 0, 0, null);
+    }
+
+    /**
+     * Sends the readings of its share of the bays, in order, over the configured transport.
+     */
+    private final class Sender extends Thread {
+        final BlockingQueue<Reading> queue = new ArrayBlockingQueue<>(10_000);
+        private final List<SimulatedFleet.Sensor> fleet;
+        private final List<Reading> pending = new ArrayList<>();
+        private long[] latencies = new long[1024];
+        private int latencyCount;
+        private long sent;
+        private long ok;
+        private long throttled;
+        private long failed;
+
+        private HttpClient http;
+        private URI endpoint;
+        private DatagramChannel udp;
+        private InetSocketAddress udpTarget;
+        private final Map<Integer, byte[]> macKeys = new HashMap<>();
+        private final long firstSequence = System.currentTimeMillis() / 1000;
+        private final Map<Integer, Long> sequences = new HashMap<>();
+
+        Sender(int index, List<SimulatedFleet.Sensor> fleet) {
+            super("fleet-sender-" + index);
+            this.fleet = fleet;
+        }
+
+        @Override
+        public void run() {
+            try {
+                open();
+                while (true) {
+                    Reading reading = queue.take();
+                    if (reading == Reading.END) {
+                        flush();
+                        return;
+                    }
+                    pending.add(reading);
+                    // Batches go out when full or when the generator has nothing more for this sender
+                    if (!"batch".equals(transport) || pending.size() >= batchSize || queue.isEmpty()) {
+                        flush();
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (udp != null) {
+                    try {
+                        udp.close();
+                    } catch (IOException ignored) {
+                        // Done anyway
+                    }
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            String url = option("url", "http://localhost:8080");
+            switch (transport) {
+                case "rest" -> endpoint = URI.create(url + "/api/v1/sensors/event");
+                case "batch" -> endpoint = URI.create(url + "/api/v1/sensors/event/batch");
+                case "udp" -> {
+                    udp = DatagramChannel.open();
+                    udpTarget = new InetSocketAddress(URI.create(url).getHost(), Integer.parseInt(option("udp-port", "9410")));
+                }
+                default -> throw new IllegalArgumentException("Unknown transport: " + transport);
+            }
+            if (endpoint != null) {
+                http = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .connectTimeout(Duration.ofSeconds(5))
+                        .build();
+            }
+        }
+
+        private void flush() throws IOException, InterruptedException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            sent += pending.size();
+            if (udp != null) {
+                sendFrames();
+            } else {
+                String body = "batch".equals(transport) ? jsonArray() : json(pending.get(0));
+                HttpRequest request = HttpRequest.newBuilder(endpoint)
+                        .header("Content-Type", "application/json")
+                        .timeout(Duration.ofSeconds(30))
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+                int code;
+                try {
+                    code = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                } catch (IOException e) {
+                    code = -1;
+                }
+                long now = System.nanoTime();
+                for (Reading reading : pending) {
+                    recordLatency(now - reading.scheduledAt());
+                }
+                if (code >= 200 && code < 300) {
+                    ok += pending.size();
+                } else if (code == 429) {
+                    throttled += pending.size();
+                } else {
+                    failed += pending.size();
+                }
+            }
+            pending.clear();
+        }
+
+        private void sendFrames() throws IOException {
+            ByteBuffer datagram = ByteBuffer.allocate(SensorFrameCodec.FRAME_LENGTH);
+            for (Reading reading : pending) {
+                SimulatedFleet.Sensor sensor = fleet.get(reading.sensor());
+                byte[] macKey = macKeys.computeIfAbsent(reading.sensor(), i -> SensorFrameCodec.macKey(sensor.apiKey()));
+                long sequence = sequences.merge(reading.sensor(), firstSequence, (last, ignored) -> last + 1) & 0xFFFFFFFFL;
+                datagram.clear();
+                datagram.put(SensorFrameCodec.encode(sensor.deviceId(), sequence, reading.status(), reading.timestamp(), macKey));
+                datagram.flip();
+                udp.send(datagram, udpTarget);
+                ok++;
+            }
+        }
+
+        private String jsonArray() {
+            StringBuilder body = new StringBuilder(pending.size() * 160).append('[');
+            for (int i = 0; i < pending.size(); i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append(json(pending.get(i)));
+            }
+            return body.append(']').toString();
+        }
+
+        private String json(Reading reading) {
+            SimulatedFleet.Sensor sensor = fleet.get(reading.sensor());
+            return "{\"deviceId\":\"" + sensor.deviceId() + "\",\"apiKey\":\"" + sensor.apiKey()
+                    + "\",\"event\":\"" + (reading.status() == OCCUPIED ? "OCCUPIED" : "AVAILABLE")
+                    + "\",\"timestamp\":\"" + reading.timestamp() + "\"}";
+        }
+
+        private void recordLatency(long nanos) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[latencyCount++] = nanos;
+        }
+    }
+
+    private static final class Result {
+        final long elapsedNanos;
+        long sent;
+        long ok;
+        long throttled;
+        long failed;
+        long[] latencies = new long[0];
+
+        Result(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void add(Sender sender) {
+            sent += sender.sent;
+            ok += sender.ok;
+            throttled += sender.throttled;
+            failed += sender.failed;
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + sender.latencyCount);
+            System.arraycopy(sender.latencies, 0, latencies, offset, sender.latencyCount);
+        }
+
+        double percentile(double p) {
+            int index = (int) Math.ceil(p * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.tirana.smartparking.parking.sensor.load;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seeds and removes the parking lots, spaces and per-space sensors used by
+ * {@link SensorFleetSimulator}, straight through JDBC so thousands of devices are created in
+ * seconds instead of through the admin API. Every row is tagged with a name prefix, so a fleet
+ * can be dropped again without touching real data.
+ */
+public class SimulatedFleet implements AutoCloseable {
+
+    /**
+     * Tables whose insert/update counters are reported as "rows written".
+     */
+    static final List<String> WRITTEN_TABLES = List.of("availability_events", "parking_spaces", "parking_lots", "sensor_devices");
+
+    private static final int INSERT_CHUNK = 1000;
+
+    private final Connection connection;
+    private final String tag;
+
+    public SimulatedFleet(String jdbcUrl, String username, String password, String tag) throws SQLException {
+        this.connection = DriverManager.getConnection(jdbcUrl, username, password);
+        this.tag = tag;
+    }
+
+    public record Sensor(String deviceId, String apiKey, long spaceId, long lotId) {
+    }
+
+    /**
+     * Creates {@code lots} lots around the centre of Tirana with {@code sensors} sensors spread
+     * evenly over them. All spaces start AVAILABLE.
+     */
+    public List<Sensor> seed(int lots, int sensors) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            List<Long> lotIds = insertLots(lots, sensors);
+            List<Sensor> fleet = insertSensorsAndSpaces(lotIds, sensors);
+            connection.commit();
+            return fleet;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Deletes every lot, space, sensor and availability event created with this fleet's tag.
+     */
+    public void drop() throws SQLException {
+        String lotFilter = "SELECT id FROM parking_lots WHERE name LIKE '" + tag + "-lot-%'";
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM availability_events WHERE lot_id IN (" + lotFilter + ")");
+            statement.executeUpdate("DELETE FROM parking_spaces WHERE lot_id IN (" + lotFilter + ")");
+            statement.executeUpdate("DELETE FROM sensor_devices WHERE device_id LIKE '" + tag + "-%'");
+            statement.executeUpdate("DELETE FROM parking_lots WHERE name LIKE '" + tag + "-lot-%'");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Cumulative inserted and updated tuples per table from {@code pg_stat_user_tables}. Postgres
+     * publishes these with a short delay, so callers should let the server settle first.
+     */
+    public Map<String, long[]> writeCounters() throws SQLException {
+        Map<String, long[]> counters = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT pg_stat_clear_snapshot()");
+            try (ResultSet rs = statement.executeQuery(
+                    "SELECT relname, n_tup_ins, n_tup_upd FROM pg_stat_user_tables WHERE relname IN ('"
+                            + String.join("', '", WRITTEN_TABLES) + "')")) {
+                while (rs.next()) {
+                    counters.put(rs.getString(1), new long[]{rs.getLong(2), rs.getLong(3)});
+                }
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Exact number of availability events recorded for the simulated lots.
+     */
+    public long availabilityEventCount() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT count(*) FROM availability_events WHERE lot_id IN "
+                     + "(SELECT id FROM parking_lots WHERE name LIKE '" + tag + "-lot-%')")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+    private List<Long> insertLots(int lots, int sensors) throws SQLException {
+        List<Long> ids = new ArrayList<>(lots);
+        Timestamp now = Timestamp.from(Instant.now());
+        String sql = "INSERT INTO parking_lots (source, status, name, capacity, available_spaces, availability_updated_at, "
+                + "public_access, location, version, created_at, updated_at) "
+                + "VALUES ('MANUAL', 'ACTIVE', ?, ?, ?, ?, true, "
+                + "ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography, 0, ?, ?) RETURNING id";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (int lot = 0; lot < lots; lot++) {
+                int capacity = sensors / lots + (lot < sensors % lots ? 1 : 0);
+                ps.setString(1, String.format("%s-lot-%04d", tag, lot));
+                ps.setInt(2, capacity);
+                ps.setInt(3, capacity);
+                ps.setTimestamp(4, now);
+                // Spread the lots over roughly 5 km around Skanderbeg Square
+                ps.setDouble(5, 19.8187 + ((lot % 10) - 5) * 0.006);
+                ps.setDouble(6, 41.3275 + ((lot / 10 % 10) - 5) * 0.0045);
+                ps.setTimestamp(7, now);
+                ps.setTimestamp(8, now);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private List<Sensor> insertSensorsAndSpaces(List<Long> lotIds, int sensors) throws SQLException {
+        Timestamp now = Timestamp.from(Instant.now());
+        String sensorSql = "INSERT INTO sensor_devices (device_id, api_key, sensor_type, parking_lot_id, description, "
+                + "last_seen_at, status, version, created_at, updated_at) "
+                + "VALUES (?, ?, 'PER_SPACE', ?, 'Simulated sensor', ?, 'ACTIVE', 0, ?, ?)";
+        // Space ids come from Hibernate's pooled sequence; each nextval reserves a block no node hands out
+        String spaceSql = "INSERT INTO parking_spaces (id, lot_id, space_type, space_status, label, last_status_changed_at, "
+                + "sensor_id, version, created_at, updated_at) "
+                + "SELECT nextval('parking_spaces_seq'), ?, 'STANDARD', 'AVAILABLE', ?, ?, id, 0, ?, ? "
+                + "FROM sensor_devices WHERE device_id = ? RETURNING id";
+
+        List<Sensor> fleet = new ArrayList<>(sensors);
+        try (PreparedStatement sensorPs = connection.prepareStatement(sensorSql);
+             PreparedStatement spacePs = connection.prepareStatement(spaceSql)) {
+            for (int i = 0; i < sensors; i++) {
+                long lotId = lotIds.get(i % lotIds.size());
+                String deviceId = String.format("%s-%05d", tag, i);
+                sensorPs.setString(1, deviceId);
+                sensorPs.setString(2, "sk_sim_" + tag + "_" + i);
+                sensorPs.setLong(3, lotId);
+                sensorPs.setTimestamp(4, now);
+                sensorPs.setTimestamp(5, now);
+                sensorPs.setTimestamp(6, now);
+                sensorPs.addBatch();
+                if ((i + 1) % INSERT_CHUNK == 0) {
+                    sensorPs.executeBatch();
+                }
+            }
+            sensorPs.executeBatch();
+
+            for (int i = 0; i < sensors; i++) {
+                long lotId = lotIds.get(i % lotIds.size());
+                String deviceId = String.format("%s-%05d", tag, i);
+                spacePs.setLong(1, lotId);
+                spacePs.setString(2, "S" + (i / lotIds.size() + 1));
+                spacePs.setTimestamp(3, now);
+                spacePs.setTimestamp(4, now);
+                spacePs.setTimestamp(5, now);
+                spacePs.setString(6, deviceId);
+                try (ResultSet rs = spacePs.executeQuery()) {
+                    rs.next();
+                    fleet.add(new Sensor(deviceId, "sk_sim_" + tag + "_" + i, rs.getLong(1), lotId));
+                }
+            }
+        }
+        return fleet;
+    }
+}
@@ -0,0 +1,78 @@
+package com.tirana.smartparking.parking.sensor.pipeline;
+
+import com.tirana.smartparking.parking.sensor.dto.SensorBatchResultDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorEventDTO;
+import com.tirana.smartparking.parking.sensor.dto.SensorIngestionQueueStatsDTO;
+import com.tirana.smartparking.parking.sensor.service.SensorIngestionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class SensorIngestionQueueTest {
+
+    private static SensorEventDTO event(String deviceId) {
+        return new SensorEventDTO(deviceId, null, "OCCUPIED", 10L, Instant.now(), "SPACE", null, null, null);
+    }
+
+    @Test
+    public void testFailingEventDoesNotDropItsNeighbours() throws Exception {
+        SensorIngestionService service = mock(SensorIngestionService.class);
+        List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        when(service.ingestVerifiedSensorEvents(anyList())).thenAnswer(invocation -> {
+            List<SensorEventDTO> events = invocation.getArgument(0);
+            if (events.stream().anyMatch(e -> e.deviceId().equals("BAD"))) {
+                throw new DataIntegrityViolationException("constraint violated");
+            }
+            events.forEach(e -> applied.add(e.deviceId()));
+            return new SensorBatchResultDTO(events.size(), events.size(), 0, 0, List.of());
+        });
+
+        // One partition and a batch size larger than the events, so they are drained together
+        SensorIngestionQueue queue = new SensorIngestionQueue(service, new SimpleMeterRegistry(), true, 1, 100, 100, 1);
+        queue.start();
+        List<String> devices = List.of("S1", "S2", "BAD", "S3", "S4", "S5");
+        try {
+            for (String device : devices) {
+                queue.submit(10L, event(device));
+            }
+        } finally {
+            queue.stop();
+        }
+
+        assertEquals(List.of("S1", "S2", "S3", "S4", "S5"), applied);
+        SensorIngestionQueueStatsDTO stats = queue.stats();
+        assertEquals(5, stats.processed());
+        assertEquals(1, stats.failed());
+        assertEquals(0, stats.invalid());
+        verify(service, never()).ingestSensorEvents(anyList());
+    }
+
+    @Test
+    public void testRejectedItemsAreNotCountedAsProcessed() {
+        SensorIngestionService service = mock(SensorIngestionService.class);
+        when(service.ingestVerifiedSensorEvents(anyList())).thenAnswer(invocation -> {
+            List<SensorEventDTO> events = invocation.getArgument(0);
+            return new SensorBatchResultDTO(events.size(), events.size() - 1, 0, 1, List.of());
+        });
+
+        SensorIngestionQueue queue = new SensorIngestionQueue(service, new SimpleMeterRegistry(), true, 1, 100, 100, 1);
+        queue.start();
+        try {
+            queue.submit(10L, event("S1"));
+        } finally {
+            queue.stop();
+        }
+
+        assertEquals(0, queue.stats().processed());
+        assertEquals(1, queue.stats().invalid());
+    }
+}